@@ -0,0 +1,87 @@
+package com.example.musiclibrary;
+
+import com.example.musiclibrary.bench.BenchmarkData;
+import com.example.musiclibrary.bench.BlackholeOutputStream;
+import com.example.musiclibrary.http.Json;
+import com.example.musiclibrary.model.Playlist;
+import com.example.musiclibrary.model.Song;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Response serialization as the servlets do it: the shared {@link Json} writer encoding song lists
+ * and playlists straight to bytes, and the JsonGenerator stream SongsServlet uses for the full
+ * catalog. The {@code *AsString} benchmarks are the old plain-ObjectMapper String path, for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonSerializationBenchmark {
+
+    @Param({"50", "1000"})
+    public int songCount;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private List<Song> songs;
+    private Playlist playlist;
+
+    @Setup
+    public void setUp() {
+        songs = BenchmarkData.songs(songCount);
+        playlist = BenchmarkData.playlist(songCount);
+    }
+
+    @Benchmark
+    public String songListAsString() throws IOException {
+        return objectMapper.writeValueAsString(songs);
+    }
+
+    @Benchmark
+    public String playlistAsString() throws IOException {
+        return objectMapper.writeValueAsString(playlist);
+    }
+
+    @Benchmark
+    public void songList(Blackhole blackhole) throws IOException {
+        try (JsonGenerator generator = Json.createGenerator(new BlackholeOutputStream(blackhole))) {
+            generator.writeObject(songs);
+        }
+    }
+
+    @Benchmark
+    public void playlist(Blackhole blackhole) throws IOException {
+        try (JsonGenerator generator = Json.createGenerator(new BlackholeOutputStream(blackhole))) {
+            generator.writeObject(playlist);
+        }
+    }
+
+    @Benchmark
+    public void songListStreamed(Blackhole blackhole) throws IOException {
+        try (JsonGenerator generator = Json.createGenerator(new BlackholeOutputStream(blackhole))) {
+            generator.writeStartArray();
+            for (Song song : songs) {
+                generator.writeObject(song);
+            }
+            generator.writeEndArray();
+        }
+    }
+}
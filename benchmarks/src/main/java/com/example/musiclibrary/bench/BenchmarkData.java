@@ -0,0 +1,204 @@
+package com.example.musiclibrary.bench;
+
+import com.example.musiclibrary.db.SchemaMigrator;
+import com.example.musiclibrary.model.Playlist;
+import com.example.musiclibrary.model.Song;
+import org.h2.jdbcx.JdbcDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Deterministic fixtures shared by the benchmarks: an embedded H2 database in MySQL mode
+ * with the application schema, and synthetic songs and playlists.
+ */
+public final class BenchmarkData {
+
+    private static final String[] WORDS = {
+            "love", "night", "summer", "heart", "fire", "dream", "river", "light", "shadow", "gold",
+            "blue", "rain", "city", "wild", "echo", "ocean", "star", "dance", "road", "home"
+    };
+
+    private BenchmarkData() {
+    }
+
+    /** JDBC URL of a named in-memory H2 database in MySQL mode that lives until the JVM exits. */
+    public static String h2Url(String name) {
+        return "jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1;"
+                + "DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE";
+    }
+
+    /** A fresh in-memory database with every migration applied. Lives until the JVM exits. */
+    public static DataSource newDatabase(String name) throws SQLException {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(h2Url(name));
+        dataSource.setUser("sa");
+        dataSource.setPassword("");
+        new SchemaMigrator(dataSource).migrate();
+        return dataSource;
+    }
+
+    /** The vocabulary song titles and names are built from, for generating matching search queries. */
+    public static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    /** Inserts {@code artists} artists with {@code albumsPerArtist} albums each and spreads {@code songs} over them. */
+    public static void seedCatalog(DataSource dataSource, int artists, int albumsPerArtist, int songs) throws SQLException {
+        Random random = new Random(42);
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO artists (id, name) VALUES (?, ?)")) {
+                for (int i = 1; i <= artists; i++) {
+                    stmt.setInt(1, i);
+                    stmt.setString(2, "Artist " + i + " " + phrase(random, 1));
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            int albums = artists * albumsPerArtist;
+            try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO albums (id, name, artist_id) VALUES (?, ?, ?)")) {
+                for (int i = 1; i <= albums; i++) {
+                    stmt.setInt(1, i);
+                    stmt.setString(2, "Album " + i + " " + phrase(random, 2));
+                    stmt.setInt(3, (i - 1) / albumsPerArtist + 1);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO songs (title, artist_id, album_id, duration_seconds) VALUES (?, ?, ?, ?)")) {
+                for (int i = 0; i < songs; i++) {
+                    int album = random.nextInt(albums) + 1;
+                    stmt.setString(1, phrase(random, 1 + random.nextInt(4)));
+                    stmt.setInt(2, (album - 1) / albumsPerArtist + 1);
+                    stmt.setInt(3, album);
+                    stmt.setInt(4, 60 + random.nextInt(480));
+                    stmt.addBatch();
+                    if (i % 1000 == 999) {
+                        stmt.executeBatch();
+                    }
+                }
+                stmt.executeBatch();
+            }
+            conn.commit();
+        }
+    }
+
+    /**
+     * Inserts users {@code user1..userN} (password {@code passwordHash}, as AuthServlet stores it), each owning
+     * {@code playlistsPerUser} playlists of {@code songsPerPlaylist} random songs. User {@code u} owns
+     * playlist ids {@code (u - 1) * playlistsPerUser + 1} through {@code u * playlistsPerUser}.
+     */
+    public static void seedUsersAndPlaylists(DataSource dataSource, int users, String passwordHash,
+                                             int playlistsPerUser, int songsPerPlaylist, int songs) throws SQLException {
+        Random random = new Random(7);
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO users (id, username, email, password) VALUES (?, ?, ?, ?)")) {
+                for (int i = 1; i <= users; i++) {
+                    stmt.setInt(1, i);
+                    stmt.setString(2, "user" + i);
+                    stmt.setString(3, "user" + i + "@example.com");
+                    stmt.setString(4, passwordHash);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            try (PreparedStatement playlistStmt = conn.prepareStatement(
+                         "INSERT INTO playlists (id, name, description, user_id) VALUES (?, ?, ?, ?)");
+                 PreparedStatement songStmt = conn.prepareStatement(
+                         "INSERT INTO playlist_songs (playlist_id, song_id, position) VALUES (?, ?, ?)")) {
+                int playlistId = 0;
+                for (int user = 1; user <= users; user++) {
+                    for (int p = 0; p < playlistsPerUser; p++) {
+                        playlistId++;
+                        playlistStmt.setInt(1, playlistId);
+                        playlistStmt.setString(2, phrase(random, 2));
+                        playlistStmt.setString(3, "Playlist " + playlistId);
+                        playlistStmt.setInt(4, user);
+                        playlistStmt.addBatch();
+
+                        Set<Integer> chosen = new HashSet<>();
+                        while (chosen.size() < Math.min(songsPerPlaylist, songs)) {
+                            int songId = random.nextInt(songs) + 1;
+                            if (chosen.add(songId)) {
+                                songStmt.setInt(1, playlistId);
+                                songStmt.setInt(2, songId);
+                                songStmt.setLong(3, chosen.size() * 65536L);
+                                songStmt.addBatch();
+                            }
+                        }
+                    }
+                }
+                playlistStmt.executeBatch();
+                songStmt.executeBatch();
+            }
+            // The stored totals PlaylistDao keeps up to date as songs are added and removed
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "UPDATE playlists SET " +
+                    "song_count = (SELECT COUNT(*) FROM playlist_songs ps WHERE ps.playlist_id = playlists.id), " +
+                    "total_duration_seconds = (SELECT COALESCE(SUM(s.duration_seconds), 0) FROM playlist_songs ps " +
+                    "JOIN songs s ON s.id = ps.song_id WHERE ps.playlist_id = playlists.id)")) {
+                stmt.executeUpdate();
+            }
+            conn.commit();
+        }
+    }
+
+    /** Songs shaped like the ones SongDao returns. */
+    public static List<Song> songs(int count) {
+        Random random = new Random(42);
+        List<Song> songs = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            Song song = new Song();
+            song.setId(i);
+            song.setTitle(phrase(random, 1 + random.nextInt(4)));
+            song.setArtistName("Artist " + random.nextInt(500));
+            song.setAlbumName("Album " + random.nextInt(2000));
+            song.setDurationSeconds(60 + random.nextInt(480));
+            song.setAudioFilePath(random.nextBoolean() ? "uploads/audio/" + i + ".mp3" : null);
+            songs.add(song);
+        }
+        return songs;
+    }
+
+    /** A playlist holding {@code songCount} songs, as returned by PlaylistDao.getPlaylistById. */
+    public static Playlist playlist(int songCount) {
+        Playlist playlist = new Playlist();
+        playlist.setId(1);
+        playlist.setName("Benchmark playlist");
+        playlist.setDescription("Synthetic playlist for serialization benchmarks");
+        playlist.setCreatedAt(new Date(1700000000000L));
+        playlist.setUpdatedAt(new Date(1700000000000L));
+        playlist.setSongs(songs(songCount));
+        playlist.setSongCount(songCount);
+        long totalDuration = 0;
+        for (Song song : playlist.getSongs()) {
+            totalDuration += song.getDurationSeconds();
+        }
+        playlist.setTotalDurationSeconds(totalDuration);
+        return playlist;
+    }
+
+    private static String phrase(Random random, int words) {
+        StringBuilder phrase = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                phrase.append(' ');
+            }
+            String word = WORDS[random.nextInt(WORDS.length)];
+            phrase.append(i == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+        }
+        return phrase.toString();
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.musiclibrary.bench;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.OutputStream;
+
+/** Response body stand-in: hands every write to the JMH blackhole so it cannot be optimized away. */
+public class BlackholeOutputStream extends OutputStream {
+
+    private final Blackhole blackhole;
+
+    public BlackholeOutputStream(Blackhole blackhole) {
+        this.blackhole = blackhole;
+    }
+
+    @Override
+    public void write(int b) {
+        blackhole.consume(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        blackhole.consume(b);
+        blackhole.consume(len);
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.musiclibrary.dao;
+
+import com.example.musiclibrary.bench.BenchmarkData;
+import com.example.musiclibrary.db.ConnectionPool;
+import com.example.musiclibrary.db.PoolConfig;
+import com.example.musiclibrary.model.Song;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SongDao read paths against an embedded H2 database in MySQL mode.
+ *
+ * {@code mapRows} replays an already-fetched result set, so it measures row mapping alone;
+ * the other benchmarks include statement execution as the servlets see it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SongDaoBenchmark {
+
+    @Param({"1000", "10000"})
+    public int songCount;
+
+    private ConnectionPool pool;
+    private Connection connection;
+    private SongDao songDao;
+    private PreparedStatement scrollStatement;
+    private ResultSet scrollResult;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        DataSource dataSource = BenchmarkData.newDatabase("songdao" + songCount);
+        BenchmarkData.seedCatalog(dataSource, songCount / 20 + 1, 4, songCount);
+        connection = dataSource.getConnection();
+
+        // The DAO borrows a connection per call, as it does in the server
+        Properties properties = new Properties();
+        properties.setProperty("db.url", BenchmarkData.h2Url("songdao" + songCount));
+        properties.setProperty("db.user", "sa");
+        properties.setProperty("db.password", "");
+        properties.setProperty("db.profiler.enabled", "false");
+        pool = new ConnectionPool(new PoolConfig(properties));
+        pool.start();
+        songDao = new SongDao(pool);
+
+        scrollStatement = connection.prepareStatement(
+                "SELECT s.id, s.title, a.name AS artist_name, al.name AS album_name, s.duration_seconds, s.audio_file_path " +
+                        "FROM songs s " +
+                        "JOIN artists a ON s.artist_id = a.id " +
+                        "JOIN albums al ON s.album_id = al.id",
+                ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        scrollResult = scrollStatement.executeQuery();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        scrollResult.close();
+        scrollStatement.close();
+        connection.close();
+        pool.close();
+    }
+
+    @Benchmark
+    public void mapRows(Blackhole blackhole) throws SQLException {
+        scrollResult.beforeFirst();
+        while (scrollResult.next()) {
+            blackhole.consume(SongDao.mapRowToSong(scrollResult));
+        }
+    }
+
+    @Benchmark
+    public List<Song> getAllSongs() {
+        return songDao.getAllSongs();
+    }
+
+    @Benchmark
+    public List<Song> getSongsPage() {
+        return songDao.getSongsPage("M", 0, 51);
+    }
+
+    @Benchmark
+    public void forEachSong(Blackhole blackhole) throws SQLException, IOException {
+        songDao.forEachSong(blackhole::consume);
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.musiclibrary.http;
+
+import com.example.musiclibrary.bench.BlackholeOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copying a byte range of an audio file to a response body, as a seek request does.
+ *
+ * {@code fileSender} is the current path; {@code streamCopy} is the skip-and-8KB-buffer loop
+ * the servlets used before it, kept as the baseline. Outside Jetty FileSender takes its
+ * transferTo fallback, so the memory-mapped path is only exercised by the load test.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RangeCopyBenchmark {
+
+    private static final long FILE_SIZE = 8L * 1024 * 1024;
+
+    /** Bytes per request: a small seek probe and a typical browser chunk. */
+    @Param({"65536", "1048576"})
+    public int rangeLength;
+
+    private Path file;
+    private long rangeStart;
+    private String rangeHeader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("range-bench", ".mp3");
+        byte[] chunk = new byte[64 * 1024];
+        new Random(42).nextBytes(chunk);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < FILE_SIZE; written += chunk.length) {
+                out.write(chunk);
+            }
+        }
+        rangeStart = FILE_SIZE / 3;
+        rangeHeader = "bytes=" + rangeStart + "-" + (rangeStart + rangeLength - 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void fileSender(Blackhole blackhole) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            FileSender.send(channel, rangeStart, rangeLength, new BlackholeOutputStream(blackhole));
+        }
+    }
+
+    @Benchmark
+    public void streamCopy(Blackhole blackhole) throws IOException {
+        OutputStream out = new BlackholeOutputStream(blackhole);
+        try (InputStream fileStream = new FileInputStream(file.toFile())) {
+            fileStream.skip(rangeStart);
+            byte[] buffer = new byte[8192];
+            long remaining = rangeLength;
+            while (remaining > 0) {
+                int read = fileStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) break;
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    @Benchmark
+    public List<ByteRange> parseRange() {
+        return ByteRange.parse(rangeHeader, FILE_SIZE);
+    }
+}
@@ -0,0 +1,350 @@
+package com.example.musiclibrary.loadtest;
+
+import com.example.musiclibrary.WebServer;
+import com.example.musiclibrary.bench.BenchmarkData;
+import com.example.musiclibrary.db.DatabaseConnection;
+import com.example.musiclibrary.metrics.LatencyHistogram;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Boots the whole server against a seeded in-memory H2 database (MySQL mode) and replays a
+ * mix of catalog browsing, search-as-you-type, playlist reads and edits, audio seeks and logins
+ * from concurrent clients, then prints latency percentiles and throughput per endpoint.
+ *
+ * Settings are {@code key=value} arguments, e.g. {@code songs=100000 threads=64 duration=60};
+ * {@code db.pool.*} system properties tune the server's pool as they do in production.
+ */
+public class LoadTest {
+
+    private static final String PASSWORD = "loadtest";
+    private static final int AUDIO_RANGE_BYTES = 256 * 1024;
+
+    private final Map<String, String> settings = new LinkedHashMap<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private String baseUrl;
+    private volatile boolean recording;
+    private volatile long stopAt;
+
+    public static void main(String[] args) throws Exception {
+        LoadTest loadTest = new LoadTest();
+        loadTest.settings.put("artists", "200");
+        loadTest.settings.put("albumsPerArtist", "5");
+        loadTest.settings.put("songs", "20000");
+        loadTest.settings.put("users", "50");
+        loadTest.settings.put("playlistsPerUser", "5");
+        loadTest.settings.put("songsPerPlaylist", "30");
+        loadTest.settings.put("audioFiles", "20");
+        loadTest.settings.put("audioFileBytes", String.valueOf(4 * 1024 * 1024));
+        loadTest.settings.put("threads", "32");
+        loadTest.settings.put("warmup", "10");
+        loadTest.settings.put("duration", "30");
+        loadTest.settings.put("port", "0");
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0 || !loadTest.settings.containsKey(arg.substring(0, eq))) {
+                System.err.println("Unknown setting: " + arg + " (known: " + loadTest.settings.keySet() + ")");
+                System.exit(2);
+            }
+            loadTest.settings.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        loadTest.run();
+    }
+
+    private int setting(String key) {
+        return Integer.parseInt(settings.get(key));
+    }
+
+    private void run() throws Exception {
+        System.out.println("Load test settings: " + settings);
+        Path audioDir = Files.createTempDirectory("loadtest-audio");
+        Server server = null;
+        try {
+            seed(audioDir);
+            server = WebServer.start(setting("port"));
+            int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+            baseUrl = "http://localhost:" + port;
+            System.out.println("Server up at " + baseUrl + "; " + DatabaseConnection.getPool());
+
+            Map<String, EndpointStats> results = drive();
+            report(results);
+            System.out.println("Pool after run: " + DatabaseConnection.getPool());
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+            DatabaseConnection.shutdown();
+            try (Stream<Path> files = Files.list(audioDir)) {
+                files.forEach(file -> file.toFile().delete());
+            }
+            Files.deleteIfExists(audioDir);
+        }
+    }
+
+    private void seed(Path audioDir) throws Exception {
+        long start = System.currentTimeMillis();
+        String name = "loadtest" + System.nanoTime();
+        System.setProperty("db.url", BenchmarkData.h2Url(name));
+        System.setProperty("db.user", "sa");
+        System.setProperty("db.password", "");
+
+        DataSource dataSource = BenchmarkData.newDatabase(name);
+        BenchmarkData.seedCatalog(dataSource, setting("artists"), setting("albumsPerArtist"), setting("songs"));
+        BenchmarkData.seedUsersAndPlaylists(dataSource, setting("users"), sha256Hex(PASSWORD),
+                setting("playlistsPerUser"), setting("songsPerPlaylist"), setting("songs"));
+
+        // The first audioFiles songs get a real file on disk
+        byte[] chunk = new byte[64 * 1024];
+        new Random(1).nextBytes(chunk);
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("UPDATE songs SET audio_file_path = ? WHERE id = ?")) {
+            for (int id = 1; id <= setting("audioFiles"); id++) {
+                Path file = audioDir.resolve("song" + id + ".mp3");
+                try (OutputStream out = Files.newOutputStream(file)) {
+                    for (long written = 0; written < setting("audioFileBytes"); written += chunk.length) {
+                        out.write(chunk);
+                    }
+                }
+                stmt.setString(1, file.toAbsolutePath().toString());
+                stmt.setInt(2, id);
+                stmt.executeUpdate();
+            }
+        }
+        System.out.println("Seeded database in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private Map<String, EndpointStats> drive() throws Exception {
+        int threads = setting("threads");
+        long warmupMillis = setting("warmup") * 1000L;
+        long durationMillis = setting("duration") * 1000L;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Map<String, EndpointStats>>> futures = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        stopAt = start + warmupMillis + durationMillis;
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker(i);
+            futures.add(executor.submit(worker::call));
+        }
+
+        System.out.println("Warming up for " + setting("warmup") + "s with " + threads + " clients...");
+        Thread.sleep(warmupMillis);
+        recording = true;
+        System.out.println("Measuring for " + setting("duration") + "s...");
+
+        Map<String, EndpointStats> merged = new LinkedHashMap<>();
+        for (Future<Map<String, EndpointStats>> future : futures) {
+            for (Map.Entry<String, EndpointStats> entry : future.get().entrySet()) {
+                merged.computeIfAbsent(entry.getKey(), key -> new EndpointStats()).add(entry.getValue());
+            }
+        }
+        executor.shutdown();
+        return merged;
+    }
+
+    private void report(Map<String, EndpointStats> results) {
+        double seconds = setting("duration");
+        System.out.println();
+        System.out.println(String.format("%-34s %9s %7s %9s %9s %9s %9s %9s",
+                "Endpoint", "Requests", "Errors", "Req/s", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+        EndpointStats total = new EndpointStats();
+        for (Map.Entry<String, EndpointStats> entry : results.entrySet()) {
+            printRow(entry.getKey(), entry.getValue(), seconds);
+            total.add(entry.getValue());
+        }
+        printRow("TOTAL", total, seconds);
+    }
+
+    private static void printRow(String name, EndpointStats stats, double seconds) {
+        LatencyHistogram latency = stats.latency;
+        System.out.println(String.format("%-34s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f",
+                name, latency.getCount(), stats.errors, latency.getCount() / seconds,
+                latency.percentileNanos(0.50) / 1e6, latency.percentileNanos(0.99) / 1e6,
+                latency.percentileNanos(0.999) / 1e6, latency.getMaxNanos() / 1e6));
+    }
+
+    /** Latencies of one endpoint's successful requests and a count of its failed ones. */
+    private static class EndpointStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        long errors;
+
+        void add(EndpointStats other) {
+            latency.add(other.latency);
+            errors += other.errors;
+        }
+    }
+
+    /** One simulated client with its own user, playlists and browsing position. */
+    private class Worker {
+        private final Random random;
+        private final int userId;
+        private final int firstPlaylistId;
+        private final Map<String, EndpointStats> stats = new LinkedHashMap<>();
+        private String cursor;
+
+        Worker(int index) {
+            this.random = new Random(1000 + index);
+            this.userId = index % setting("users") + 1;
+            this.firstPlaylistId = (userId - 1) * setting("playlistsPerUser") + 1;
+        }
+
+        Map<String, EndpointStats> call() {
+            while (System.currentTimeMillis() < stopAt) {
+                int pick = random.nextInt(100);
+                try {
+                    if (pick < 25) {
+                        browse();
+                    } else if (pick < 50) {
+                        searchAsYouType();
+                    } else if (pick < 65) {
+                        readPlaylists();
+                    } else if (pick < 75) {
+                        editPlaylist();
+                    } else if (pick < 95) {
+                        seekAudio();
+                    } else {
+                        login();
+                    }
+                } catch (IOException e) {
+                    // Already counted as an error for the endpoint that failed
+                }
+            }
+            return stats;
+        }
+
+        private void browse() throws IOException {
+            String path = "/api/songs?limit=50" + (cursor != null ? "&after=" + URLEncoder.encode(cursor, "UTF-8") : "");
+            byte[] page = request("GET /api/songs?limit&after", "GET", path, null, null);
+            JsonNode next = objectMapper.readTree(page).get("nextCursor");
+            cursor = next == null || next.isNull() ? null : next.asText();
+        }
+
+        private void searchAsYouType() throws IOException {
+            // One request per keystroke, as the search box sends them
+            String query = BenchmarkData.word(random) + " " + BenchmarkData.word(random);
+            for (int length = 1; length <= query.length(); length++) {
+                String prefix = query.substring(0, length);
+                if (prefix.endsWith(" ")) {
+                    continue;
+                }
+                request("GET /api/songs?search", "GET",
+                        "/api/songs?search=" + URLEncoder.encode(prefix, "UTF-8"), null, null);
+            }
+        }
+
+        private void readPlaylists() throws IOException {
+            request("GET /api/playlists", "GET", "/api/playlists", null, null);
+            request("GET /api/playlists/{id}", "GET", "/api/playlists/" + randomPlaylist(), null, null);
+        }
+
+        private void editPlaylist() throws IOException {
+            int playlistId = randomPlaylist();
+            int songId = random.nextInt(setting("songs")) + 1;
+            request("POST /api/playlists/{id}", "POST", "/api/playlists/" + playlistId,
+                    "{\"songId\":" + songId + "}", null);
+            request("DELETE /api/playlists/{id}/{songId}", "DELETE",
+                    "/api/playlists/" + playlistId + "/" + songId, null, null);
+        }
+
+        private void seekAudio() throws IOException {
+            int songId = random.nextInt(setting("audioFiles")) + 1;
+            long offset = (long) random.nextInt(Math.max(1, setting("audioFileBytes") - AUDIO_RANGE_BYTES));
+            request("GET /api/audio (range)", "GET", "/api/audio?id=" + songId, null,
+                    "bytes=" + offset + "-" + (offset + AUDIO_RANGE_BYTES - 1));
+        }
+
+        private void login() throws IOException {
+            request("POST /api/auth/login", "POST", "/api/auth/login",
+                    "{\"username\":\"user" + userId + "\",\"password\":\"" + PASSWORD + "\"}", null);
+        }
+
+        private int randomPlaylist() {
+            return firstPlaylistId + random.nextInt(setting("playlistsPerUser"));
+        }
+
+        private byte[] request(String endpoint, String method, String path, String body, String range) throws IOException {
+            EndpointStats endpointStats = recording ? stats.computeIfAbsent(endpoint, key -> new EndpointStats()) : null;
+            long start = System.nanoTime();
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+                connection.setRequestMethod(method);
+                connection.setRequestProperty("X-User-Id", String.valueOf(userId));
+                if (range != null) {
+                    connection.setRequestProperty("Range", range);
+                }
+                if (body != null) {
+                    connection.setDoOutput(true);
+                    connection.setRequestProperty("Content-Type", "application/json");
+                    try (OutputStream out = connection.getOutputStream()) {
+                        out.write(body.getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+                int status = connection.getResponseCode();
+                // Read to the end so the connection goes back to the keep-alive pool
+                InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+                byte[] responseBody = in != null ? readFully(in) : new byte[0];
+                if (endpointStats != null) {
+                    if (status >= 400) {
+                        endpointStats.errors++;
+                    } else {
+                        endpointStats.latency.recordSince(start);
+                    }
+                }
+                return responseBody;
+            } catch (IOException e) {
+                if (endpointStats != null) {
+                    endpointStats.errors++;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static String sha256Hex(String value) throws Exception {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(value.getBytes());
+        StringBuilder hex = new StringBuilder();
+        for (byte b : hash) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.musiclibrary;
+
+import com.example.musiclibrary.dao.PlaylistDao;
+import com.example.musiclibrary.db.QueryProfiler;
+import com.example.musiclibrary.http.Json;
+import com.example.musiclibrary.scan.LibraryScanner;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Query profiler and library endpoints, answered only for requests from the server itself:
+ * <ul>
+ *   <li>{@code GET /api/admin/queries?limit=20} - statement shapes by total time</li>
+ *   <li>{@code GET /api/admin/queries/explain?rank=1} - EXPLAIN for a ranked shape, using its slowest run's binds</li>
+ *   <li>{@code POST /api/admin/queries/reset} - clear the statistics</li>
+ *   <li>{@code POST /api/admin/library/scan} - scan the music root and wait for the result</li>
+ *   <li>{@code GET /api/admin/library/scan} - whether a scan is running, and the last result</li>
+ *   <li>{@code POST /api/admin/playlists/repair} - recompute playlist song counts and durations that are wrong</li>
+ * </ul>
+ */
+public class AdminServlet extends HttpServlet {
+    private static final int DEFAULT_LIMIT = 20;
+
+    private final QueryProfiler profiler;
+    private final DataSource dataSource;
+    private final LibraryScanner libraryScanner;
+    private final PlaylistDao playlistDao;
+
+    public AdminServlet(QueryProfiler profiler, DataSource dataSource, LibraryScanner libraryScanner,
+                        PlaylistDao playlistDao) {
+        this.profiler = profiler;
+        this.dataSource = dataSource;
+        this.libraryScanner = libraryScanner;
+        this.playlistDao = playlistDao;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        if (!isLocal(request, response)) {
+            return;
+        }
+
+        String pathInfo = request.getPathInfo();
+        try {
+            if ("/queries".equals(pathInfo)) {
+                int limit = request.getParameter("limit") != null
+                        ? Integer.parseInt(request.getParameter("limit")) : DEFAULT_LIMIT;
+                List<Map<String, Object>> queries = new ArrayList<>();
+                int rank = 1;
+                for (QueryProfiler.QueryStats stats : profiler.getTopQueries(Math.max(1, limit))) {
+                    queries.add(describe(rank++, stats));
+                }
+                Map<String, Object> body = new LinkedHashMap<>();
+                body.put("profilerEnabled", profiler.isEnabled());
+                body.put("queries", queries);
+                Json.write(response, body);
+            } else if ("/queries/explain".equals(pathInfo)) {
+                int rank = Integer.parseInt(request.getParameter("rank"));
+                List<QueryProfiler.QueryStats> top = profiler.getTopQueries(rank);
+                if (rank < 1 || top.size() < rank) {
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                    response.getWriter().print("{\"error\":\"No query at rank " + rank + "\"}");
+                    return;
+                }
+                explain(top.get(rank - 1), response);
+            } else if ("/library/scan".equals(pathInfo)) {
+                Map<String, Object> body = new LinkedHashMap<>();
+                body.put("root", libraryScanner.getRoot().toString());
+                body.put("running", libraryScanner.isRunning());
+                body.put("lastResult", libraryScanner.getLastResult());
+                Json.write(response, body);
+            } else {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                response.getWriter().print("{\"error\":\"Unknown admin endpoint\"}");
+            }
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().print("{\"error\":\"Invalid limit or rank\"}");
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        if (!isLocal(request, response)) {
+            return;
+        }
+        if ("/queries/reset".equals(request.getPathInfo())) {
+            profiler.reset();
+            response.getWriter().print("{\"success\": true, \"message\": \"Query statistics cleared\"}");
+        } else if ("/library/scan".equals(request.getPathInfo())) {
+            scanLibrary(response);
+        } else if ("/playlists/repair".equals(request.getPathInfo())) {
+            repairPlaylists(response);
+        } else {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().print("{\"success\": false, \"message\": \"Unknown admin endpoint\"}");
+        }
+    }
+
+    private void scanLibrary(HttpServletResponse response) throws IOException {
+        LibraryScanner.ScanResult result;
+        try {
+            result = libraryScanner.scan();
+        } catch (IOException | SQLException e) {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("success", false);
+            body.put("message", "Scan failed: " + e.getMessage());
+            Json.write(response, body);
+            return;
+        }
+        if (result == null) {
+            response.setStatus(HttpServletResponse.SC_CONFLICT);
+            response.getWriter().print("{\"success\": false, \"message\": \"A library scan is already running\"}");
+            return;
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("success", result.getFailed() == 0);
+        body.put("root", libraryScanner.getRoot().toString());
+        body.put("result", result);
+        Json.write(response, body);
+    }
+
+    private void repairPlaylists(HttpServletResponse response) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        try {
+            int repaired = playlistDao.repairPlaylistTotals();
+            body.put("success", true);
+            body.put("repaired", repaired);
+        } catch (SQLException e) {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            body.put("success", false);
+            body.put("message", "Repair failed: " + e.getMessage());
+        }
+        Json.write(response, body);
+    }
+
+    private Map<String, Object> describe(int rank, QueryProfiler.QueryStats stats) {
+        long count = stats.getCount();
+        Map<String, Object> query = new LinkedHashMap<>();
+        query.put("rank", rank);
+        query.put("sql", stats.getShape());
+        query.put("count", count);
+        query.put("totalMs", stats.getTotalNanos() / 1_000_000.0);
+        query.put("avgMs", count == 0 ? 0.0 : stats.getTotalNanos() / (double) count / 1_000_000.0);
+        query.put("maxMs", stats.getMaxNanos() / 1_000_000.0);
+        query.put("avgRows", count == 0 ? 0.0 : stats.getTotalRows() / (double) count);
+        query.put("binds", stats.getBindCount());
+        query.put("slowCount", stats.getSlowCount());
+        return query;
+    }
+
+    private void explain(QueryProfiler.QueryStats stats, HttpServletResponse response) throws IOException {
+        String sql = stats.getSampleSql();
+        // EXPLAIN of a write would be harmless on MySQL, but only reads are worth inspecting here
+        if (sql == null || !sql.trim().toUpperCase().startsWith("SELECT")) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().print("{\"error\":\"Only SELECT statements can be explained\"}");
+            return;
+        }
+
+        Object[] binds = stats.getSampleBinds();
+        List<Map<String, Object>> plan = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("EXPLAIN " + sql)) {
+            for (int i = 0; i < binds.length; i++) {
+                if (binds[i] == null) {
+                    stmt.setNull(i + 1, Types.NULL);
+                } else {
+                    stmt.setObject(i + 1, binds[i]);
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                while (rs.next()) {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    for (int column = 1; column <= meta.getColumnCount(); column++) {
+                        row.put(meta.getColumnLabel(column), rs.getObject(column));
+                    }
+                    plan.add(row);
+                }
+            }
+        } catch (SQLException e) {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            Json.write(response, Collections.singletonMap("error", "EXPLAIN failed: " + e.getMessage()));
+            return;
+        }
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("sql", sql);
+        body.put("binds", binds.length);
+        body.put("plan", plan);
+        Json.write(response, body);
+    }
+
+    private boolean isLocal(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String address = request.getRemoteAddr();
+        if ("127.0.0.1".equals(address) || "0:0:0:0:0:0:0:1".equals(address) || "::1".equals(address)) {
+            return true;
+        }
+        response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+        response.getWriter().print("{\"error\":\"Admin endpoints are only available from localhost\"}");
+        return false;
+    }
+}
@@ -1,21 +1,55 @@
 package com.example.musiclibrary;
 
+import com.example.musiclibrary.cache.AudioFileCache;
 import com.example.musiclibrary.dao.SongDao;
-import com.example.musiclibrary.db.DatabaseConnection;
+import com.example.musiclibrary.http.FileSender;
+import com.example.musiclibrary.metrics.InstrumentedServlet;
+import com.example.musiclibrary.metrics.Metrics;
+import com.example.musiclibrary.model.SeekTable;
 import com.example.musiclibrary.model.Song;
+import com.example.musiclibrary.scan.AudioMetadata;
+import com.example.musiclibrary.scan.Mp3FrameScanner;
+import com.example.musiclibrary.waveform.WaveformPeaks;
+import com.example.musiclibrary.waveform.WaveformService;
 
 import javax.servlet.ServletException;
-import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.*;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.sql.Connection;
-import java.sql.SQLException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code GET /api/audio?id=N} streams a song's audio file, with byte ranges for seeking.
+ * {@code GET /api/audio?id=N&t=SECONDS} streams an MP3 from the frame playing at that time, found
+ * with the song's seek table; the exact start time is returned in {@code X-Start-Time}.
+ * {@code GET /api/audio/peaks?id=N} returns a WAV's waveform peaks.
+ */
+public class AudioStreamServlet extends InstrumentedServlet {
+    private static final LongAdder BYTES_SENT = Metrics.audioBytes("/api/audio");
+
+    private final AudioFileCache audioFileCache;
+    private final SongDao songDao;
+    private final WaveformService waveformService;
+    // Held while a song's seek table is loaded or built, so concurrent seeks into a song that has
+    // none cached wait for one scan of the file instead of each starting their own
+    private final ConcurrentMap<Integer, Object> seekTableLocks = new ConcurrentHashMap<>();
+
+    public AudioStreamServlet(AudioFileCache audioFileCache, SongDao songDao, WaveformService waveformService) {
+        this.audioFileCache = audioFileCache;
+        this.songDao = songDao;
+        this.waveformService = waveformService;
+    }
 
-public class AudioStreamServlet extends HttpServlet {
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
@@ -27,86 +61,209 @@ public class AudioStreamServlet extends HttpServlet {
             return;
         }
 
+        int songId;
         try {
-            int songId = Integer.parseInt(songIdParam);
-            Connection connection = DatabaseConnection.getConnection();
-            SongDao songDao = new SongDao(connection);
-            
-            // Get song info
-            Song song = songDao.getSongById(songId);
-            if (song == null) {
-                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                response.getWriter().print("{\"error\":\"Song not found\"}");
-                connection.close();
-                return;
-            }
+            songId = Integer.parseInt(songIdParam);
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().print("{\"error\":\"Invalid song ID\"}");
+            return;
+        }
 
-            String audioPath = song.getAudioFilePath();
-            
-            // If no audio file path, return placeholder or error
-            if (audioPath == null || audioPath.trim().isEmpty()) {
-                response.setContentType("application/json");
-                response.getWriter().print("{\"error\":\"No audio file available for this song\"}");
-                connection.close();
-                return;
-            }
+        if ("/peaks".equals(request.getPathInfo())) {
+            servePeaks(request, response, songId);
+            return;
+        }
 
-            // Check if file exists
-            Path filePath = Paths.get(audioPath);
-            if (!Files.exists(filePath)) {
-                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                response.getWriter().print("{\"error\":\"Audio file not found on server\"}");
-                connection.close();
+        long seekMillis = 0;
+        String timeParam = request.getParameter("t");
+        if (timeParam != null) {
+            try {
+                seekMillis = Math.round(Double.parseDouble(timeParam) * 1000);
+            } catch (NumberFormatException e) {
+                seekMillis = -1;
+            }
+            if (seekMillis < 0) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                response.getWriter().print("{\"error\":\"Invalid time\"}");
                 return;
             }
+        }
+
+        AudioFileCache.Entry audio = findAudio(songId, response);
+        if (audio == null) {
+            return;
+        }
 
-            // Set content type for audio streaming
-            String contentType = getContentType(audioPath);
-            response.setContentType(contentType);
-            response.setHeader("Accept-Ranges", "bytes");
-            response.setHeader("Content-Disposition", "inline; filename=\"" + song.getTitle() + "\"");
-
-            // Handle range requests for seeking
-            String rangeHeader = request.getHeader("Range");
-            long fileSize = Files.size(filePath);
-            long start = 0;
-            long end = fileSize - 1;
-
-            if (rangeHeader != null) {
-                String[] ranges = rangeHeader.replace("bytes=", "").split("-");
-                start = Long.parseLong(ranges[0]);
-                if (ranges.length > 1 && !ranges[1].isEmpty()) {
-                    end = Long.parseLong(ranges[1]);
+        // Revalidated with ETag/Last-Modified on every use
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("Content-Disposition", "inline; filename=\"" + audio.getTitle() + "\"");
+
+        // Conditional requests and byte ranges (for seeking), streamed from the page cache
+        try {
+            long offset = 0;
+            if (timeParam != null) {
+                Mp3FrameScanner.SeekPoint start = findSeekPoint(songId, audio, seekMillis, response);
+                if (start == null) {
+                    return;
                 }
-                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
-                response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + fileSize);
+                offset = start.getOffset();
+                response.setHeader("X-Start-Time", String.format(Locale.ROOT, "%.3f", start.getMillis() / 1000.0));
             }
+            BYTES_SENT.add(FileSender.serve(request, response, audio.getPath(), offset, audio.getFileSize(),
+                    audio.getLastModified(), audio.getContentType()));
+        } catch (NoSuchFileException e) {
+            // removed from disk since it was cached
+            audioFileCache.invalidate(songId);
+            response.reset();
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().print("{\"error\":\"Audio file not found on server\"}");
+        }
+    }
 
-            response.setContentLengthLong(end - start + 1);
-
-            // Stream the file
-            try (InputStream fileStream = Files.newInputStream(filePath);
-                 OutputStream out = response.getOutputStream()) {
-                
-                fileStream.skip(start);
-                byte[] buffer = new byte[8192];
-                long remaining = end - start + 1;
-                
-                while (remaining > 0) {
-                    int read = fileStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
-                    if (read == -1) break;
-                    out.write(buffer, 0, read);
-                    remaining -= read;
-                }
+    /** The song's audio file, from the cache or the database, or null after answering with an error. */
+    private AudioFileCache.Entry findAudio(int songId, HttpServletResponse response) throws IOException {
+        // Every seek is a new request; only the first one for a song goes to the database
+        AudioFileCache.Entry audio = audioFileCache.get(songId);
+        if (audio != null) {
+            if (audio.isCurrent()) {
+                return audio;
             }
+            // Replaced or removed on disk since it was cached
+            audioFileCache.invalidate(songId);
+        }
 
-            connection.close();
-        } catch (NumberFormatException e) {
+        long generation = audioFileCache.generation(songId);
+        // The DAO returns its connection to the pool before any file I/O
+        Song song = songDao.getSongById(songId);
+        if (song == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().print("{\"error\":\"Song not found\"}");
+            return null;
+        }
+
+        String audioPath = song.getAudioFilePath();
+
+        // If no audio file path, return placeholder or error
+        if (audioPath == null || audioPath.trim().isEmpty()) {
+            response.setContentType("application/json");
+            response.getWriter().print("{\"error\":\"No audio file available for this song\"}");
+            return null;
+        }
+
+        // Check if file exists
+        Path filePath = Paths.get(audioPath);
+        if (!Files.isRegularFile(filePath)) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().print("{\"error\":\"Audio file not found on server\"}");
+            return null;
+        }
+
+        BasicFileAttributes attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+        audio = new AudioFileCache.Entry(generation, filePath, attributes.size(),
+                attributes.lastModifiedTime().toMillis(), getContentType(audioPath), song.getTitle());
+        audioFileCache.put(songId, audio);
+        return audio;
+    }
+
+    /**
+     * {@code GET /api/audio/peaks?id=N}: the song's waveform sidecar (see {@link WaveformPeaks}).
+     * 202 with Retry-After while it is being computed; playback requests never wait for it.
+     */
+    private void servePeaks(HttpServletRequest request, HttpServletResponse response, int songId) throws IOException {
+        AudioFileCache.Entry audio = findAudio(songId, response);
+        if (audio == null) {
+            return;
+        }
+        if (!"audio/wav".equals(audio.getContentType())) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            response.getWriter().print("{\"error\":\"Invalid song ID\"}");
-        } catch (SQLException e) {
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            response.getWriter().print("{\"error\":\"" + e.getMessage() + "\"}");
+            response.getWriter().print("{\"error\":\"Waveforms are only available for WAV files\"}");
+            return;
+        }
+
+        Path peaks = waveformService.getPeaks(audio.getPath(), audio.getFileSize(), audio.getLastModified());
+        if (peaks == null) {
+            response.setContentType("application/json");
+            switch (waveformService.request(audio.getPath(), audio.getFileSize(), audio.getLastModified())) {
+                case PENDING:
+                    response.setStatus(HttpServletResponse.SC_ACCEPTED);
+                    response.setHeader("Retry-After", "1");
+                    response.getWriter().print("{\"status\":\"pending\"}");
+                    break;
+                case BUSY:
+                    response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                    response.setHeader("Retry-After", "5");
+                    response.getWriter().print("{\"error\":\"Waveform queue is full\"}");
+                    break;
+                default:
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                    response.getWriter().print("{\"error\":\"No waveform can be computed for this file\"}");
+                    break;
+            }
+            return;
+        }
+
+        response.setHeader("Cache-Control", "no-cache");
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(peaks, BasicFileAttributes.class);
+            FileSender.serve(request, response, peaks, attributes.size(), attributes.lastModifiedTime().toMillis(),
+                    "application/octet-stream");
+        } catch (NoSuchFileException e) {
+            // replaced or removed between the check and the read
+            response.reset();
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", "1");
+            response.getWriter().print("{\"error\":\"Waveform is being rewritten\"}");
+        }
+    }
+
+    /** The MP3 frame to start from for a seek to {@code millis}, or null after answering with an error. */
+    private Mp3FrameScanner.SeekPoint findSeekPoint(int songId, AudioFileCache.Entry audio, long millis,
+                                                    HttpServletResponse response) throws IOException {
+        if (!"audio/mpeg".equals(audio.getContentType())) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().print("{\"error\":\"Seeking by time is only supported for MP3 files\"}");
+            return null;
+        }
+        SeekTable seekTable = audio.getSeekTable();
+        if (seekTable == null) {
+            seekTable = loadSeekTable(songId, audio);
+            if (seekTable == null) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                response.getWriter().print("{\"error\":\"No MPEG audio frames found in this file\"}");
+                return null;
+            }
+        }
+        try (FileChannel channel = FileChannel.open(audio.getPath(), StandardOpenOption.READ)) {
+            return Mp3FrameScanner.seek(channel, seekTable, millis);
+        }
+    }
+
+    /** The song's seek table from the database, or built from the file; null if it has no MPEG frames. */
+    private SeekTable loadSeekTable(int songId, AudioFileCache.Entry audio) throws IOException {
+        Object lock = seekTableLocks.computeIfAbsent(songId, key -> new Object());
+        try {
+            synchronized (lock) {
+                // Another request may have finished it while this one waited
+                AudioFileCache.Entry cached = audioFileCache.get(songId);
+                if (cached != null && cached.getSeekTable() != null && cached.getFileSize() == audio.getFileSize()
+                        && cached.getLastModified() == audio.getLastModified()) {
+                    return cached.getSeekTable();
+                }
+                SeekTable seekTable = songDao.getSeekTable(songId, audio.getFileSize(), audio.getLastModified());
+                if (seekTable == null) {
+                    // Added without a library scan, or the file changed since: build the table once, now
+                    seekTable = AudioMetadata.read(audio.getPath()).getSeekTable();
+                    if (seekTable == null) {
+                        return null;
+                    }
+                    songDao.saveSeekTable(songId, audio.getFileSize(), audio.getLastModified(), seekTable);
+                }
+                audioFileCache.put(songId, audio.withSeekTable(seekTable));
+                return seekTable;
+            }
+        } finally {
+            seekTableLocks.remove(songId, lock);
         }
     }
 
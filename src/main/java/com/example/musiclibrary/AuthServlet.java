@@ -1,23 +1,25 @@
 package com.example.musiclibrary;
 
 import com.example.musiclibrary.db.DatabaseConnection;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.musiclibrary.http.Json;
+import com.example.musiclibrary.metrics.InstrumentedServlet;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 import javax.servlet.ServletException;
-import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.security.MessageDigest;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
-public class AuthServlet extends HttpServlet {
-    private final ObjectMapper objectMapper = new ObjectMapper();
+public class AuthServlet extends InstrumentedServlet {
+    private static final ObjectReader AUTH_REQUEST_READER = Json.readerFor(AuthRequest.class);
 
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response)
@@ -27,55 +29,44 @@ public class AuthServlet extends HttpServlet {
         response.setHeader("Access-Control-Allow-Origin", "*");
 
         String pathInfo = request.getPathInfo();
-        PrintWriter out = response.getWriter();
 
         try {
-            StringBuilder jsonBody = new StringBuilder();
-            String line;
-            while ((line = request.getReader().readLine()) != null) {
-                jsonBody.append(line);
-            }
-
             // Normalize pathInfo
             if (pathInfo == null) pathInfo = "";
             pathInfo = pathInfo.startsWith("/") ? pathInfo : "/" + pathInfo;
             
             if (pathInfo.equals("/register") || pathInfo.equals("/register/")) {
-                registerUser(jsonBody.toString(), out, response);
+                registerUser(Json.read(request, AUTH_REQUEST_READER), response);
             } else if (pathInfo.equals("/login") || pathInfo.equals("/login/")) {
-                loginUser(jsonBody.toString(), out, request, response);
+                loginUser(Json.read(request, AUTH_REQUEST_READER), request, response);
             } else {
                 response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                out.print("{\"success\": false, \"message\": \"Invalid endpoint. Path: " + pathInfo + "\"}");
+                Json.write(response, result(false, "Invalid endpoint. Path: " + pathInfo));
             }
         } catch (Exception e) {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             response.setContentType("application/json");
             response.setCharacterEncoding("UTF-8");
-            out.print("{\"success\": false, \"message\": \"" + escapeJson(e.getMessage()) + "\"}");
+            Json.write(response, result(false, e.getMessage()));
             e.printStackTrace();
         }
     }
 
-    private void registerUser(String jsonBody, PrintWriter out, HttpServletResponse response) {
+    private void registerUser(AuthRequest authReq, HttpServletResponse response) throws IOException {
         try {
-            AuthRequest authReq = objectMapper.readValue(jsonBody, AuthRequest.class);
 
             if (authReq.username == null || authReq.username.trim().isEmpty() ||
                 authReq.email == null || authReq.email.trim().isEmpty() ||
                 authReq.password == null || authReq.password.length() < 6) {
                 response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                out.print("{\"success\": false, \"message\": \"Invalid input. Password must be at least 6 characters.\"}");
+                response.getWriter().print("{\"success\": false, \"message\": \"Invalid input. Password must be at least 6 characters.\"}");
                 return;
             }
 
             Connection connection = null;
             try {
                 connection = DatabaseConnection.getConnection();
-                
-                // Ensure users table exists
-                ensureUsersTable(connection);
-                
+
                 // Check if username or email already exists
                 String checkSql = "SELECT id FROM users WHERE username = ? OR email = ?";
                 try (PreparedStatement checkStmt = connection.prepareStatement(checkSql)) {
@@ -84,7 +75,7 @@ public class AuthServlet extends HttpServlet {
                     try (ResultSet rs = checkStmt.executeQuery()) {
                         if (rs.next()) {
                             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                            out.print("{\"success\": false, \"message\": \"Username or email already exists\"}");
+                            response.getWriter().print("{\"success\": false, \"message\": \"Username or email already exists\"}");
                             return;
                         }
                     }
@@ -105,16 +96,19 @@ public class AuthServlet extends HttpServlet {
                         if (rs.next()) {
                             int userId = rs.getInt(1);
                             response.setStatus(HttpServletResponse.SC_CREATED);
-                            out.print("{\"success\": true, \"message\": \"Account created successfully\", \"userId\": " + userId + ", \"username\": \"" + escapeJson(authReq.username) + "\"}");
+                            Map<String, Object> body = result(true, "Account created successfully");
+                            body.put("userId", userId);
+                            body.put("username", authReq.username);
+                            Json.write(response, body);
                         } else {
                             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                            out.print("{\"success\": false, \"message\": \"Failed to create user\"}");
+                            response.getWriter().print("{\"success\": false, \"message\": \"Failed to create user\"}");
                         }
                     }
                 }
             } catch (SQLException e) {
                 response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                out.print("{\"success\": false, \"message\": \"Database error: " + escapeJson(e.getMessage()) + "\"}");
+                Json.write(response, result(false, "Database error: " + e.getMessage()));
                 e.printStackTrace();
             } finally {
                 if (connection != null) {
@@ -127,48 +121,32 @@ public class AuthServlet extends HttpServlet {
             }
         } catch (Exception e) {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            out.print("{\"success\": false, \"message\": \"" + escapeJson(e.getMessage()) + "\"}");
+            Json.write(response, result(false, e.getMessage()));
             e.printStackTrace();
         }
     }
     
-    private void ensureUsersTable(Connection connection) throws SQLException {
-        String createTableSql = "CREATE TABLE IF NOT EXISTS users (" +
-                "id INT AUTO_INCREMENT PRIMARY KEY, " +
-                "username VARCHAR(255) NOT NULL UNIQUE, " +
-                "email VARCHAR(255) NOT NULL UNIQUE, " +
-                "password VARCHAR(255) NOT NULL, " +
-                "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
-                ")";
-        try (PreparedStatement stmt = connection.prepareStatement(createTableSql)) {
-            stmt.executeUpdate();
-        }
-    }
-    
-    private String escapeJson(String str) {
-        if (str == null) return "";
-        return str.replace("\\", "\\\\")
-                  .replace("\"", "\\\"")
-                  .replace("\n", "\\n")
-                  .replace("\r", "\\r")
-                  .replace("\t", "\\t");
+    private static Map<String, Object> result(boolean success, String message) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("success", success);
+        body.put("message", message);
+        return body;
     }
 
-    private void loginUser(String jsonBody, PrintWriter out, HttpServletRequest request, HttpServletResponse response) {
+    private void loginUser(AuthRequest authReq, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
         try {
-            AuthRequest authReq = objectMapper.readValue(jsonBody, AuthRequest.class);
 
             if (authReq.username == null || authReq.password == null) {
                 response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                out.print("{\"success\": false, \"message\": \"Username and password required\"}");
+                response.getWriter().print("{\"success\": false, \"message\": \"Username and password required\"}");
                 return;
             }
 
             Connection connection = null;
             try {
                 connection = DatabaseConnection.getConnection();
-                ensureUsersTable(connection);
-                
+
                 String hashedPassword = hashPassword(authReq.password);
 
                 // Check credentials (username or email)
@@ -188,16 +166,19 @@ public class AuthServlet extends HttpServlet {
                             session.setAttribute("username", username);
 
                             response.setStatus(HttpServletResponse.SC_OK);
-                            out.print("{\"success\": true, \"message\": \"Login successful\", \"userId\": " + userId + ", \"username\": \"" + escapeJson(username) + "\"}");
+                            Map<String, Object> body = result(true, "Login successful");
+                            body.put("userId", userId);
+                            body.put("username", username);
+                            Json.write(response, body);
                         } else {
                             response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
-                            out.print("{\"success\": false, \"message\": \"Invalid username or password\"}");
+                            response.getWriter().print("{\"success\": false, \"message\": \"Invalid username or password\"}");
                         }
                     }
                 }
             } catch (SQLException e) {
                 response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                out.print("{\"success\": false, \"message\": \"Database error: " + escapeJson(e.getMessage()) + "\"}");
+                Json.write(response, result(false, "Database error: " + e.getMessage()));
                 e.printStackTrace();
             } finally {
                 if (connection != null) {
@@ -210,7 +191,7 @@ public class AuthServlet extends HttpServlet {
             }
         } catch (Exception e) {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            out.print("{\"success\": false, \"message\": \"" + escapeJson(e.getMessage()) + "\"}");
+            Json.write(response, result(false, e.getMessage()));
             e.printStackTrace();
         }
     }
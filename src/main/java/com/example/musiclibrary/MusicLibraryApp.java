@@ -2,9 +2,18 @@ package com.example.musiclibrary;
 
 import com.example.musiclibrary.dao.SongDao;
 import com.example.musiclibrary.db.DatabaseConnection;
+import com.example.musiclibrary.db.SchemaMigrator;
+import com.example.musiclibrary.ingest.SongImporter;
 import com.example.musiclibrary.model.Song;
+import com.example.musiclibrary.scan.LibraryScanner;
 
-import java.sql.Connection;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Scanner;
@@ -14,21 +23,101 @@ public class MusicLibraryApp {
     private final SongDao songDao;
     private final Scanner scanner;
 
-    public MusicLibraryApp(Connection connection) {
-        this.songDao = new SongDao(connection);
+    public MusicLibraryApp(DataSource dataSource) {
+        this.songDao = new SongDao(dataSource);
         this.scanner = new Scanner(System.in);
     }
 
     public static void main(String[] args) {
         System.out.println("=== Online Music Library ===");
         try {
-            Connection connection = DatabaseConnection.getConnection();
-            MusicLibraryApp app = new MusicLibraryApp(connection);
-            app.run();
+            DatabaseConnection.initialize();
+            new SchemaMigrator(DatabaseConnection.getDataSource()).migrate();
+            MusicLibraryApp app = new MusicLibraryApp(DatabaseConnection.getDataSource());
+            if (args.length > 0 && args[0].equals("--import")) {
+                app.importFile(args);
+            } else if (args.length > 0 && args[0].equals("--scan")) {
+                app.scanLibrary(args);
+            } else {
+                app.run();
+            }
         } catch (SQLException e) {
             System.out.println("Could not connect to database. Please check your MySQL settings in db.properties.");
             System.out.println("Error: " + e.getMessage());
+        } finally {
+            DatabaseConnection.shutdown();
+        }
+    }
+
+    /**
+     * Non-interactive bulk load: {@code --import <file> [--format csv|ndjson] [--chunk-size N]}.
+     * The format defaults to CSV for a {@code .csv} file and NDJSON otherwise.
+     */
+    private void importFile(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: --import <file> [--format csv|ndjson] [--chunk-size N]");
+            return;
+        }
+        Path file = Paths.get(args[1]);
+        SongImporter.Format format = file.toString().toLowerCase().endsWith(".csv")
+                ? SongImporter.Format.CSV : SongImporter.Format.NDJSON;
+        int chunkSize = SongImporter.DEFAULT_CHUNK_SIZE;
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--format")) {
+                format = SongImporter.Format.fromName(args[i + 1]);
+            } else if (args[i].equals("--chunk-size")) {
+                try {
+                    chunkSize = Integer.parseInt(args[i + 1]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid chunk size: " + args[i + 1]);
+                    return;
+                }
+            }
+        }
+        if (format == null) {
+            System.out.println("Unknown format; use csv or ndjson.");
+            return;
+        }
+
+        System.out.println("Importing " + file + " as " + format + " in chunks of " + chunkSize + "...");
+        long start = System.currentTimeMillis();
+        SongImporter.ImportResult result;
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            // A local file is trusted to name audio files on this machine
+            result = new SongImporter(songDao, chunkSize, true).importSongs(reader, format);
+        } catch (IOException e) {
+            System.out.println("Error reading " + file + ": " + e.getMessage());
+            return;
+        }
+        long millis = Math.max(1, System.currentTimeMillis() - start);
+
+        for (SongImporter.RowError error : result.getErrors()) {
+            System.out.println("  line " + error.getLine() + ": " + error.getMessage());
+        }
+        if (result.getFailed() > result.getErrors().size()) {
+            System.out.println("  ... and " + (result.getFailed() - result.getErrors().size()) + " more");
+        }
+        System.out.println("Imported " + result.getImported() + " songs, " + result.getFailed() + " failed, in "
+                + millis + "ms (" + (result.getImported() * 1000L / millis) + " songs/s)");
+    }
+
+    /** Non-interactive library scan: {@code --scan [directory]}, by default {@code uploads/audio}. */
+    private void scanLibrary(String[] args) throws SQLException {
+        Path root = Paths.get(args.length > 1 ? args[1] : "uploads/audio");
+        LibraryScanner libraryScanner = new LibraryScanner(songDao, root,
+                Runtime.getRuntime().availableProcessors(), LibraryScanner.DEFAULT_BATCH_SIZE, null);
+        System.out.println("Scanning " + libraryScanner.getRoot() + "...");
+        LibraryScanner.ScanResult result;
+        try {
+            result = libraryScanner.scan();
+        } catch (IOException e) {
+            System.out.println("Error scanning " + root + ": " + e.getMessage());
+            return;
         }
+        System.out.println("Scanned " + result.getFilesSeen() + " files in " + result.getMillis() + "ms: "
+                + result.getAdded() + " added, " + result.getUpdated() + " updated, "
+                + result.getUnchanged() + " unchanged, " + result.getFailed() + " failed, "
+                + result.getMissing() + " missing");
     }
 
     private void run() {
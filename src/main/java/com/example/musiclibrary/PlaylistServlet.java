@@ -1,25 +1,48 @@
 package com.example.musiclibrary;
 
+import com.example.musiclibrary.cache.PlaylistSnapshotCache;
 import com.example.musiclibrary.dao.PlaylistDao;
-import com.example.musiclibrary.db.DatabaseConnection;
+import com.example.musiclibrary.dao.PlaylistVersions;
+import com.example.musiclibrary.http.HttpValidators;
+import com.example.musiclibrary.http.Json;
+import com.example.musiclibrary.metrics.InstrumentedServlet;
 import com.example.musiclibrary.model.Playlist;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 import javax.servlet.ServletException;
-import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
-public class PlaylistServlet extends HttpServlet {
-    private final ObjectMapper objectMapper = new ObjectMapper();
+public class PlaylistServlet extends InstrumentedServlet {
+    private static final ObjectReader PLAYLIST_REQUEST_READER = Json.readerFor(PlaylistRequest.class);
+    private static final ObjectReader ADD_SONG_REQUEST_READER = Json.readerFor(AddSongRequest.class);
+    private static final ObjectReader MOVE_SONG_REQUEST_READER = Json.readerFor(MoveSongRequest.class);
+    private static final ObjectReader BATCH_SONGS_REQUEST_READER = Json.readerFor(BatchSongsRequest.class);
+
+    /** What {@code ?fields=} may name: the properties of a playlist. */
+    private static final Set<String> PLAYLIST_FIELDS = new LinkedHashSet<>(Arrays.asList(
+            "id", "name", "description", "createdAt", "updatedAt", "songCount", "totalDurationSeconds", "songs"));
+
+    /** Song ids accepted in one batch request, across replace, add and remove. */
+    private static final int MAX_BATCH_SONGS = 10_000;
+
+    private final PlaylistDao playlistDao;
+    private final PlaylistVersions versions;
+    private final PlaylistSnapshotCache snapshotCache;
+
+    public PlaylistServlet(PlaylistDao playlistDao, PlaylistSnapshotCache snapshotCache) {
+        this.playlistDao = playlistDao;
+        this.versions = playlistDao.getVersions();
+        this.snapshotCache = snapshotCache;
+    }
 
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
@@ -28,51 +51,113 @@ public class PlaylistServlet extends HttpServlet {
         response.setCharacterEncoding("UTF-8");
         response.setHeader("Access-Control-Allow-Origin", "*");
 
-        try {
-            // Get user ID from session or request header
-            Integer userId = getUserId(request);
-            if (userId == null) {
-                response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
-                response.getWriter().print("{\"error\":\"User not authenticated\"}");
-                return;
-            }
-
-            Connection connection = DatabaseConnection.getConnection();
-            PlaylistDao playlistDao = new PlaylistDao(connection);
-            ensurePlaylistUserColumn(connection);
+        // Get user ID from session or request header
+        Integer userId = getUserId(request);
+        if (userId == null) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            response.getWriter().print("{\"error\":\"User not authenticated\"}");
+            return;
+        }
 
-            String pathInfo = request.getPathInfo();
-            PrintWriter out = response.getWriter();
+        String pathInfo = request.getPathInfo();
+        Set<String> fields = parseFields(request.getParameter("fields"));
+        if (fields == null) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().print("{\"error\":\"fields must be a comma-separated list of "
+                    + String.join(", ", PLAYLIST_FIELDS) + "\"}");
+            return;
+        }
 
-            if (pathInfo == null || pathInfo.equals("/")) {
-                // Get all playlists for this user
-                List<Playlist> playlists = playlistDao.getAllPlaylists(userId);
-                out.print(objectMapper.writeValueAsString(playlists));
+        if (pathInfo == null || pathInfo.equals("/")) {
+            // Get all playlists for this user
+            List<Playlist> playlists = playlistDao.getAllPlaylists(userId);
+            if (fields.isEmpty()) {
+                Json.write(response, playlists);
             } else {
-                // Get specific playlist with songs
-                try {
-                    int playlistId = Integer.parseInt(pathInfo.substring(1));
-                    Playlist playlist = playlistDao.getPlaylistWithSongs(playlistId, userId);
-                    if (playlist != null) {
-                        out.print(objectMapper.writeValueAsString(playlist));
-                    } else {
-                        response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                        out.print("{\"error\":\"Playlist not found\"}");
-                    }
-                } catch (NumberFormatException e) {
-                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                    out.print("{\"error\":\"Invalid playlist ID\"}");
+                Json.write(response, playlists, fields);
+            }
+        } else {
+            // Get specific playlist with songs
+            try {
+                int playlistId = Integer.parseInt(pathInfo.substring(1));
+                if (fields.isEmpty()) {
+                    sendPlaylist(request, response, playlistId, userId);
+                } else {
+                    sendPlaylistFields(response, playlistId, userId, fields);
                 }
+            } catch (NumberFormatException e) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                response.getWriter().print("{\"error\":\"Invalid playlist ID\"}");
             }
-
-            connection.close();
-        } catch (SQLException e) {
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            PrintWriter out = response.getWriter();
-            out.print("{\"error\":\"" + e.getMessage() + "\"}");
         }
     }
     
+    /**
+     * Answers from the snapshot cache when it holds the playlist's current version for this user:
+     * 304 if the client's copy is that version, otherwise the cached bytes, with no query either
+     * way. On a miss the playlist is loaded, serialized once and cached.
+     */
+    private void sendPlaylist(HttpServletRequest request, HttpServletResponse response, int playlistId, int userId)
+            throws IOException {
+        // Before loading: whatever is loaded afterwards is at least this new
+        long version = versions.get(playlistId);
+        PlaylistSnapshotCache.Entry snapshot = snapshotCache.get(playlistId, version);
+        if (snapshot == null || snapshot.getUserId() != userId) {
+            Playlist playlist = playlistDao.getPlaylistWithSongs(playlistId, userId);
+            if (playlist == null) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                response.getWriter().print("{\"error\":\"Playlist not found\"}");
+                return;
+            }
+            snapshot = new PlaylistSnapshotCache.Entry(version, userId, Json.toBytes(playlist),
+                    versions.etag(playlistId, version));
+            snapshotCache.put(playlistId, snapshot);
+        }
+
+        // Revalidate every time; the tag makes that a 304 with no query while nothing has changed
+        response.setHeader("Cache-Control", "private, no-cache");
+        if (HttpValidators.isNotModified(request, snapshot.getEtag(), 0)) {
+            HttpValidators.sendNotModified(response, snapshot.getEtag(), 0);
+            return;
+        }
+        HttpValidators.setValidators(response, snapshot.getEtag(), 0);
+        response.setContentLength(snapshot.getBody().length);
+        response.getOutputStream().write(snapshot.getBody());
+    }
+
+    /**
+     * A projection is not cached: without {@code songs} it is one primary key lookup, and the cache
+     * only ever holds whole playlists.
+     */
+    private void sendPlaylistFields(HttpServletResponse response, int playlistId, int userId, Set<String> fields)
+            throws IOException {
+        Playlist playlist = fields.contains("songs")
+                ? playlistDao.getPlaylistWithSongs(playlistId, userId)
+                : playlistDao.getPlaylistById(playlistId, userId);
+        if (playlist == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().print("{\"error\":\"Playlist not found\"}");
+            return;
+        }
+        Json.write(response, playlist, fields);
+    }
+
+    /** The requested fields; empty when the parameter is absent, null when it names anything unknown. */
+    private static Set<String> parseFields(String parameter) {
+        Set<String> fields = new LinkedHashSet<>();
+        if (parameter == null) {
+            return fields;
+        }
+        for (String field : parameter.split(",")) {
+            field = field.trim();
+            if (!PLAYLIST_FIELDS.contains(field)) {
+                return null;
+            }
+            fields.add(field);
+        }
+        return fields;
+    }
+
     private Integer getUserId(HttpServletRequest request) {
         // Try session first
         HttpSession session = request.getSession(false);
@@ -96,29 +181,6 @@ public class PlaylistServlet extends HttpServlet {
         return null;
     }
     
-    private void ensurePlaylistUserColumn(Connection connection) throws SQLException {
-        // Check if user_id column exists, if not add it
-        try {
-            String checkSql = "SELECT COUNT(*) AS cnt FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'playlists' AND COLUMN_NAME = 'user_id'";
-            try (PreparedStatement stmt = connection.prepareStatement(checkSql);
-                 ResultSet rs = stmt.executeQuery()) {
-                if (rs.next() && rs.getInt("cnt") == 0) {
-                    String alterSql = "ALTER TABLE playlists ADD COLUMN user_id INT";
-                    try (PreparedStatement alterStmt = connection.prepareStatement(alterSql)) {
-                        alterStmt.executeUpdate();
-                    }
-                    // Set existing playlists to user_id = 1 (or handle as needed)
-                    String updateSql = "UPDATE playlists SET user_id = 1 WHERE user_id IS NULL";
-                    try (PreparedStatement updateStmt = connection.prepareStatement(updateSql)) {
-                        updateStmt.executeUpdate();
-                    }
-                }
-            }
-        } catch (SQLException e) {
-            // Column might already exist, ignore
-        }
-    }
-
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
@@ -126,91 +188,123 @@ public class PlaylistServlet extends HttpServlet {
         response.setCharacterEncoding("UTF-8");
         response.setHeader("Access-Control-Allow-Origin", "*");
 
-        PrintWriter out = response.getWriter();
+        String pathInfo = request.getPathInfo();
+        if (pathInfo != null && pathInfo.endsWith("/songs")) {
+            updatePlaylistSongs(request, response, pathInfo);
+            return;
+        }
 
-        try {
-            Connection connection = DatabaseConnection.getConnection();
-            PlaylistDao playlistDao = new PlaylistDao(connection);
+        PrintWriter out = response.getWriter();
 
-            String pathInfo = request.getPathInfo();
+        // Get user ID
+        Integer userId = getUserId(request);
+        if (userId == null) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            out.print("{\"success\": false, \"message\": \"User not authenticated\"}");
+            return;
+        }
+        
+        if (pathInfo == null || pathInfo.equals("/")) {
+            // Create new playlist
+            PlaylistRequest playlistReq = Json.read(request, PLAYLIST_REQUEST_READER);
 
-            // Get user ID
-            Integer userId = getUserId(request);
-            if (userId == null) {
-                response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
-                out.print("{\"success\": false, \"message\": \"User not authenticated\"}");
-                connection.close();
+            if (playlistReq.name == null || playlistReq.name.trim().isEmpty()) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.print("{\"success\": false, \"message\": \"Playlist name is required\"}");
                 return;
             }
-            
-            ensurePlaylistUserColumn(connection);
 
-            if (pathInfo == null || pathInfo.equals("/")) {
-                // Create new playlist
-                StringBuilder jsonBody = new StringBuilder();
-                String line;
-                while ((line = request.getReader().readLine()) != null) {
-                    jsonBody.append(line);
-                }
-
-                PlaylistRequest playlistReq = objectMapper.readValue(jsonBody.toString(), PlaylistRequest.class);
+            boolean success = playlistDao.createPlaylist(playlistReq.name, playlistReq.description, userId);
+            if (success) {
+                response.setStatus(HttpServletResponse.SC_OK);
+                out.print("{\"success\": true, \"message\": \"Playlist created successfully\"}");
+            } else {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                out.print("{\"success\": false, \"message\": \"Failed to create playlist\"}");
+            }
+        } else {
+            // Add song to playlist
+            try {
+                int playlistId = Integer.parseInt(pathInfo.substring(1));
 
-                if (playlistReq.name == null || playlistReq.name.trim().isEmpty()) {
-                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                    out.print("{\"success\": false, \"message\": \"Playlist name is required\"}");
-                    connection.close();
-                    return;
-                }
+                AddSongRequest addSongReq = Json.read(request, ADD_SONG_REQUEST_READER);
 
-                boolean success = playlistDao.createPlaylist(playlistReq.name, playlistReq.description, userId);
+                boolean success = playlistDao.addSongToPlaylist(playlistId, userId, addSongReq.songId);
                 if (success) {
                     response.setStatus(HttpServletResponse.SC_OK);
-                    out.print("{\"success\": true, \"message\": \"Playlist created successfully\"}");
-                } else {
+                    out.print("{\"success\": true, \"message\": \"Song added to playlist\"}");
+                } else if (!deniedAccess(response, out, playlistId, userId)) {
                     response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                    out.print("{\"success\": false, \"message\": \"Failed to create playlist\"}");
+                    out.print("{\"success\": false, \"message\": \"Failed to add song\"}");
                 }
-            } else {
-                // Add song to playlist
-                try {
-                    int playlistId = Integer.parseInt(pathInfo.substring(1));
-
-                    // Verify playlist belongs to user
-                    Playlist playlist = playlistDao.getPlaylistById(playlistId, userId);
-                    if (playlist == null) {
-                        response.setStatus(HttpServletResponse.SC_FORBIDDEN);
-                        out.print("{\"success\": false, \"message\": \"Playlist not found or access denied\"}");
-                        connection.close();
-                        return;
-                    }
+            } catch (NumberFormatException e) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.print("{\"success\": false, \"message\": \"Invalid playlist ID\"}");
+            }
+        }
+    }
 
-                    StringBuilder jsonBody = new StringBuilder();
-                    String line;
-                    while ((line = request.getReader().readLine()) != null) {
-                        jsonBody.append(line);
-                    }
+    /**
+     * {@code POST /api/playlists/{id}/songs} with {@code {"add": [...], "remove": [...]}} or
+     * {@code {"replace": [...]}}: any number of song ids in one transaction. Answers with the
+     * playlist as {@code GET /api/playlists/{id}} would.
+     */
+    private void updatePlaylistSongs(HttpServletRequest request, HttpServletResponse response, String pathInfo)
+            throws IOException {
+        Integer userId = getUserId(request);
+        if (userId == null) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            response.getWriter().print("{\"success\": false, \"message\": \"User not authenticated\"}");
+            return;
+        }
 
-                    AddSongRequest addSongReq = objectMapper.readValue(jsonBody.toString(), AddSongRequest.class);
+        int playlistId;
+        try {
+            playlistId = Integer.parseInt(pathInfo.substring(1, pathInfo.length() - "/songs".length()));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().print("{\"success\": false, \"message\": \"Invalid playlist ID\"}");
+            return;
+        }
 
-                    boolean success = playlistDao.addSongToPlaylist(playlistId, addSongReq.songId);
-                    if (success) {
-                        response.setStatus(HttpServletResponse.SC_OK);
-                        out.print("{\"success\": true, \"message\": \"Song added to playlist\"}");
-                    } else {
-                        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                        out.print("{\"success\": false, \"message\": \"Failed to add song\"}");
-                    }
-                } catch (NumberFormatException e) {
-                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                    out.print("{\"success\": false, \"message\": \"Invalid playlist ID\"}");
-                }
-            }
+        BatchSongsRequest batchReq = Json.read(request, BATCH_SONGS_REQUEST_READER);
+        if (batchReq.replace != null && (batchReq.add != null || batchReq.remove != null)) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().print("{\"success\": false, \"message\": \"Use either replace or add/remove\"}");
+            return;
+        }
+        if (size(batchReq.replace) + size(batchReq.add) + size(batchReq.remove) > MAX_BATCH_SONGS
+                || containsNull(batchReq.replace) || containsNull(batchReq.add) || containsNull(batchReq.remove)) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().print("{\"success\": false, \"message\": \"Up to " + MAX_BATCH_SONGS
+                    + " song ids, none of them null\"}");
+            return;
+        }
 
-            connection.close();
+        Playlist playlist;
+        try {
+            playlist = playlistDao.updatePlaylistSongs(playlistId, userId,
+                    batchReq.replace, batchReq.remove, batchReq.add);
         } catch (SQLException e) {
+            System.out.println("Error while updating playlist songs: " + e.getMessage());
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            out.print("{\"success\": false, \"message\": \"" + e.getMessage() + "\"}");
+            response.getWriter().print("{\"success\": false, \"message\": \"Failed to update playlist\"}");
+            return;
+        }
+        if (playlist == null) {
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            response.getWriter().print("{\"success\": false, \"message\": \"Playlist not found or access denied\"}");
+            return;
         }
+        Json.write(response, playlist);
+    }
+
+    private static int size(List<Integer> songIds) {
+        return songIds == null ? 0 : songIds.size();
+    }
+
+    private static boolean containsNull(List<Integer> songIds) {
+        return songIds != null && songIds.contains(null);
     }
 
     @Override
@@ -239,43 +333,70 @@ public class PlaylistServlet extends HttpServlet {
 
             int playlistId = Integer.parseInt(pathInfo.substring(1));
 
-            StringBuilder jsonBody = new StringBuilder();
-            String line;
-            while ((line = request.getReader().readLine()) != null) {
-                jsonBody.append(line);
+            PlaylistRequest playlistReq = Json.read(request, PLAYLIST_REQUEST_READER);
+
+            boolean success = playlistDao.updatePlaylist(playlistId, userId, playlistReq.name, playlistReq.description);
+            if (success) {
+                response.setStatus(HttpServletResponse.SC_OK);
+                out.print("{\"success\": true, \"message\": \"Playlist updated successfully\"}");
+            } else if (!deniedAccess(response, out, playlistId, userId)) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                out.print("{\"success\": false, \"message\": \"Failed to update playlist\"}");
             }
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.print("{\"success\": false, \"message\": \"Invalid playlist ID\"}");
+        }
+    }
 
-            PlaylistRequest playlistReq = objectMapper.readValue(jsonBody.toString(), PlaylistRequest.class);
+    /**
+     * {@code PATCH /api/playlists/{id}/order} with {@code {"songId": N, "afterSongId": M}} moves song N
+     * to just after song M, or to the start when {@code afterSongId} is null or absent.
+     */
+    @Override
+    protected void doPatch(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Access-Control-Allow-Origin", "*");
 
-            Connection connection = DatabaseConnection.getConnection();
-            PlaylistDao playlistDao = new PlaylistDao(connection);
-            ensurePlaylistUserColumn(connection);
+        PrintWriter out = response.getWriter();
 
-            // Verify playlist belongs to user
-            Playlist playlist = playlistDao.getPlaylistById(playlistId, userId);
-            if (playlist == null) {
-                response.setStatus(HttpServletResponse.SC_FORBIDDEN);
-                out.print("{\"success\": false, \"message\": \"Playlist not found or access denied\"}");
-                connection.close();
+        try {
+            Integer userId = getUserId(request);
+            if (userId == null) {
+                response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+                out.print("{\"success\": false, \"message\": \"User not authenticated\"}");
                 return;
             }
 
-            boolean success = playlistDao.updatePlaylist(playlistId, playlistReq.name, playlistReq.description);
+            String pathInfo = request.getPathInfo();
+            String[] parts = pathInfo == null ? new String[0] : pathInfo.substring(1).split("/");
+            if (parts.length != 2 || !"order".equals(parts[1])) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                out.print("{\"success\": false, \"message\": \"Not found\"}");
+                return;
+            }
+            int playlistId = Integer.parseInt(parts[0]);
+
+            MoveSongRequest moveReq = Json.read(request, MOVE_SONG_REQUEST_READER);
+            if (moveReq.songId <= 0 || (moveReq.afterSongId != null && moveReq.afterSongId == moveReq.songId)) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.print("{\"success\": false, \"message\": \"songId is required and must differ from afterSongId\"}");
+                return;
+            }
+
+            boolean success = playlistDao.moveSongInPlaylist(playlistId, userId, moveReq.songId, moveReq.afterSongId);
             if (success) {
                 response.setStatus(HttpServletResponse.SC_OK);
-                out.print("{\"success\": true, \"message\": \"Playlist updated successfully\"}");
-            } else {
-                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                out.print("{\"success\": false, \"message\": \"Failed to update playlist\"}");
+                out.print("{\"success\": true, \"message\": \"Song moved\"}");
+            } else if (!deniedAccess(response, out, playlistId, userId)) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                out.print("{\"success\": false, \"message\": \"Song not found in playlist\"}");
             }
-
-            connection.close();
         } catch (NumberFormatException e) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             out.print("{\"success\": false, \"message\": \"Invalid playlist ID\"}");
-        } catch (SQLException e) {
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            out.print("{\"success\": false, \"message\": \"" + e.getMessage() + "\"}");
         }
     }
 
@@ -306,28 +427,15 @@ public class PlaylistServlet extends HttpServlet {
             String[] parts = pathInfo.substring(1).split("/");
             int playlistId = Integer.parseInt(parts[0]);
 
-            Connection connection = DatabaseConnection.getConnection();
-            PlaylistDao playlistDao = new PlaylistDao(connection);
-            ensurePlaylistUserColumn(connection);
-
-            // Verify playlist belongs to user
-            Playlist playlist = playlistDao.getPlaylistById(playlistId, userId);
-            if (playlist == null) {
-                response.setStatus(HttpServletResponse.SC_FORBIDDEN);
-                out.print("{\"success\": false, \"message\": \"Playlist not found or access denied\"}");
-                connection.close();
-                return;
-            }
-
             if (parts.length == 2) {
                 // Remove song from playlist
                 try {
                     int songId = Integer.parseInt(parts[1]);
-                    boolean success = playlistDao.removeSongFromPlaylist(playlistId, songId);
+                    boolean success = playlistDao.removeSongFromPlaylist(playlistId, userId, songId);
                     if (success) {
                         response.setStatus(HttpServletResponse.SC_OK);
                         out.print("{\"success\": true, \"message\": \"Song removed from playlist\"}");
-                    } else {
+                    } else if (!deniedAccess(response, out, playlistId, userId)) {
                         response.setStatus(HttpServletResponse.SC_NOT_FOUND);
                         out.print("{\"success\": false, \"message\": \"Song not found in playlist\"}");
                     }
@@ -337,26 +445,34 @@ public class PlaylistServlet extends HttpServlet {
                 }
             } else {
                 // Delete entire playlist
-                boolean success = playlistDao.deletePlaylist(playlistId);
+                boolean success = playlistDao.deletePlaylist(playlistId, userId);
                 if (success) {
                     response.setStatus(HttpServletResponse.SC_OK);
                     out.print("{\"success\": true, \"message\": \"Playlist deleted successfully\"}");
-                } else {
+                } else if (!deniedAccess(response, out, playlistId, userId)) {
                     response.setStatus(HttpServletResponse.SC_NOT_FOUND);
                     out.print("{\"success\": false, \"message\": \"Playlist not found\"}");
                 }
             }
-
-            connection.close();
         } catch (NumberFormatException e) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             out.print("{\"success\": false, \"message\": \"Invalid playlist ID\"}");
-        } catch (SQLException e) {
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            out.print("{\"success\": false, \"message\": \"" + e.getMessage() + "\"}");
         }
     }
 
+    /**
+     * Changes check ownership in their own SQL and report only that nothing matched; on that path
+     * alone, look the playlist up to tell the user it is not theirs. Returns true if it answered 403.
+     */
+    private boolean deniedAccess(HttpServletResponse response, PrintWriter out, int playlistId, int userId) {
+        if (playlistDao.getPlaylistById(playlistId, userId) != null) {
+            return false;
+        }
+        response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+        out.print("{\"success\": false, \"message\": \"Playlist not found or access denied\"}");
+        return true;
+    }
+
     // Helper classes for JSON deserialization
     public static class PlaylistRequest {
         public String name;
@@ -366,4 +482,15 @@ public class PlaylistServlet extends HttpServlet {
     public static class AddSongRequest {
         public int songId;
     }
+
+    public static class BatchSongsRequest {
+        public List<Integer> add;
+        public List<Integer> remove;
+        public List<Integer> replace;
+    }
+
+    public static class MoveSongRequest {
+        public int songId;
+        public Integer afterSongId;
+    }
 }
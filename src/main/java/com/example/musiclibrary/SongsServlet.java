@@ -1,22 +1,43 @@
 package com.example.musiclibrary;
 
 import com.example.musiclibrary.dao.SongDao;
-import com.example.musiclibrary.db.DatabaseConnection;
+import com.example.musiclibrary.http.Json;
+import com.example.musiclibrary.ingest.SongImporter;
+import com.example.musiclibrary.metrics.InstrumentedServlet;
 import com.example.musiclibrary.model.Song;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.musiclibrary.search.SongSearchIndex;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 import javax.servlet.ServletException;
-import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.sql.Connection;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
-public class SongsServlet extends HttpServlet {
-    private final ObjectMapper objectMapper = new ObjectMapper();
+public class SongsServlet extends InstrumentedServlet {
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+
+    private static final int MAX_SEARCH_RESULTS = 200;
+
+    private static final ObjectReader SONG_READER = Json.readerFor(Song.class);
+
+    private final SongSearchIndex searchIndex;
+    private final SongDao songDao;
+
+    public SongsServlet(SongSearchIndex searchIndex, SongDao songDao) {
+        this.searchIndex = searchIndex;
+        this.songDao = songDao;
+    }
 
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
@@ -25,36 +46,101 @@ public class SongsServlet extends HttpServlet {
         response.setCharacterEncoding("UTF-8");
         response.setHeader("Access-Control-Allow-Origin", "*");
 
+        String pathInfo = request.getPathInfo();
+        if (pathInfo != null && !pathInfo.equals("/")) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().print("{\"error\":\"Not found\"}");
+            return;
+        }
+
+        String search = request.getParameter("search");
+        String limitParam = request.getParameter("limit");
+        String after = request.getParameter("after");
+
+        if (search != null && !search.trim().isEmpty()) {
+            // Answered from memory; no database round trip
+            List<Song> songs = searchIndex.search(search, MAX_SEARCH_RESULTS);
+            Json.write(response, songs);
+            return;
+        }
+
         try {
-            Connection connection = DatabaseConnection.getConnection();
-            SongDao songDao = new SongDao(connection);
-
-            String pathInfo = request.getPathInfo();
-            PrintWriter out = response.getWriter();
-
-            if (pathInfo == null || pathInfo.equals("/")) {
-                // Get all songs or search
-                String search = request.getParameter("search");
-                List<Song> songs;
-                if (search != null && !search.trim().isEmpty()) {
-                    songs = songDao.searchSongsByTitle(search);
-                } else {
-                    songs = songDao.getAllSongs();
-                }
-                out.print(objectMapper.writeValueAsString(songs));
+            if (limitParam != null || after != null) {
+                // Keyset pagination: ?limit=N[&after=<title>,<id>]
+                writePage(limitParam, after, response);
             } else {
-                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                out.print("{\"error\":\"Not found\"}");
+                // Whole catalog as one JSON array, read a page at a time
+                streamAllSongs(response);
             }
-
-            connection.close();
         } catch (SQLException e) {
+            if (response.isCommitted()) {
+                // Part of the array is already on the wire. Failing the request makes Jetty abort the
+                // connection, so the client sees a truncated body rather than a complete-looking array.
+                System.out.println("Error while streaming songs: " + e.getMessage());
+                throw new ServletException("Song stream failed after the response was committed", e);
+            }
+            response.reset();
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            response.setHeader("Access-Control-Allow-Origin", "*");
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            PrintWriter out = response.getWriter();
-            out.print("{\"error\":\"" + e.getMessage() + "\"}");
+            Json.write(response, Collections.singletonMap("error", e.getMessage()));
         }
     }
 
+    private void writePage(String limitParam, String after, HttpServletResponse response)
+            throws IOException {
+        int limit = DEFAULT_PAGE_SIZE;
+        String afterTitle = null;
+        int afterId = 0;
+        try {
+            if (limitParam != null) {
+                limit = Math.max(1, Math.min(MAX_PAGE_SIZE, Integer.parseInt(limitParam)));
+            }
+            if (after != null && !after.isEmpty()) {
+                // Titles may contain commas; the id is always after the last one.
+                int comma = after.lastIndexOf(',');
+                if (comma < 0) {
+                    throw new NumberFormatException("missing id");
+                }
+                afterTitle = after.substring(0, comma);
+                afterId = Integer.parseInt(after.substring(comma + 1));
+            }
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().print("{\"error\":\"Invalid limit or after cursor\"}");
+            return;
+        }
+
+        // Fetch one extra row to learn whether there is a next page
+        List<Song> songs = songDao.getSongsPage(afterTitle, afterId, limit + 1);
+        String nextCursor = null;
+        if (songs.size() > limit) {
+            songs = songs.subList(0, limit);
+            Song last = songs.get(limit - 1);
+            nextCursor = last.getTitle() + "," + last.getId();
+        }
+
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("songs", songs);
+        page.put("nextCursor", nextCursor);
+        Json.write(response, page);
+    }
+
+    /**
+     * Writes the catalog as one JSON array. The generator is only closed once the array is complete:
+     * closing it after a failure would write the closing bracket and flush, turning a partial
+     * catalog into a valid 200 response.
+     */
+    private void streamAllSongs(HttpServletResponse response) throws SQLException, IOException {
+        JsonGenerator generator = Json.createGenerator(response.getOutputStream());
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+        generator.writeStartArray();
+        songDao.forEachSong(generator::writeObject);
+        generator.writeEndArray();
+        generator.close();
+    }
+
     @Override
     protected void doDelete(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
@@ -64,42 +150,40 @@ public class SongsServlet extends HttpServlet {
 
         PrintWriter out = response.getWriter();
 
-        try {
-            String pathInfo = request.getPathInfo();
-            if (pathInfo == null || pathInfo.equals("/")) {
-                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                out.print("{\"success\": false, \"message\": \"Song ID required\"}");
-                return;
-            }
-
-            // Extract song ID from path (e.g., /123)
-            String idStr = pathInfo.substring(1);
-            int songId;
-            try {
-                songId = Integer.parseInt(idStr);
-            } catch (NumberFormatException e) {
-                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                out.print("{\"success\": false, \"message\": \"Invalid song ID\"}");
-                return;
-            }
-
-            Connection connection = DatabaseConnection.getConnection();
-            SongDao songDao = new SongDao(connection);
-
-            boolean success = songDao.deleteSong(songId);
+        String pathInfo = request.getPathInfo();
+        if (pathInfo == null || pathInfo.equals("/")) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.print("{\"success\": false, \"message\": \"Song ID required\"}");
+            return;
+        }
 
-            if (success) {
-                response.setStatus(HttpServletResponse.SC_OK);
-                out.print("{\"success\": true, \"message\": \"Song deleted successfully\"}");
-            } else {
-                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                out.print("{\"success\": false, \"message\": \"Song not found\"}");
-            }
+        // Extract song ID from path (e.g., /123)
+        String idStr = pathInfo.substring(1);
+        int songId;
+        try {
+            songId = Integer.parseInt(idStr);
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.print("{\"success\": false, \"message\": \"Invalid song ID\"}");
+            return;
+        }
 
-            connection.close();
+        boolean success;
+        try {
+            success = songDao.deleteSong(songId);
         } catch (SQLException e) {
+            System.out.println("Error while deleting song: " + e.getMessage());
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            out.print("{\"success\": false, \"message\": \"" + e.getMessage() + "\"}");
+            out.print("{\"success\": false, \"message\": \"Failed to delete song\"}");
+            return;
+        }
+
+        if (success) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            out.print("{\"success\": true, \"message\": \"Song deleted successfully\"}");
+        } else {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            out.print("{\"success\": false, \"message\": \"Song not found\"}");
         }
     }
 
@@ -110,35 +194,72 @@ public class SongsServlet extends HttpServlet {
         response.setCharacterEncoding("UTF-8");
         response.setHeader("Access-Control-Allow-Origin", "*");
 
-        PrintWriter out = response.getWriter();
+        if ("/import".equals(request.getPathInfo())) {
+            importSongs(request, response);
+            return;
+        }
 
-        try {
-            Connection connection = DatabaseConnection.getConnection();
-            SongDao songDao = new SongDao(connection);
-
-            // Read JSON from request body
-            StringBuilder jsonBody = new StringBuilder();
-            String line;
-            while ((line = request.getReader().readLine()) != null) {
-                jsonBody.append(line);
-            }
+        Song song = Json.read(request, SONG_READER);
+        PrintWriter out = response.getWriter();
+        boolean success = songDao.addSong(song);
 
-            Song song = objectMapper.readValue(jsonBody.toString(), Song.class);
-            boolean success = songDao.addSong(song);
+        if (success) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            out.print("{\"success\": true, \"message\": \"Song added successfully\"}");
+        } else {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            out.print("{\"success\": false, \"message\": \"Failed to add song\"}");
+        }
+    }
 
-            if (success) {
-                response.setStatus(HttpServletResponse.SC_OK);
-                out.print("{\"success\": true, \"message\": \"Song added successfully\"}");
-            } else {
-                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                out.print("{\"success\": false, \"message\": \"Failed to add song\"}");
+    /**
+     * {@code POST /api/songs/import?format=csv|ndjson&chunkSize=N}: bulk load from the request body.
+     * The format defaults to CSV for a {@code text/csv} body and NDJSON otherwise.
+     */
+    private void importSongs(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String contentType = request.getContentType();
+        if (contentType != null && contentType.toLowerCase().startsWith("application/x-www-form-urlencoded")) {
+            // The container would consume the body as form parameters
+            response.setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+            response.getWriter().print("{\"success\": false, \"message\": \"Send the body as text/csv or application/x-ndjson\"}");
+            return;
+        }
+        SongImporter.Format format;
+        if (request.getParameter("format") != null) {
+            format = SongImporter.Format.fromName(request.getParameter("format"));
+        } else if (contentType != null && contentType.toLowerCase().startsWith("text/csv")) {
+            format = SongImporter.Format.CSV;
+        } else {
+            format = SongImporter.Format.NDJSON;
+        }
+        int chunkSize = SongImporter.DEFAULT_CHUNK_SIZE;
+        try {
+            if (request.getParameter("chunkSize") != null) {
+                chunkSize = Integer.parseInt(request.getParameter("chunkSize"));
             }
+        } catch (NumberFormatException e) {
+            format = null;
+        }
+        if (format == null) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().print("{\"success\": false, \"message\": \"Invalid format or chunkSize\"}");
+            return;
+        }
 
-            connection.close();
-        } catch (SQLException e) {
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            out.print("{\"success\": false, \"message\": \"" + e.getMessage() + "\"}");
+        // Audio paths are dropped: they would let a caller make /api/audio serve any file on the server
+        SongImporter importer = new SongImporter(songDao, chunkSize, false);
+        long start = System.currentTimeMillis();
+        SongImporter.ImportResult result;
+        try (Reader body = new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8)) {
+            result = importer.importSongs(body, format);
         }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("success", result.getFailed() == 0);
+        summary.put("imported", result.getImported());
+        summary.put("failed", result.getFailed());
+        summary.put("millis", System.currentTimeMillis() - start);
+        summary.put("errors", result.getErrors());
+        Json.write(response, summary);
     }
 }
-
@@ -1,15 +1,31 @@
 package com.example.musiclibrary;
 
+import com.example.musiclibrary.http.FileSender;
+import com.example.musiclibrary.http.HttpValidators;
+import com.example.musiclibrary.http.StaticAssetCache;
+import com.example.musiclibrary.metrics.InstrumentedServlet;
+import com.example.musiclibrary.metrics.Metrics;
+
 import javax.servlet.ServletException;
-import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.*;
+import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.LongAdder;
+
+public class StaticFileServlet extends InstrumentedServlet {
+    private static final LongAdder AUDIO_BYTES_SENT = Metrics.audioBytes("/uploads/audio");
+
+    private final StaticAssetCache staticAssets;
+
+    public StaticFileServlet(StaticAssetCache staticAssets) {
+        this.staticAssets = staticAssets;
+    }
 
-public class StaticFileServlet extends HttpServlet {
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
@@ -31,81 +47,66 @@ public class StaticFileServlet extends HttpServlet {
 
         // Check if request is for an audio file
         if (path.startsWith("uploads/audio/")) {
-            serveAudioFile(path, response);
+            serveAudioFile(path, request, response);
             return;
         }
 
-        // Try to load resource from classpath
-        InputStream resourceStream = getClass().getClassLoader().getResourceAsStream("webapp/" + path);
-        
-        if (resourceStream == null) {
+        // Everything under webapp/ was loaded at startup
+        StaticAssetCache.Asset asset = staticAssets.get(path);
+        if (asset == null) {
             // If not found, serve index.html for SPA routing
-            resourceStream = getClass().getClassLoader().getResourceAsStream("webapp/index.html");
-            if (resourceStream == null) {
+            asset = staticAssets.get("index.html");
+            if (asset == null) {
                 response.setStatus(HttpServletResponse.SC_NOT_FOUND);
                 return;
             }
         }
 
-        // Set content type
-        String contentType = getContentType(path);
-        response.setContentType(contentType);
-        response.setCharacterEncoding("UTF-8");
-
-        // Copy stream to response
-        try (OutputStream out = response.getOutputStream()) {
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = resourceStream.read(buffer)) != -1) {
-                out.write(buffer, 0, bytesRead);
-            }
-        } finally {
-            resourceStream.close();
+        String encoding = asset.chooseEncoding(request.getHeader("Accept-Encoding"));
+        String etag = asset.getETag(encoding);
+        if (asset.hasEncodings()) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+        // Fingerprinted names change with the content, so those never need revalidating
+        response.setHeader("Cache-Control", asset.isImmutable() ? "public, max-age=31536000, immutable" : "no-cache");
+        if (HttpValidators.isNotModified(request, etag, 0)) {
+            HttpValidators.sendNotModified(response, etag, 0);
+            return;
+        }
+        HttpValidators.setValidators(response, etag, 0);
+
+        byte[] body = asset.getBytes(encoding);
+        response.setContentType(asset.getContentType());
+        if (encoding != null) {
+            response.setHeader("Content-Encoding", encoding);
         }
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
     }
 
-    private void serveAudioFile(String path, HttpServletResponse response) throws IOException {
+    private void serveAudioFile(String path, HttpServletRequest request, HttpServletResponse response) throws IOException {
         Path filePath = Paths.get(path);
 
         // Check if file exists
-        if (!Files.exists(filePath)) {
+        if (!Files.isRegularFile(filePath)) {
             response.setStatus(HttpServletResponse.SC_NOT_FOUND);
             return;
         }
+        BasicFileAttributes attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
 
-        // Set content type based on file extension
-        String contentType = getContentType(path);
-        response.setContentType(contentType);
-        
         // Set cache headers for audio files
         response.setHeader("Cache-Control", "public, max-age=604800");
-        response.setHeader("Accept-Ranges", "bytes");
-
-        // Send file
-        try (InputStream fileStream = Files.newInputStream(filePath);
-             OutputStream out = response.getOutputStream()) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = fileStream.read(buffer)) != -1) {
-                out.write(buffer, 0, bytesRead);
-            }
+
+        // Same delivery path as /api/audio: validators, ranges, zero-copy body
+        try {
+            AUDIO_BYTES_SENT.add(FileSender.serve(request, response, filePath, attributes.size(),
+                    attributes.lastModifiedTime().toMillis(), StaticAssetCache.contentTypeFor(path)));
+        } catch (NoSuchFileException e) {
+            response.reset();
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
         }
     }
 
-    private String getContentType(String path) {
-        if (path.endsWith(".html")) return "text/html";
-        if (path.endsWith(".css")) return "text/css";
-        if (path.endsWith(".js")) return "application/javascript";
-        if (path.endsWith(".json")) return "application/json";
-        if (path.endsWith(".png")) return "image/png";
-        if (path.endsWith(".jpg") || path.endsWith(".jpeg")) return "image/jpeg";
-        if (path.endsWith(".svg")) return "image/svg+xml";
-        if (path.endsWith(".mp3")) return "audio/mpeg";
-        if (path.endsWith(".wav")) return "audio/wav";
-        if (path.endsWith(".ogg")) return "audio/ogg";
-        if (path.endsWith(".m4a")) return "audio/mp4";
-        return "application/octet-stream";
-    }
 }
 
 
@@ -1,38 +1,44 @@
 package com.example.musiclibrary;
 
+import com.example.musiclibrary.cache.AudioFileCache;
+import com.example.musiclibrary.cache.PlaylistSnapshotCache;
+import com.example.musiclibrary.dao.PlaylistDao;
+import com.example.musiclibrary.dao.SongDao;
+import com.example.musiclibrary.db.ConnectionPool;
 import com.example.musiclibrary.db.DatabaseConnection;
+import com.example.musiclibrary.db.SchemaMigrator;
+import com.example.musiclibrary.http.StaticAssetCache;
+import com.example.musiclibrary.metrics.MetricsRegistry;
+import com.example.musiclibrary.scan.LibraryScanner;
+import com.example.musiclibrary.search.SongSearchIndex;
+import com.example.musiclibrary.waveform.WaveformPeaks;
+import com.example.musiclibrary.waveform.WaveformService;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 
-import java.sql.Connection;
+import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class WebServer {
     private static final int PORT = 8080;
+    private static final long AUDIO_CACHE_MAX_BYTES = 4L * 1024 * 1024;
+    private static final long AUDIO_CACHE_TTL_MILLIS = 10 * 60 * 1000;
+    private static final long PLAYLIST_CACHE_MAX_BYTES = 32L * 1024 * 1024;
+    /** Where {@code POST /api/admin/library/scan} looks for audio files; override with -Dlibrary.root=... */
+    private static final String DEFAULT_LIBRARY_ROOT = "uploads/audio";
+    /** Waveform jobs waiting for a thread before new ones are turned away. */
+    private static final int WAVEFORM_QUEUE_CAPACITY = 256;
+    /** How often stored playlist song counts and durations are checked against playlist_songs. */
+    private static final long PLAYLIST_REPAIR_INTERVAL_HOURS = 6;
 
     public static void main(String[] args) {
         try {
-            // Test database connection
-            Connection connection = DatabaseConnection.getConnection();
-            System.out.println("✓ Database connected successfully!");
-            connection.close();
-
-            // Create and configure Jetty server
-            Server server = new Server(PORT);
-            ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
-            context.setContextPath("/");
-            server.setHandler(context);
-
-            // Register servlets
-            context.addServlet(new ServletHolder(new AuthServlet()), "/api/auth/*");
-            context.addServlet(new ServletHolder(new SongsServlet()), "/api/songs/*");
-            context.addServlet(new ServletHolder(new PlaylistServlet()), "/api/playlists/*");
-            context.addServlet(new ServletHolder(new AudioStreamServlet()), "/api/audio/*");
-            context.addServlet(new ServletHolder(new StaticFileServlet()), "/*");
-
-            // Start server
-            server.start();
+            Server server = start(PORT);
+            Runtime.getRuntime().addShutdownHook(new Thread(DatabaseConnection::shutdown, "db-pool-shutdown"));
             System.out.println("========================================");
             System.out.println("🎵 Online Music Library Web Server");
             System.out.println("========================================");
@@ -53,5 +59,137 @@ public class WebServer {
             System.exit(1);
         }
     }
-}
 
+    /**
+     * Opens the database, loads the caches and starts Jetty on the given port (0 picks a free one).
+     * Also used by the load test, which stops the returned server and calls
+     * {@link DatabaseConnection#shutdown()} itself.
+     */
+    public static Server start(int port) throws Exception {
+        // Open the connection pool once; every request borrows from it
+        DatabaseConnection.initialize();
+        System.out.println("✓ Database connected successfully!");
+        System.out.println("  " + DatabaseConnection.getPool());
+
+        // Bring the schema up to date once, before any request is served
+        new SchemaMigrator(DatabaseConnection.getDataSource()).migrate();
+
+        // One DAO of each kind for the life of the server; they borrow pooled connections per call
+        SongDao songDao = new SongDao(DatabaseConnection.getDataSource());
+        PlaylistDao playlistDao = new PlaylistDao(DatabaseConnection.getDataSource());
+
+        // Load the song search index and keep it in step with inserts and deletes
+        long indexStart = System.currentTimeMillis();
+        SongSearchIndex searchIndex = SongSearchIndex.build(songDao);
+        System.out.println("✓ Indexed " + searchIndex.size() + " songs for search in "
+                + (System.currentTimeMillis() - indexStart) + "ms");
+        SongDao.addChangeListener(searchIndex);
+
+        // Song id -> audio file details, so seeking does not hit the database
+        AudioFileCache audioFileCache = new AudioFileCache(AUDIO_CACHE_MAX_BYTES, AUDIO_CACHE_TTL_MILLIS);
+        SongDao.addChangeListener(audioFileCache);
+
+        // Serialized playlists by version; song changes move every playlist to a new version
+        PlaylistSnapshotCache playlistCache = new PlaylistSnapshotCache(PLAYLIST_CACHE_MAX_BYTES);
+        SongDao.addChangeListener(playlistDao.getVersions());
+
+        // The web UI, preloaded and precompressed
+        StaticAssetCache staticAssets = StaticAssetCache.load("webapp");
+        System.out.println("✓ Loaded " + staticAssets.size() + " static assets");
+
+        // Waveform peaks are decoded in the background, on a quarter of the cores at most
+        WaveformService waveformService = new WaveformService(
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 4),
+                WAVEFORM_QUEUE_CAPACITY, WaveformPeaks.DEFAULT_BINS);
+
+        // Scans run only when asked for, from the admin endpoint or the command line
+        LibraryScanner libraryScanner = new LibraryScanner(songDao,
+                Paths.get(System.getProperty("library.root", DEFAULT_LIBRARY_ROOT)),
+                Runtime.getRuntime().availableProcessors(), LibraryScanner.DEFAULT_BATCH_SIZE, waveformService);
+
+        registerScrapedMetrics(MetricsRegistry.getDefault(), searchIndex, audioFileCache, playlistCache, waveformService);
+
+        // Playlist totals are kept up to date as songs change; this only catches edits made outside the app
+        schedulePlaylistRepair(playlistDao);
+
+        // Create and configure Jetty server
+        Server server = new Server(port);
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        context.setContextPath("/");
+        server.setHandler(context);
+
+        // Register servlets
+        context.addServlet(new ServletHolder(new AuthServlet()), "/api/auth/*");
+        context.addServlet(new ServletHolder(new SongsServlet(searchIndex, songDao)), "/api/songs/*");
+        context.addServlet(new ServletHolder(new PlaylistServlet(playlistDao, playlistCache)), "/api/playlists/*");
+        context.addServlet(new ServletHolder(new AudioStreamServlet(audioFileCache, songDao, waveformService)), "/api/audio/*");
+        context.addServlet(new ServletHolder(new MetricsServlet(MetricsRegistry.getDefault())), "/api/metrics");
+        context.addServlet(new ServletHolder(new AdminServlet(DatabaseConnection.getPool().getProfiler(),
+                DatabaseConnection.getDataSource(), libraryScanner, playlistDao)), "/api/admin/*");
+        context.addServlet(new ServletHolder(new StaticFileServlet(staticAssets)), "/*");
+
+        server.start();
+        return server;
+    }
+
+    private static void schedulePlaylistRepair(PlaylistDao playlistDao) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "playlist-totals-repair");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                int repaired = playlistDao.repairPlaylistTotals();
+                if (repaired > 0) {
+                    System.out.println("Repaired song count and duration of " + repaired + " playlists");
+                }
+            } catch (SQLException e) {
+                System.out.println("Error while repairing playlist totals: " + e.getMessage());
+            }
+        }, PLAYLIST_REPAIR_INTERVAL_HOURS, PLAYLIST_REPAIR_INTERVAL_HOURS, TimeUnit.HOURS);
+    }
+
+    /** Pool, cache, index and background job state, read whenever /api/metrics is scraped. */
+    private static void registerScrapedMetrics(MetricsRegistry metrics, SongSearchIndex searchIndex,
+                                       AudioFileCache audioFileCache, PlaylistSnapshotCache playlistCache,
+                                       WaveformService waveformService) {
+        ConnectionPool pool = DatabaseConnection.getPool();
+        metrics.gauge("musiclibrary_db_pool_connections", "Pooled connections by state",
+                pool::getActiveConnections, "state", "active");
+        metrics.gauge("musiclibrary_db_pool_connections", "Pooled connections by state",
+                pool::getIdleConnections, "state", "idle");
+        metrics.gauge("musiclibrary_db_pool_pending_threads", "Threads waiting for a connection",
+                pool::getPendingThreads);
+        metrics.counter("musiclibrary_db_pool_acquire_timeouts_total", "Connection requests that timed out",
+                pool::getAcquireTimeoutCount);
+        metrics.gauge("musiclibrary_db_pool_wait_seconds_max", "Longest wait for a connection",
+                () -> pool.getMaxWaitMillis() / 1000.0);
+        metrics.counter("musiclibrary_db_pool_leaks_total", "Connections held past the leak detection threshold",
+                pool::getLeakCount);
+
+        metrics.gauge("musiclibrary_search_index_songs", "Songs in the search index", searchIndex::size);
+
+        metrics.gauge("musiclibrary_audio_cache_entries", "Entries in the audio file cache", audioFileCache::size);
+        metrics.counter("musiclibrary_audio_cache_requests_total", "Audio file cache lookups by result",
+                audioFileCache::getHits, "result", "hit");
+        metrics.counter("musiclibrary_audio_cache_requests_total", "Audio file cache lookups by result",
+                audioFileCache::getMisses, "result", "miss");
+        metrics.counter("musiclibrary_audio_cache_evictions_total", "Entries evicted from the audio file cache",
+                audioFileCache::getEvictions);
+
+        metrics.gauge("musiclibrary_playlist_cache_entries", "Playlists in the snapshot cache", playlistCache::size);
+        metrics.gauge("musiclibrary_playlist_cache_bytes", "Serialized playlist bytes held", playlistCache::getWeightBytes);
+        metrics.counter("musiclibrary_playlist_cache_requests_total", "Playlist snapshot cache lookups by result",
+                playlistCache::getHits, "result", "hit");
+        metrics.counter("musiclibrary_playlist_cache_requests_total", "Playlist snapshot cache lookups by result",
+                playlistCache::getMisses, "result", "miss");
+        metrics.counter("musiclibrary_playlist_cache_evictions_total", "Entries evicted from the playlist snapshot cache",
+                playlistCache::getEvictions);
+
+        metrics.gauge("musiclibrary_waveform_jobs", "Waveform computations by state",
+                waveformService::getQueuedJobs, "state", "queued");
+        metrics.gauge("musiclibrary_waveform_jobs", "Waveform computations by state",
+                waveformService::getActiveJobs, "state", "active");
+    }
+}
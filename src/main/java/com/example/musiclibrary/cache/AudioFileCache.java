@@ -0,0 +1,209 @@
+package com.example.musiclibrary.cache;
+
+import com.example.musiclibrary.dao.SongChangeListener;
+import com.example.musiclibrary.model.SeekTable;
+import com.example.musiclibrary.model.Song;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers where each song's audio lives, so the player's stream of range requests for one
+ * track needs a single database lookup instead of one per request.
+ *
+ * Bounded by an estimate of the memory held by the entries (least recently used go first),
+ * entries expire after a fixed time, and a deleted song is dropped immediately. Callers check
+ * {@link Entry#isCurrent()} on a hit, since the file can change on disk before either happens.
+ *
+ * A lookup that missed takes a {@link #generation(int)} before going to the database and puts its
+ * entry under it; invalidating a song moves its generation on, so an entry loaded before a delete
+ * cannot be put back after it. Generations live in a fixed table of slots indexed by song id: two
+ * songs sharing a slot only make each other's loads be dropped more often, never less.
+ */
+public class AudioFileCache implements SongChangeListener {
+
+    /** Rough fixed cost of an entry: map node, entry object, Path and boxed key. */
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+    private static final int GENERATION_SLOTS = 1 << 12;
+
+    private final long maxWeightBytes;
+    private final long ttlMillis;
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final long[] generations = new long[GENERATION_SLOTS];
+    private long totalWeight;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public AudioFileCache(long maxWeightBytes, long ttlMillis) {
+        this.maxWeightBytes = maxWeightBytes;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /** The cached entry, or {@code null} if there is none or it has expired. */
+    public synchronized Entry get(int songId) {
+        Entry entry = entries.get(songId);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.loadedAt > ttlMillis) {
+            remove(songId);
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry;
+    }
+
+    /** Take before looking the song up elsewhere, and pass to the {@link Entry} built from the result. */
+    public synchronized long generation(int songId) {
+        return generations[slot(songId)];
+    }
+
+    /** Caches the entry unless the song was invalidated after the entry's generation was taken. */
+    public synchronized void put(int songId, Entry entry) {
+        if (entry.generation != generations[slot(songId)]) {
+            return;
+        }
+        remove(songId);
+        entries.put(songId, entry);
+        totalWeight += entry.weight;
+
+        Iterator<Map.Entry<Integer, Entry>> eldestFirst = entries.entrySet().iterator();
+        while (totalWeight > maxWeightBytes && eldestFirst.hasNext()) {
+            Map.Entry<Integer, Entry> eldest = eldestFirst.next();
+            if (eldest.getKey() == songId) {
+                continue;
+            }
+            totalWeight -= eldest.getValue().weight;
+            eldestFirst.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void invalidate(int songId) {
+        generations[slot(songId)]++;
+        remove(songId);
+    }
+
+    private static int slot(int songId) {
+        return songId & (GENERATION_SLOTS - 1);
+    }
+
+    private void remove(int songId) {
+        Entry removed = entries.remove(songId);
+        if (removed != null) {
+            totalWeight -= removed.weight;
+        }
+    }
+
+    @Override
+    public void songAdded(Song song) {
+        // nothing cached yet for a new song
+    }
+
+    @Override
+    public void songDeleted(int songId) {
+        invalidate(songId);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeightBytes() {
+        return totalWeight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /** What the audio servlet needs to answer a request without asking the database. */
+    public static final class Entry {
+        private final long generation;
+        private final Path path;
+        private final long fileSize;
+        private final long lastModified;
+        private final String contentType;
+        private final String title;
+        private final SeekTable seekTable;
+        private final long loadedAt;
+        private final int weight;
+
+        public Entry(long generation, Path path, long fileSize, long lastModified, String contentType, String title) {
+            this(generation, path, fileSize, lastModified, contentType, title, null, System.currentTimeMillis());
+        }
+
+        private Entry(long generation, Path path, long fileSize, long lastModified, String contentType, String title,
+                      SeekTable seekTable, long loadedAt) {
+            this.generation = generation;
+            this.path = path;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+            this.title = title;
+            this.seekTable = seekTable;
+            this.loadedAt = loadedAt;
+            this.weight = ENTRY_OVERHEAD_BYTES
+                    + 2 * (path.toString().length() + contentType.length() + (title == null ? 0 : title.length()))
+                    + (seekTable == null ? 0 : 8 * seekTable.size());
+        }
+
+        /** The same entry, expiring at the same time, with the file's seek table attached. */
+        public Entry withSeekTable(SeekTable seekTable) {
+            return new Entry(generation, path, fileSize, lastModified, contentType, title, seekTable, loadedAt);
+        }
+
+        /** Whether the file on disk still has the size and modification time this entry was built from. */
+        public boolean isCurrent() throws IOException {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                return attributes.size() == fileSize && attributes.lastModifiedTime().toMillis() == lastModified;
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getFileSize() {
+            return fileSize;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        /** Null until a seek by time has needed it. */
+        public SeekTable getSeekTable() {
+            return seekTable;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.musiclibrary.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The serialized JSON of recently opened playlists, so opening an unchanged playlist again costs
+ * no queries and no serialization.
+ *
+ * Each entry is tagged with the playlist version it was loaded at (see
+ * {@link com.example.musiclibrary.dao.PlaylistVersions}) and is only returned for that version, so
+ * an edit makes the old bytes unreachable without anyone having to remove them. Bounded by the
+ * size of the bodies held, least recently used first out.
+ */
+public class PlaylistSnapshotCache {
+
+    /** Rough fixed cost of an entry: map node, entry object, array header and boxed key. */
+    private static final int ENTRY_OVERHEAD_BYTES = 120;
+
+    private final long maxWeightBytes;
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalWeight;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public PlaylistSnapshotCache(long maxWeightBytes) {
+        this.maxWeightBytes = maxWeightBytes;
+    }
+
+    /** The playlist as it was at {@code version}, or {@code null} if that version is not cached. */
+    public synchronized Entry get(int playlistId, long version) {
+        Entry entry = entries.get(playlistId);
+        if (entry == null || entry.version != version) {
+            if (entry != null && entry.version < version) {
+                remove(playlistId);
+            }
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry;
+    }
+
+    /** Caches the entry unless a newer version of the playlist is already cached. */
+    public synchronized void put(int playlistId, Entry entry) {
+        Entry existing = entries.get(playlistId);
+        if (existing != null && existing.version > entry.version) {
+            return;
+        }
+        if (entry.weight > maxWeightBytes) {
+            return;
+        }
+        remove(playlistId);
+        entries.put(playlistId, entry);
+        totalWeight += entry.weight;
+
+        Iterator<Map.Entry<Integer, Entry>> eldestFirst = entries.entrySet().iterator();
+        while (totalWeight > maxWeightBytes && eldestFirst.hasNext()) {
+            Map.Entry<Integer, Entry> eldest = eldestFirst.next();
+            if (eldest.getKey() == playlistId) {
+                continue;
+            }
+            totalWeight -= eldest.getValue().weight;
+            eldestFirst.remove();
+            evictions++;
+        }
+    }
+
+    private void remove(int playlistId) {
+        Entry removed = entries.remove(playlistId);
+        if (removed != null) {
+            totalWeight -= removed.weight;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeightBytes() {
+        return totalWeight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /** One version of one playlist's {@code GET /api/playlists/{id}} body, and who may see it. */
+    public static final class Entry {
+        private final long version;
+        private final int userId;
+        private final byte[] body;
+        private final String etag;
+        private final int weight;
+
+        public Entry(long version, int userId, byte[] body, String etag) {
+            this.version = version;
+            this.userId = userId;
+            this.body = body;
+            this.etag = etag;
+            this.weight = ENTRY_OVERHEAD_BYTES + body.length + 2 * etag.length();
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public int getUserId() {
+            return userId;
+        }
+
+        /** Shared; never modify it. */
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+}
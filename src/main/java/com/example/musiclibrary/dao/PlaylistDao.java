@@ -1,99 +1,266 @@
 package com.example.musiclibrary.dao;
 
+import com.example.musiclibrary.metrics.LatencyHistogram;
+import com.example.musiclibrary.metrics.Metrics;
 import com.example.musiclibrary.model.Playlist;
 import com.example.musiclibrary.model.Song;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Playlist queries and updates. Like {@link SongDao}, a single instance is shared by every request
+ * and borrows a pooled connection per call.
+ *
+ * Songs are ordered by sparse position keys, {@link #POSITION_GAP} apart when appended. Moving a
+ * song rewrites only its own key, to the midpoint of its new neighbours; when moves have packed
+ * keys too tightly the playlist is renumbered in the background. Moves and renumberings both lock
+ * the playlist row first and read and write keys in one transaction, so they run one after another
+ * and a renumbering cannot land between a move's reads and its write. A unique index on
+ * (playlist_id, position) turns two appends racing for the same key into a conflict, which is
+ * retried.
+ *
+ * Each playlist row also carries its song count and total duration. Every change to a playlist's
+ * songs updates them in the same transaction, locking the playlist row before any of its songs so
+ * concurrent edits queue up instead of deadlocking. Song deletes and re-scans adjust them too (see
+ * {@link SongDao}); {@link #repairPlaylistTotals()} is only a backstop for changes made outside the
+ * application.
+ *
+ * Methods that change a playlist take the user id and check ownership in the WHERE clause of their
+ * first statement, so a change costs no separate lookup; they return false (or null) both when the
+ * playlist is not the user's and when there was nothing to change.
+ */
 public class PlaylistDao {
-    private final Connection connection;
 
-    public PlaylistDao(Connection connection) {
-        this.connection = connection;
+    /** Distance between neighbouring position keys after an append or a compaction. */
+    public static final long POSITION_GAP = 65536;
+    /** A move leaving less room than this beside the moved song schedules a compaction. */
+    private static final long MIN_POSITION_GAP = 1024;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int COMPACTION_QUEUE_CAPACITY = 1000;
+    /** Playlists checked per statement by {@link #repairPlaylistTotals()}. */
+    private static final int REPAIR_CHUNK_SIZE = 1000;
+
+    private static final String SQLSTATE_DEADLOCK = "40001";
+    private static final String SQLSTATE_INTEGRITY_CLASS = "23";
+    private static final String POSITION_INDEX = "uc_playlist_song_position";
+
+    private static final String SELECT_PLAYLISTS =
+            "SELECT id, name, description, created_at, updated_at, song_count, total_duration_seconds FROM playlists ";
+    // Read in index order from idx_playlists_user_updated
+    private static final String SELECT_PLAYLISTS_BY_USER = SELECT_PLAYLISTS +
+            "WHERE user_id = ? " +
+            "ORDER BY updated_at DESC";
+    private static final String SELECT_PLAYLIST_BY_ID = SELECT_PLAYLISTS +
+            "WHERE id = ? AND user_id = ?";
+    // The playlist row and its songs in order, in one round trip; an empty playlist gives one row
+    // with null song columns, someone else's playlist gives none
+    private static final String SELECT_PLAYLIST_WITH_SONGS =
+            "SELECT p.id, p.name, p.description, p.created_at, p.updated_at, p.song_count, p.total_duration_seconds, " +
+            "s.id AS song_id, s.title, a.name AS artist_name, al.name AS album_name, s.duration_seconds, s.audio_file_path " +
+            "FROM playlists p " +
+            "LEFT JOIN playlist_songs ps ON ps.playlist_id = p.id " +
+            "LEFT JOIN songs s ON s.id = ps.song_id " +
+            "LEFT JOIN artists a ON a.id = s.artist_id " +
+            "LEFT JOIN albums al ON al.id = s.album_id " +
+            "WHERE p.id = ? AND p.user_id = ? " +
+            "ORDER BY ps.position";
+    private static final String INSERT_PLAYLIST = "INSERT INTO playlists (name, description, user_id) VALUES (?, ?, ?)";
+    private static final String UPDATE_PLAYLIST =
+            "UPDATE playlists SET name = ?, description = ?, updated_at = CURRENT_TIMESTAMP WHERE id = ? AND user_id = ?";
+    private static final String DELETE_PLAYLIST = "DELETE FROM playlists WHERE id = ? AND user_id = ?";
+    // Computes the key and inserts in one statement, so there is no window between the two
+    private static final String APPEND_PLAYLIST_SONG =
+            "INSERT INTO playlist_songs (playlist_id, song_id, position) " +
+            "SELECT ?, ?, COALESCE(MAX(position), 0) + " + POSITION_GAP + " FROM playlist_songs WHERE playlist_id = ?";
+    private static final String SELECT_SONG_POSITION =
+            "SELECT position FROM playlist_songs WHERE playlist_id = ? AND song_id = ?";
+    private static final String SELECT_FIRST_POSITION_AFTER =
+            "SELECT MIN(position) FROM playlist_songs WHERE playlist_id = ? AND position > ? AND song_id <> ?";
+    private static final String UPDATE_SONG_POSITION =
+            "UPDATE playlist_songs SET position = ? WHERE playlist_id = ? AND song_id = ?";
+    private static final String SELECT_PLAYLIST_ORDER =
+            "SELECT id FROM playlist_songs WHERE playlist_id = ? ORDER BY position";
+    // Keys are positive, so parking rows at -id frees every key for the renumbering
+    private static final String PARK_ROW_POSITION = "UPDATE playlist_songs SET position = -id WHERE id = ?";
+    private static final String UPDATE_ROW_POSITION = "UPDATE playlist_songs SET position = ? WHERE id = ?";
+    private static final String DELETE_PLAYLIST_SONG = "DELETE FROM playlist_songs WHERE playlist_id = ? AND song_id = ?";
+    private static final String COUNT_SONGS =
+            "(SELECT COUNT(*) FROM playlist_songs ps WHERE ps.playlist_id = playlists.id)";
+    private static final String SUM_DURATIONS =
+            "(SELECT COALESCE(SUM(s.duration_seconds), 0) FROM playlist_songs ps " +
+            "JOIN songs s ON s.id = ps.song_id WHERE ps.playlist_id = playlists.id)";
+    // For one song in or out (+1 / -1). Written before the playlist_songs change, so the playlist
+    // row is always locked first; the EXISTS leaves the totals alone when the song is not there.
+    private static final String ADD_TO_TOTALS =
+            "UPDATE playlists SET song_count = song_count + 1, " +
+            "total_duration_seconds = total_duration_seconds + (SELECT COALESCE(MAX(duration_seconds), 0) FROM songs WHERE id = ?), " +
+            "updated_at = CURRENT_TIMESTAMP WHERE id = ? AND user_id = ?";
+    private static final String SUBTRACT_FROM_TOTALS =
+            "UPDATE playlists SET song_count = song_count - 1, " +
+            "total_duration_seconds = total_duration_seconds - (SELECT COALESCE(MAX(duration_seconds), 0) FROM songs WHERE id = ?), " +
+            "updated_at = CURRENT_TIMESTAMP " +
+            "WHERE id = ? AND user_id = ? AND EXISTS (SELECT 1 FROM playlist_songs WHERE playlist_id = ? AND song_id = ?)";
+    // For batch edits, which have already locked and checked the playlist: one statement per song
+    // actually added or removed, so an edit costs the same however long the playlist is
+    private static final String ADD_SONG_TO_TOTALS =
+            "UPDATE playlists SET song_count = song_count + 1, " +
+            "total_duration_seconds = total_duration_seconds + (SELECT COALESCE(MAX(duration_seconds), 0) FROM songs WHERE id = ?), " +
+            "updated_at = CURRENT_TIMESTAMP WHERE id = ? AND EXISTS (SELECT 1 FROM songs WHERE id = ?)";
+    private static final String REMOVE_SONG_FROM_TOTALS =
+            "UPDATE playlists SET song_count = song_count - 1, " +
+            "total_duration_seconds = total_duration_seconds - (SELECT COALESCE(MAX(duration_seconds), 0) FROM songs WHERE id = ?), " +
+            "updated_at = CURRENT_TIMESTAMP WHERE id = ?";
+    private static final String RESET_TOTALS =
+            "UPDATE playlists SET song_count = 0, total_duration_seconds = 0, updated_at = CURRENT_TIMESTAMP WHERE id = ?";
+    // Keeps updated_at as it is: a repair is not an edit
+    private static final String REPAIR_TOTALS =
+            "UPDATE playlists SET song_count = " + COUNT_SONGS + ", total_duration_seconds = " + SUM_DURATIONS + ", " +
+            "updated_at = updated_at " +
+            "WHERE id >= ? AND id < ? AND (song_count <> " + COUNT_SONGS + " OR total_duration_seconds <> " + SUM_DURATIONS + ")";
+    private static final String SELECT_PLAYLIST_ID_RANGE = "SELECT MIN(id), MAX(id) FROM playlists";
+    private static final String DELETE_ALL_PLAYLIST_SONGS = "DELETE FROM playlist_songs WHERE playlist_id = ?";
+    // Locks the playlist, so batch edits of one playlist run one after another
+    private static final String LOCK_OWNED_PLAYLIST = "SELECT id FROM playlists WHERE id = ? AND user_id = ? FOR UPDATE";
+    private static final String LOCK_PLAYLIST = "SELECT id FROM playlists WHERE id = ? FOR UPDATE";
+    private static final String SELECT_PLAYLIST_SONG_IDS = "SELECT song_id FROM playlist_songs WHERE playlist_id = ?";
+    private static final String SELECT_MAX_POSITION =
+            "SELECT COALESCE(MAX(position), 0) FROM playlist_songs WHERE playlist_id = ?";
+    // Inserts nothing for an id with no song, rather than failing the whole batch on the foreign key
+    private static final String INSERT_PLAYLIST_SONG =
+            "INSERT INTO playlist_songs (playlist_id, song_id, position) SELECT ?, id, ? FROM songs WHERE id = ?";
+
+    // Per-method latency, exported through /api/metrics
+    private static final LatencyHistogram GET_ALL_PLAYLISTS_TIMER = Metrics.daoTimer("PlaylistDao", "getAllPlaylists");
+    private static final LatencyHistogram GET_PLAYLIST_BY_ID_TIMER = Metrics.daoTimer("PlaylistDao", "getPlaylistById");
+    private static final LatencyHistogram GET_PLAYLIST_WITH_SONGS_TIMER = Metrics.daoTimer("PlaylistDao", "getPlaylistWithSongs");
+    private static final LatencyHistogram CREATE_PLAYLIST_TIMER = Metrics.daoTimer("PlaylistDao", "createPlaylist");
+    private static final LatencyHistogram UPDATE_PLAYLIST_TIMER = Metrics.daoTimer("PlaylistDao", "updatePlaylist");
+    private static final LatencyHistogram DELETE_PLAYLIST_TIMER = Metrics.daoTimer("PlaylistDao", "deletePlaylist");
+    private static final LatencyHistogram ADD_SONG_TO_PLAYLIST_TIMER = Metrics.daoTimer("PlaylistDao", "addSongToPlaylist");
+    private static final LatencyHistogram REMOVE_SONG_FROM_PLAYLIST_TIMER = Metrics.daoTimer("PlaylistDao", "removeSongFromPlaylist");
+    private static final LatencyHistogram UPDATE_PLAYLIST_SONGS_TIMER = Metrics.daoTimer("PlaylistDao", "updatePlaylistSongs");
+    private static final LatencyHistogram MOVE_SONG_IN_PLAYLIST_TIMER = Metrics.daoTimer("PlaylistDao", "moveSongInPlaylist");
+    private static final LatencyHistogram REPAIR_PLAYLIST_TOTALS_TIMER = Metrics.daoTimer("PlaylistDao", "repairPlaylistTotals");
+    private static final LatencyHistogram COMPACT_POSITIONS_TIMER = Metrics.daoTimer("PlaylistDao", "compactPositions");
+
+    private final DataSource dataSource;
+    private final PlaylistVersions versions = new PlaylistVersions();
+    private final ThreadPoolExecutor compactor;
+    private final Set<Integer> compactionsPending = ConcurrentHashMap.newKeySet();
+
+    public PlaylistDao(DataSource dataSource) {
+        this.dataSource = dataSource;
+        this.compactor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(COMPACTION_QUEUE_CAPACITY), runnable -> {
+                    Thread thread = new Thread(runnable, "playlist-compactor");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /** Versions of the playlists changed through this DAO; register it with SongDao as well. */
+    public PlaylistVersions getVersions() {
+        return versions;
     }
 
     public List<Playlist> getAllPlaylists(int userId) {
-        List<Playlist> playlists = new ArrayList<>();
-        String sql = "SELECT p.id, p.name, p.description, p.created_at, p.updated_at, COUNT(ps.id) AS song_count " +
-                "FROM playlists p " +
-                "LEFT JOIN playlist_songs ps ON p.id = ps.playlist_id " +
-                "WHERE p.user_id = ? " +
-                "GROUP BY p.id " +
-                "ORDER BY p.updated_at DESC";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setInt(1, userId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    playlists.add(mapRowToPlaylist(rs));
+        long start = System.nanoTime();
+        try {
+            List<Playlist> playlists = new ArrayList<>();
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(SELECT_PLAYLISTS_BY_USER)) {
+                stmt.setInt(1, userId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        playlists.add(mapRowToPlaylist(rs));
+                    }
                 }
+            } catch (SQLException e) {
+                System.out.println("Error while fetching playlists: " + e.getMessage());
             }
-        } catch (SQLException e) {
-            System.out.println("Error while fetching playlists: " + e.getMessage());
+            return playlists;
+        } finally {
+            GET_ALL_PLAYLISTS_TIMER.recordSince(start);
         }
-        return playlists;
     }
 
     public Playlist getPlaylistById(int playlistId, int userId) {
-        String sql = "SELECT p.id, p.name, p.description, p.created_at, p.updated_at, COUNT(ps.id) AS song_count " +
-                "FROM playlists p " +
-                "LEFT JOIN playlist_songs ps ON p.id = ps.playlist_id " +
-                "WHERE p.id = ? AND p.user_id = ? " +
-                "GROUP BY p.id";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        long start = System.nanoTime();
+        try {
+            try (Connection connection = dataSource.getConnection()) {
+                return loadPlaylist(connection, playlistId, userId);
+            } catch (SQLException e) {
+                System.out.println("Error while fetching playlist: " + e.getMessage());
+            }
+            return null;
+        } finally {
+            GET_PLAYLIST_BY_ID_TIMER.recordSince(start);
+        }
+    }
+
+    public Playlist getPlaylistWithSongs(int playlistId, int userId) {
+        long start = System.nanoTime();
+        try {
+            try (Connection connection = dataSource.getConnection()) {
+                return loadPlaylistWithSongs(connection, playlistId, userId);
+            } catch (SQLException e) {
+                System.out.println("Error while fetching playlist: " + e.getMessage());
+            }
+            return null;
+        } finally {
+            GET_PLAYLIST_WITH_SONGS_TIMER.recordSince(start);
+        }
+    }
+
+    private Playlist loadPlaylist(Connection connection, int playlistId, int userId) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(SELECT_PLAYLIST_BY_ID)) {
             stmt.setInt(1, playlistId);
             stmt.setInt(2, userId);
             try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return mapRowToPlaylist(rs);
-                }
+                return rs.next() ? mapRowToPlaylist(rs) : null;
             }
-        } catch (SQLException e) {
-            System.out.println("Error while fetching playlist: " + e.getMessage());
         }
-        return null;
     }
 
-    public Playlist getPlaylistWithSongs(int playlistId, int userId) {
-        Playlist playlist = getPlaylistById(playlistId, userId);
-        if (playlist == null) return null;
-
-        String sql = "SELECT s.id, s.title, a.name AS artist_name, al.name AS album_name, s.duration_seconds, s.audio_file_path " +
-                "FROM songs s " +
-                "JOIN artists a ON s.artist_id = a.id " +
-                "JOIN albums al ON s.album_id = al.id " +
-                "JOIN playlist_songs ps ON s.id = ps.song_id " +
-                "WHERE ps.playlist_id = ? " +
-                "ORDER BY ps.position, ps.added_at";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+    private Playlist loadPlaylistWithSongs(Connection connection, int playlistId, int userId) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(SELECT_PLAYLIST_WITH_SONGS)) {
             stmt.setInt(1, playlistId);
+            stmt.setInt(2, userId);
             try (ResultSet rs = stmt.executeQuery()) {
-                List<Song> songs = new ArrayList<>();
-                while (rs.next()) {
-                    Song song = new Song();
-                    song.setId(rs.getInt("id"));
-                    song.setTitle(rs.getString("title"));
-                    song.setArtistName(rs.getString("artist_name"));
-                    song.setAlbumName(rs.getString("album_name"));
-                    song.setDurationSeconds(rs.getInt("duration_seconds"));
-                    song.setAudioFilePath(rs.getString("audio_file_path"));
-                    songs.add(song);
+                if (!rs.next()) {
+                    return null;
                 }
+                Playlist playlist = mapRowToPlaylist(rs);
+                List<Song> songs = new ArrayList<>(playlist.getSongCount());
+                do {
+                    rs.getInt("song_id");
+                    if (!rs.wasNull()) {
+                        songs.add(SongDao.mapRowToSong(rs, "song_id"));
+                    }
+                } while (rs.next());
                 playlist.setSongs(songs);
+                return playlist;
             }
-        } catch (SQLException e) {
-            System.out.println("Error while fetching playlist songs: " + e.getMessage());
         }
-        return playlist;
     }
 
     public boolean createPlaylist(String name, String description, int userId) {
-        String sql = "INSERT INTO playlists (name, description, user_id) VALUES (?, ?, ?)";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(INSERT_PLAYLIST)) {
             stmt.setString(1, name);
             stmt.setString(2, description);
             stmt.setInt(3, userId);
@@ -102,71 +269,475 @@ public class PlaylistDao {
         } catch (SQLException e) {
             System.out.println("Error while creating playlist: " + e.getMessage());
             return false;
+        } finally {
+            CREATE_PLAYLIST_TIMER.recordSince(start);
         }
     }
 
-    public boolean updatePlaylist(int playlistId, String name, String description) {
-        String sql = "UPDATE playlists SET name = ?, description = ?, updated_at = CURRENT_TIMESTAMP WHERE id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+    public boolean updatePlaylist(int playlistId, int userId, String name, String description) {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(UPDATE_PLAYLIST)) {
             stmt.setString(1, name);
             stmt.setString(2, description);
             stmt.setInt(3, playlistId);
+            stmt.setInt(4, userId);
             int rows = stmt.executeUpdate();
+            if (rows > 0) {
+                versions.changed(playlistId);
+            }
             return rows > 0;
         } catch (SQLException e) {
             System.out.println("Error while updating playlist: " + e.getMessage());
             return false;
+        } finally {
+            UPDATE_PLAYLIST_TIMER.recordSince(start);
         }
     }
 
-    public boolean deletePlaylist(int playlistId) {
-        String sql = "DELETE FROM playlists WHERE id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+    public boolean deletePlaylist(int playlistId, int userId) {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(DELETE_PLAYLIST)) {
             stmt.setInt(1, playlistId);
+            stmt.setInt(2, userId);
             int rows = stmt.executeUpdate();
+            if (rows > 0) {
+                versions.changed(playlistId);
+            }
             return rows > 0;
         } catch (SQLException e) {
             System.out.println("Error while deleting playlist: " + e.getMessage());
             return false;
+        } finally {
+            DELETE_PLAYLIST_TIMER.recordSince(start);
         }
     }
 
-    public boolean addSongToPlaylist(int playlistId, int songId) {
-        // MySQL disallows modifying a table and selecting from the same table in a subquery
-        // in the same statement in some cases. Compute next position first, then insert.
-        String posSql = "SELECT COALESCE(MAX(position), 0) + 1 AS next_pos FROM playlist_songs WHERE playlist_id = ?";
-        String insertSql = "INSERT INTO playlist_songs (playlist_id, song_id, position) VALUES (?, ?, ?)";
-        try (PreparedStatement posStmt = connection.prepareStatement(posSql)) {
-            posStmt.setInt(1, playlistId);
-            try (ResultSet rs = posStmt.executeQuery()) {
-                int nextPos = 1;
-                if (rs.next()) {
-                    nextPos = rs.getInt("next_pos");
+    /** Appends the song to the end of the playlist. */
+    public boolean addSongToPlaylist(int playlistId, int userId, int songId) {
+        long start = System.nanoTime();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try (Connection connection = dataSource.getConnection()) {
+                    // Left uncommitted on any failure; the pool rolls it back when the connection is returned
+                    connection.setAutoCommit(false);
+                    try (PreparedStatement totalsStmt = connection.prepareStatement(ADD_TO_TOTALS);
+                         PreparedStatement stmt = connection.prepareStatement(APPEND_PLAYLIST_SONG)) {
+                        totalsStmt.setInt(1, songId);
+                        totalsStmt.setInt(2, playlistId);
+                        totalsStmt.setInt(3, userId);
+                        if (totalsStmt.executeUpdate() == 0) {
+                            return false;
+                        }
+                        stmt.setInt(1, playlistId);
+                        stmt.setInt(2, songId);
+                        stmt.setInt(3, playlistId);
+                        if (stmt.executeUpdate() == 0) {
+                            return false;
+                        }
+                    }
+                    connection.commit();
+                    versions.changed(playlistId);
+                    return true;
+                } catch (SQLException e) {
+                    if (attempt < MAX_ATTEMPTS && isPositionConflict(e)) {
+                        continue;
+                    }
+                    System.out.println("Error while adding song to playlist: " + e.getMessage());
+                    return false;
                 }
-                try (PreparedStatement insertStmt = connection.prepareStatement(insertSql)) {
-                    insertStmt.setInt(1, playlistId);
-                    insertStmt.setInt(2, songId);
-                    insertStmt.setInt(3, nextPos);
-                    int rows = insertStmt.executeUpdate();
-                    return rows > 0;
+            }
+        } finally {
+            ADD_SONG_TO_PLAYLIST_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Edits a playlist's songs in one transaction, after one ownership check: with
+     * {@code replaceWith} the playlist becomes exactly those songs, in that order; otherwise
+     * {@code remove} are taken out and then {@code add} are appended in order, skipping songs
+     * already in it. Ids with no song are ignored. Any of the lists may be null.
+     *
+     * Returns the playlist with its songs as committed, or null if it is not the user's.
+     */
+    public Playlist updatePlaylistSongs(int playlistId, int userId, List<Integer> replaceWith,
+                                        List<Integer> remove, List<Integer> add) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try (Connection connection = dataSource.getConnection()) {
+                    // Left uncommitted on any failure; the pool rolls it back when the connection is returned
+                    connection.setAutoCommit(false);
+                    if (!lockOwnedPlaylist(connection, playlistId, userId)) {
+                        return null;
+                    }
+                    if (replaceWith != null) {
+                        executeForPlaylist(connection, RESET_TOTALS, playlistId);
+                        executeForPlaylist(connection, DELETE_ALL_PLAYLIST_SONGS, playlistId);
+                        appendSongs(connection, playlistId, replaceWith, new HashSet<>());
+                    } else {
+                        Set<Integer> present = loadSongIds(connection, playlistId);
+                        removeSongs(connection, playlistId, remove, present);
+                        appendSongs(connection, playlistId, add, present);
+                    }
+                    connection.commit();
+                    versions.changed(playlistId);
+
+                    return loadPlaylistWithSongs(connection, playlistId, userId);
+                } catch (SQLException e) {
+                    // A concurrent single-song add can take the key this batch picked
+                    if (attempt < MAX_ATTEMPTS && isPositionConflict(e)) {
+                        continue;
+                    }
+                    throw e;
                 }
             }
-        } catch (SQLException e) {
-            System.out.println("Error while adding song to playlist: " + e.getMessage());
-            return false;
+        } finally {
+            UPDATE_PLAYLIST_SONGS_TIMER.recordSince(start);
+        }
+    }
+
+    private boolean lockOwnedPlaylist(Connection connection, int playlistId, int userId) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(LOCK_OWNED_PLAYLIST)) {
+            stmt.setInt(1, playlistId);
+            stmt.setInt(2, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private Set<Integer> loadSongIds(Connection connection, int playlistId) throws SQLException {
+        Set<Integer> songIds = new HashSet<>();
+        try (PreparedStatement stmt = connection.prepareStatement(SELECT_PLAYLIST_SONG_IDS)) {
+            stmt.setInt(1, playlistId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    songIds.add(rs.getInt(1));
+                }
+            }
+        }
+        return songIds;
+    }
+
+    private void removeSongs(Connection connection, int playlistId, List<Integer> songIds, Set<Integer> present)
+            throws SQLException {
+        if (songIds == null || songIds.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement totalsStmt = connection.prepareStatement(REMOVE_SONG_FROM_TOTALS);
+             PreparedStatement stmt = connection.prepareStatement(DELETE_PLAYLIST_SONG)) {
+            for (int songId : songIds) {
+                if (present.remove(songId)) {
+                    totalsStmt.setInt(1, songId);
+                    totalsStmt.setInt(2, playlistId);
+                    totalsStmt.addBatch();
+                    stmt.setInt(1, playlistId);
+                    stmt.setInt(2, songId);
+                    stmt.addBatch();
+                }
+            }
+            totalsStmt.executeBatch();
+            stmt.executeBatch();
+        }
+    }
+
+    /** Appends the songs not in {@code present}, in order, {@link #POSITION_GAP} apart after the last. */
+    private void appendSongs(Connection connection, int playlistId, List<Integer> songIds, Set<Integer> present)
+            throws SQLException {
+        if (songIds == null || songIds.isEmpty()) {
+            return;
+        }
+        long position;
+        try (PreparedStatement stmt = connection.prepareStatement(SELECT_MAX_POSITION)) {
+            stmt.setInt(1, playlistId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                position = rs.getLong(1);
+            }
+        }
+        try (PreparedStatement totalsStmt = connection.prepareStatement(ADD_SONG_TO_TOTALS);
+             PreparedStatement stmt = connection.prepareStatement(INSERT_PLAYLIST_SONG)) {
+            for (int songId : songIds) {
+                if (present.add(songId)) {
+                    // Counts the song only if it exists, just as the insert only adds it then
+                    totalsStmt.setInt(1, songId);
+                    totalsStmt.setInt(2, playlistId);
+                    totalsStmt.setInt(3, songId);
+                    totalsStmt.addBatch();
+                    position += POSITION_GAP;
+                    stmt.setInt(1, playlistId);
+                    stmt.setLong(2, position);
+                    stmt.setInt(3, songId);
+                    stmt.addBatch();
+                }
+            }
+            totalsStmt.executeBatch();
+            stmt.executeBatch();
         }
     }
 
-    public boolean removeSongFromPlaylist(int playlistId, int songId) {
-        String sql = "DELETE FROM playlist_songs WHERE playlist_id = ? AND song_id = ?";
+    private void executeForPlaylist(Connection connection, String sql, int playlistId) throws SQLException {
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, playlistId);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Moves a song to just after {@code afterSongId}, or to the start when that is null. Only the
+     * moved song's row is written, unless the keys around its new place have run out of room.
+     * Returns false if either song is not in the playlist, or the playlist is not the user's.
+     */
+    public boolean moveSongInPlaylist(int playlistId, int userId, int songId, Integer afterSongId) {
+        long start = System.nanoTime();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try (Connection connection = dataSource.getConnection()) {
+                    // Left uncommitted on any failure; the pool rolls it back when the connection is returned
+                    connection.setAutoCommit(false);
+                    // Checks ownership, and keeps every key read below valid until the commit:
+                    // a compaction waits for this lock
+                    if (!lockOwnedPlaylist(connection, playlistId, userId)
+                            || !moveSong(connection, playlistId, songId, afterSongId)) {
+                        return false;
+                    }
+                    connection.commit();
+                    versions.changed(playlistId);
+                    return true;
+                } catch (SQLException e) {
+                    if (attempt < MAX_ATTEMPTS && isPositionConflict(e)) {
+                        continue;
+                    }
+                    System.out.println("Error while moving song in playlist: " + e.getMessage());
+                    return false;
+                }
+            }
+        } finally {
+            MOVE_SONG_IN_PLAYLIST_TIMER.recordSince(start);
+        }
+    }
+
+    private boolean moveSong(Connection connection, int playlistId, int songId, Integer afterSongId)
+            throws SQLException {
+        Long current = findPosition(connection, playlistId, songId);
+        if (current == null) {
+            return false;
+        }
+        long previous = 0;
+        if (afterSongId != null) {
+            Long after = findPosition(connection, playlistId, afterSongId);
+            if (after == null) {
+                return false;
+            }
+            previous = after;
+        }
+        Long next = findFirstPositionAfter(connection, playlistId, previous, songId);
+        if (current > previous && (next == null || current < next)) {
+            return true; // already there
+        }
+        if (next != null && next - previous < 2) {
+            // No key left between the neighbours: renumber now, then look again
+            renumberPositions(connection, playlistId);
+            if (afterSongId != null) {
+                Long after = findPosition(connection, playlistId, afterSongId);
+                if (after == null) {
+                    return false;
+                }
+                previous = after;
+            }
+            next = findFirstPositionAfter(connection, playlistId, previous, songId);
+        }
+
+        long position = next == null ? previous + POSITION_GAP : previous + (next - previous) / 2;
+        try (PreparedStatement stmt = connection.prepareStatement(UPDATE_SONG_POSITION)) {
+            stmt.setLong(1, position);
+            stmt.setInt(2, playlistId);
+            stmt.setInt(3, songId);
+            if (stmt.executeUpdate() == 0) {
+                return false;
+            }
+        }
+        if (position - previous < MIN_POSITION_GAP || (next != null && next - position < MIN_POSITION_GAP)) {
+            scheduleCompaction(playlistId);
+        }
+        return true;
+    }
+
+    private Long findPosition(Connection connection, int playlistId, int songId) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(SELECT_SONG_POSITION)) {
             stmt.setInt(1, playlistId);
             stmt.setInt(2, songId);
-            int rows = stmt.executeUpdate();
-            return rows > 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : null;
+            }
+        }
+    }
+
+    /** The smallest key above {@code position}, not counting {@code excludedSongId}'s; null if none. */
+    private Long findFirstPositionAfter(Connection connection, int playlistId, long position, int excludedSongId)
+            throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(SELECT_FIRST_POSITION_AFTER)) {
+            stmt.setInt(1, playlistId);
+            stmt.setLong(2, position);
+            stmt.setInt(3, excludedSongId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    long next = rs.getLong(1);
+                    return rs.wasNull() ? null : next;
+                }
+                return null;
+            }
+        }
+    }
+
+    /** Renumbers the playlist's keys {@link #POSITION_GAP} apart, keeping the order, in one transaction. */
+    private void compactPositions(Connection connection, int playlistId) throws SQLException {
+        long start = System.nanoTime();
+        // Left uncommitted on any failure; the pool rolls it back when the connection is returned
+        connection.setAutoCommit(false);
+        try {
+            // The lock every move takes first; a deleted playlist has nothing to renumber
+            try (PreparedStatement stmt = connection.prepareStatement(LOCK_PLAYLIST)) {
+                stmt.setInt(1, playlistId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return;
+                    }
+                }
+            }
+            renumberPositions(connection, playlistId);
+            connection.commit();
+        } finally {
+            COMPACT_POSITIONS_TIMER.recordSince(start);
+        }
+    }
+
+    /** The renumbering itself, inside the caller's transaction, which must hold the playlist row lock. */
+    private void renumberPositions(Connection connection, int playlistId) throws SQLException {
+        List<Integer> rowIds = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(SELECT_PLAYLIST_ORDER)) {
+            stmt.setInt(1, playlistId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    rowIds.add(rs.getInt(1));
+                }
+            }
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(PARK_ROW_POSITION)) {
+            for (int rowId : rowIds) {
+                stmt.setInt(1, rowId);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(UPDATE_ROW_POSITION)) {
+            long position = 0;
+            for (int rowId : rowIds) {
+                position += POSITION_GAP;
+                stmt.setLong(1, position);
+                stmt.setInt(2, rowId);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    /** Queues a renumbering of the playlist, unless one is already queued or the queue is full. */
+    private void scheduleCompaction(int playlistId) {
+        if (!compactionsPending.add(playlistId)) {
+            return;
+        }
+        try {
+            compactor.execute(() -> {
+                compactionsPending.remove(playlistId);
+                try (Connection connection = dataSource.getConnection()) {
+                    compactPositions(connection, playlistId);
+                } catch (SQLException e) {
+                    // The next tight move schedules it again
+                    System.out.println("Error while compacting playlist " + playlistId + ": " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            compactionsPending.remove(playlistId);
+        }
+    }
+
+    /** A deadlock, or another append or move that took the same position key first. */
+    private static boolean isPositionConflict(SQLException e) {
+        String state = e.getSQLState();
+        if (SQLSTATE_DEADLOCK.equals(state)) {
+            return true;
+        }
+        return state != null && state.startsWith(SQLSTATE_INTEGRITY_CLASS) && e.getMessage() != null
+                && e.getMessage().toLowerCase().contains(POSITION_INDEX);
+    }
+
+    public boolean removeSongFromPlaylist(int playlistId, int userId, int songId) {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            // Left uncommitted on any failure; the pool rolls it back when the connection is returned
+            connection.setAutoCommit(false);
+            try (PreparedStatement totalsStmt = connection.prepareStatement(SUBTRACT_FROM_TOTALS);
+                 PreparedStatement stmt = connection.prepareStatement(DELETE_PLAYLIST_SONG)) {
+                totalsStmt.setInt(1, songId);
+                totalsStmt.setInt(2, playlistId);
+                totalsStmt.setInt(3, userId);
+                totalsStmt.setInt(4, playlistId);
+                totalsStmt.setInt(5, songId);
+                if (totalsStmt.executeUpdate() == 0) {
+                    return false;
+                }
+                stmt.setInt(1, playlistId);
+                stmt.setInt(2, songId);
+                if (stmt.executeUpdate() == 0) {
+                    return false;
+                }
+            }
+            connection.commit();
+            versions.changed(playlistId);
+            return true;
         } catch (SQLException e) {
             System.out.println("Error while removing song from playlist: " + e.getMessage());
             return false;
+        } finally {
+            REMOVE_SONG_FROM_PLAYLIST_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Recomputes the song count and total duration of every playlist whose stored values are wrong,
+     * a chunk of playlists per statement. Returns how many were fixed.
+     */
+    public int repairPlaylistTotals() throws SQLException {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            int first;
+            int last;
+            try (PreparedStatement stmt = connection.prepareStatement(SELECT_PLAYLIST_ID_RANGE);
+                 ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                first = rs.getInt(1);
+                last = rs.getInt(2);
+                if (rs.wasNull()) {
+                    return 0;
+                }
+            }
+            int repaired = 0;
+            try (PreparedStatement stmt = connection.prepareStatement(REPAIR_TOTALS)) {
+                for (long from = first; from <= last; from += REPAIR_CHUNK_SIZE) {
+                    stmt.setLong(1, from);
+                    stmt.setLong(2, from + REPAIR_CHUNK_SIZE);
+                    repaired += stmt.executeUpdate();
+                }
+            }
+            if (repaired > 0) {
+                versions.changedAll();
+            }
+            return repaired;
+        } finally {
+            REPAIR_PLAYLIST_TOTALS_TIMER.recordSince(start);
         }
     }
 
@@ -178,6 +749,7 @@ public class PlaylistDao {
         playlist.setCreatedAt(rs.getTimestamp("created_at"));
         playlist.setUpdatedAt(rs.getTimestamp("updated_at"));
         playlist.setSongCount(rs.getInt("song_count"));
+        playlist.setTotalDurationSeconds(rs.getLong("total_duration_seconds"));
         return playlist;
     }
 }
@@ -0,0 +1,63 @@
+package com.example.musiclibrary.dao;
+
+import com.example.musiclibrary.model.Song;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A version number for each playlist that changes whenever what {@code GET /api/playlists/{id}}
+ * returns may have changed, known without asking the database.
+ *
+ * {@link PlaylistDao} calls {@link #changed(int)} after committing any edit of a playlist. Song
+ * inserts, updates and deletes can change many playlists at once, so they move every playlist to
+ * a new version instead. Versions live in a fixed table of slots indexed by playlist id: two
+ * playlists sharing a slot only make each other's versions change more often than needed, never
+ * less. Versions start again when the server restarts, so {@link #etag} also carries the start time.
+ */
+public class PlaylistVersions implements SongChangeListener {
+    private static final int SLOTS = 1 << 16;
+
+    private final long epoch = System.currentTimeMillis();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLongArray stamps = new AtomicLongArray(SLOTS);
+    private final AtomicLong everythingChangedAt = new AtomicLong();
+
+    /**
+     * The playlist's current version. Read it before loading the playlist: data loaded after the
+     * read is at least as new as the version, so it is always safe to cache under it.
+     */
+    public long get(int playlistId) {
+        return Math.max(stamps.get(slot(playlistId)), everythingChangedAt.get());
+    }
+
+    /** Call after committing a change to the playlist. */
+    public void changed(int playlistId) {
+        // max: two racing changes must leave the newer version, never the older one
+        stamps.accumulateAndGet(slot(playlistId), clock.incrementAndGet(), Math::max);
+    }
+
+    /** Call after committing a change that may touch any playlist. */
+    public void changedAll() {
+        everythingChangedAt.accumulateAndGet(clock.incrementAndGet(), Math::max);
+    }
+
+    /** Strong entity tag for one version of one playlist. */
+    public String etag(int playlistId, long version) {
+        return "\"p" + Long.toHexString(epoch) + "-" + Integer.toHexString(playlistId) + "-" + Long.toHexString(version) + "\"";
+    }
+
+    @Override
+    public void songAdded(Song song) {
+        // A new song is in no playlist yet; an updated one is also reported as deleted
+    }
+
+    @Override
+    public void songDeleted(int songId) {
+        changedAll();
+    }
+
+    private static int slot(int playlistId) {
+        return playlistId & (SLOTS - 1);
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.musiclibrary.dao;
+
+import com.example.musiclibrary.model.Song;
+
+/**
+ * Notified by {@link SongDao} after a song row has been inserted or deleted,
+ * so in-memory structures built from the songs table can stay current.
+ */
+public interface SongChangeListener {
+
+    /** Called after a successful insert; {@code song.getId()} holds the generated id. */
+    void songAdded(Song song);
+
+    void songDeleted(int songId);
+}
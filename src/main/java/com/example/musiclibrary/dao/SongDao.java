@@ -1,202 +1,811 @@
 package com.example.musiclibrary.dao;
 
+import com.example.musiclibrary.metrics.LatencyHistogram;
+import com.example.musiclibrary.metrics.Metrics;
+import com.example.musiclibrary.model.SeekTable;
 import com.example.musiclibrary.model.Song;
 
+import javax.sql.DataSource;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * Song queries and inserts. One instance is created at startup and shared by every request:
+ * it holds no per-request state, and each method borrows a pooled connection for just as long
+ * as it needs one. The SQL is constant so the driver's per-connection statement cache can reuse
+ * the parsed statements.
+ */
 public class SongDao {
 
-    private final Connection connection;
+    private static final int STREAM_BATCH_SIZE = 500;
+    private static final int MAX_DELETE_ATTEMPTS = 3;
+    private static final String SQLSTATE_DEADLOCK = "40001";
 
-    public SongDao(Connection connection) {
-        this.connection = connection;
-        ensureAudioFilePathColumn();
+    /** Artist and album ids cached per map; beyond this, new names are looked up every time. */
+    private static final int MAX_CACHED_IDS = 100_000;
+
+    /** Names per artist/album id lookup in {@link #addSongs}; short lists are padded so the SQL never changes. */
+    private static final int LOOKUP_BATCH_SIZE = 100;
+
+    private static final String SELECT_SONGS =
+            "SELECT s.id, s.title, a.name AS artist_name, al.name AS album_name, s.duration_seconds, s.audio_file_path " +
+            "FROM songs s " +
+            "JOIN artists a ON s.artist_id = a.id " +
+            "JOIN albums al ON s.album_id = al.id ";
+    private static final String SELECT_ALL_SONGS = SELECT_SONGS + "ORDER BY s.title";
+    private static final String SELECT_FIRST_PAGE = SELECT_SONGS + "ORDER BY s.title, s.id LIMIT ?";
+    private static final String SELECT_PAGE_AFTER = SELECT_SONGS +
+            "WHERE s.title >= ? AND (s.title > ? OR s.id > ?) " +
+            "ORDER BY s.title, s.id LIMIT ?";
+    private static final String SEARCH_SONGS_BY_TITLE = SELECT_SONGS + "WHERE LOWER(s.title) LIKE ? ORDER BY s.title";
+    private static final String SELECT_SONG_BY_ID = SELECT_SONGS + "WHERE s.id = ?";
+    private static final String INSERT_SONG =
+            "INSERT INTO songs (title, artist_id, album_id, duration_seconds) VALUES (?, ?, ?, ?)";
+    private static final String INSERT_SONG_WITH_FILE =
+            "INSERT INTO songs (title, artist_id, album_id, duration_seconds, audio_file_path, file_size, file_modified) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_SONG_FROM_FILE =
+            "UPDATE songs SET title = ?, artist_id = ?, album_id = ?, duration_seconds = ?, audio_file_path = ?, " +
+            "file_size = ?, file_modified = ? WHERE id = ?";
+    private static final String SELECT_FILE_STAMPS =
+            "SELECT id, audio_file_path, file_size, file_modified FROM songs WHERE audio_file_path IS NOT NULL";
+    private static final String DELETE_SONG = "DELETE FROM songs WHERE id = ?";
+    // Takes the song out of the totals of every playlist holding it, before its playlist_songs rows
+    // cascade away; a deleted song does not count as an edit of those playlists
+    private static final String SUBTRACT_FROM_PLAYLIST_TOTALS =
+            "UPDATE playlists SET song_count = song_count - 1, " +
+            "total_duration_seconds = total_duration_seconds - (SELECT COALESCE(MAX(duration_seconds), 0) FROM songs WHERE id = ?), " +
+            "updated_at = updated_at " +
+            "WHERE id IN (SELECT playlist_id FROM playlist_songs WHERE song_id = ?)";
+    // Moves the totals of every playlist holding the song by its change in duration. Run before the
+    // songs row is rewritten, while the old duration is still there to subtract
+    private static final String ADJUST_PLAYLIST_DURATIONS =
+            "UPDATE playlists SET total_duration_seconds = total_duration_seconds + ? - " +
+            "(SELECT COALESCE(MAX(duration_seconds), 0) FROM songs WHERE id = ?), updated_at = updated_at " +
+            "WHERE id IN (SELECT playlist_id FROM playlist_songs WHERE song_id = ?)";
+    private static final String SELECT_SEEK_TABLE =
+            "SELECT frames_per_entry, samples_per_frame, sample_rate, frame_count, offsets FROM song_seek_tables " +
+            "WHERE song_id = ? AND file_size = ? AND file_modified = ?";
+    private static final String DELETE_SEEK_TABLE = "DELETE FROM song_seek_tables WHERE song_id = ?";
+    private static final String INSERT_SEEK_TABLE =
+            "INSERT INTO song_seek_tables (song_id, file_size, file_modified, frames_per_entry, samples_per_frame, " +
+            "sample_rate, frame_count, offsets) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    // On a duplicate name, LAST_INSERT_ID(id) makes MySQL report the existing row's id as the generated key
+    private static final String UPSERT_ARTIST =
+            "INSERT INTO artists (name) VALUES (?) ON DUPLICATE KEY UPDATE id = LAST_INSERT_ID(id)";
+    private static final String UPSERT_ALBUM =
+            "INSERT INTO albums (name, artist_id) VALUES (?, ?) ON DUPLICATE KEY UPDATE id = LAST_INSERT_ID(id)";
+    private static final String SELECT_ARTIST_ID = "SELECT id FROM artists WHERE name = ?";
+    private static final String SELECT_ALBUM_ID = "SELECT id FROM albums WHERE name = ? AND artist_id = ?";
+    private static final String SELECT_ARTIST_IDS =
+            "SELECT id, name FROM artists WHERE name IN (" + placeholders(LOOKUP_BATCH_SIZE, "?") + ")";
+    private static final String SELECT_ALBUM_IDS =
+            "SELECT id, artist_id, name FROM albums WHERE (artist_id, name) IN (" + placeholders(LOOKUP_BATCH_SIZE, "(?, ?)") + ")";
+
+    /** Receives songs one at a time from {@link #forEachSong(SongHandler)}. */
+    public interface SongHandler {
+        void handle(Song song) throws IOException;
+    }
+
+    /** Told about each song {@link #addSongs(List, RowErrorHandler)} could not insert, by index in the chunk. */
+    public interface RowErrorHandler {
+        void rowFailed(int index, String message);
+    }
+
+    private static final List<SongChangeListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    // Per-method latency, exported through /api/metrics
+    private static final LatencyHistogram GET_ALL_SONGS_TIMER = Metrics.daoTimer("SongDao", "getAllSongs");
+    private static final LatencyHistogram GET_SONGS_PAGE_TIMER = Metrics.daoTimer("SongDao", "getSongsPage");
+    private static final LatencyHistogram FOR_EACH_SONG_TIMER = Metrics.daoTimer("SongDao", "forEachSong");
+    private static final LatencyHistogram SEARCH_SONGS_BY_TITLE_TIMER = Metrics.daoTimer("SongDao", "searchSongsByTitle");
+    private static final LatencyHistogram ADD_SONG_TIMER = Metrics.daoTimer("SongDao", "addSong");
+    private static final LatencyHistogram ADD_SONG_WITH_FILE_TIMER = Metrics.daoTimer("SongDao", "addSongWithFile");
+    private static final LatencyHistogram ADD_SONGS_TIMER = Metrics.daoTimer("SongDao", "addSongs");
+    private static final LatencyHistogram UPDATE_SONGS_TIMER = Metrics.daoTimer("SongDao", "updateSongs");
+    private static final LatencyHistogram GET_FILE_STAMPS_TIMER = Metrics.daoTimer("SongDao", "getFileStamps");
+    private static final LatencyHistogram GET_SEEK_TABLE_TIMER = Metrics.daoTimer("SongDao", "getSeekTable");
+    private static final LatencyHistogram SAVE_SEEK_TABLE_TIMER = Metrics.daoTimer("SongDao", "saveSeekTable");
+    private static final LatencyHistogram GET_SONG_BY_ID_TIMER = Metrics.daoTimer("SongDao", "getSongById");
+    private static final LatencyHistogram DELETE_SONG_TIMER = Metrics.daoTimer("SongDao", "deleteSong");
+
+    private final DataSource dataSource;
+
+    // Artists and albums are never deleted by the application, so ids stay valid once committed
+    private final ConcurrentMap<String, Integer> artistIds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Integer> albumIds = new ConcurrentHashMap<>();
+
+    public SongDao(DataSource dataSource) {
+        this.dataSource = dataSource;
     }
 
-    private void ensureAudioFilePathColumn() {
+    /** Registers a listener for inserts and deletes made through any SongDao. */
+    public static void addChangeListener(SongChangeListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    public List<Song> getAllSongs() {
+        long start = System.nanoTime();
         try {
-            String checkSql = "SELECT COUNT(*) AS cnt FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'songs' AND COLUMN_NAME = 'audio_file_path'";
-            try (PreparedStatement stmt = connection.prepareStatement(checkSql);
+            List<Song> songs = new ArrayList<>();
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(SELECT_ALL_SONGS);
                  ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    int cnt = rs.getInt("cnt");
-                    if (cnt == 0) {
-                        String alter = "ALTER TABLE songs ADD COLUMN audio_file_path VARCHAR(500)";
-                        try (PreparedStatement alterStmt = connection.prepareStatement(alter)) {
-                            alterStmt.executeUpdate();
-                        }
-                    }
+
+                while (rs.next()) {
+                    songs.add(mapRowToSong(rs));
                 }
+            } catch (SQLException e) {
+                System.out.println("Error while fetching songs: " + e.getMessage());
             }
+            return songs;
+        } finally {
+            GET_ALL_SONGS_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * One page of songs in (title, id) order, starting strictly after the given cursor.
+     * Pass {@code afterTitle == null} for the first page. Uses the (title, id) index, so the
+     * cost of a page does not depend on how deep into the catalog it is.
+     */
+    public List<Song> getSongsPage(String afterTitle, int afterId, int limit) {
+        long start = System.nanoTime();
+        try {
+            return readSongsPage(afterTitle, afterId, limit);
         } catch (SQLException e) {
-            System.out.println("Could not ensure audio_file_path column: " + e.getMessage());
+            System.out.println("Error while fetching songs page: " + e.getMessage());
+            return new ArrayList<>();
+        } finally {
+            GET_SONGS_PAGE_TIMER.recordSince(start);
         }
     }
 
-    public List<Song> getAllSongs() {
-        List<Song> songs = new ArrayList<>();
-        String sql = "SELECT s.id, s.title, a.name AS artist_name, al.name AS album_name, s.duration_seconds, s.audio_file_path " +
-                "FROM songs s " +
-                "JOIN artists a ON s.artist_id = a.id " +
-                "JOIN albums al ON s.album_id = al.id " +
-                "ORDER BY s.title";
-        try (PreparedStatement stmt = connection.prepareStatement(sql);
-             ResultSet rs = stmt.executeQuery()) {
-
-            while (rs.next()) {
-                songs.add(mapRowToSong(rs));
+    /**
+     * Hands every song in (title, id) order to the handler without materializing the catalog.
+     * Songs are read in keyset pages, and each page's connection goes back to the pool before the
+     * handler sees its songs, so a slow handler (such as a client reading the catalog over a slow
+     * link) never holds a pooled connection.
+     */
+    public void forEachSong(SongHandler handler) throws SQLException, IOException {
+        long start = System.nanoTime();
+        try {
+            String afterTitle = null;
+            int afterId = 0;
+            while (true) {
+                List<Song> batch = readSongsPage(afterTitle, afterId, STREAM_BATCH_SIZE);
+                for (Song song : batch) {
+                    handler.handle(song);
+                }
+                if (batch.size() < STREAM_BATCH_SIZE) {
+                    return;
+                }
+                Song last = batch.get(batch.size() - 1);
+                afterTitle = last.getTitle();
+                afterId = last.getId();
             }
-        } catch (SQLException e) {
-            System.out.println("Error while fetching songs: " + e.getMessage());
+        } finally {
+            FOR_EACH_SONG_TIMER.recordSince(start);
         }
-        return songs;
     }
 
-    public List<Song> searchSongsByTitle(String titlePart) {
-        List<Song> songs = new ArrayList<>();
-        String sql = "SELECT s.id, s.title, a.name AS artist_name, al.name AS album_name, s.duration_seconds, s.audio_file_path " +
-                "FROM songs s " +
-                "JOIN artists a ON s.artist_id = a.id " +
-                "JOIN albums al ON s.album_id = al.id " +
-                "WHERE LOWER(s.title) LIKE ? " +
-                "ORDER BY s.title";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, "%" + titlePart.toLowerCase() + "%");
+    private List<Song> readSongsPage(String afterTitle, int afterId, int limit) throws SQLException {
+        List<Song> songs = new ArrayList<>(Math.min(limit, STREAM_BATCH_SIZE));
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(afterTitle != null ? SELECT_PAGE_AFTER : SELECT_FIRST_PAGE)) {
+            int index = 1;
+            if (afterTitle != null) {
+                stmt.setString(index++, afterTitle);
+                stmt.setString(index++, afterTitle);
+                stmt.setInt(index++, afterId);
+            }
+            stmt.setInt(index, limit);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
                     songs.add(mapRowToSong(rs));
                 }
             }
-        } catch (SQLException e) {
-            System.out.println("Error while searching songs: " + e.getMessage());
         }
         return songs;
     }
 
+    private static int streamingFetchSize(Connection connection) throws SQLException {
+        // Connector/J only streams rows when the fetch size is Integer.MIN_VALUE;
+        // other drivers treat the fetch size as a plain batch hint.
+        String product = connection.getMetaData().getDatabaseProductName();
+        return product != null && product.toLowerCase().contains("mysql") ? Integer.MIN_VALUE : STREAM_BATCH_SIZE;
+    }
+
+    public List<Song> searchSongsByTitle(String titlePart) {
+        long start = System.nanoTime();
+        try {
+            List<Song> songs = new ArrayList<>();
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(SEARCH_SONGS_BY_TITLE)) {
+                stmt.setString(1, "%" + titlePart.toLowerCase() + "%");
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        songs.add(mapRowToSong(rs));
+                    }
+                }
+            } catch (SQLException e) {
+                System.out.println("Error while searching songs: " + e.getMessage());
+            }
+            return songs;
+        } finally {
+            SEARCH_SONGS_BY_TITLE_TIMER.recordSince(start);
+        }
+    }
+
     public boolean addSong(Song song) {
+        long start = System.nanoTime();
         // For simplicity, we create (or reuse) an artist and album by name.
         try {
-            int artistId = getOrCreateArtist(song.getArtistName());
-            int albumId = getOrCreateAlbum(song.getAlbumName(), artistId);
-
-            String sql = "INSERT INTO songs (title, artist_id, album_id, duration_seconds) VALUES (?, ?, ?, ?)";
-            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                stmt.setString(1, song.getTitle());
-                stmt.setInt(2, artistId);
-                stmt.setInt(3, albumId);
-                stmt.setInt(4, song.getDurationSeconds());
-                int rows = stmt.executeUpdate();
-                return rows > 0;
-            }
+            return insertSong(song, false);
         } catch (SQLException e) {
             System.out.println("Error while adding song: " + e.getMessage());
             return false;
+        } finally {
+            ADD_SONG_TIMER.recordSince(start);
         }
     }
 
     public boolean addSongWithFile(Song song) {
+        long start = System.nanoTime();
         // Add song with audio file path
         try {
-            int artistId = getOrCreateArtist(song.getArtistName());
-            int albumId = getOrCreateAlbum(song.getAlbumName(), artistId);
+            return insertSong(song, true);
+        } catch (SQLException e) {
+            System.out.println("Error while adding song with file: " + e.getMessage());
+            return false;
+        } finally {
+            ADD_SONG_WITH_FILE_TIMER.recordSince(start);
+        }
+    }
 
-            String sql = "INSERT INTO songs (title, artist_id, album_id, duration_seconds, audio_file_path) VALUES (?, ?, ?, ?, ?)";
-            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+    /**
+     * Inserts the song, plus its artist and album if they are new, in one transaction.
+     * With both ids cached this is a single autocommitted INSERT: one round trip, and nothing for
+     * the pool to roll back when the connection is returned.
+     */
+    private boolean insertSong(Song song, boolean withFile) throws SQLException {
+        String artistName = song.getArtistName();
+        String albumName = song.getAlbumName();
+        Integer artistId = artistName != null ? artistIds.get(artistName) : null;
+        Integer albumId = artistId != null ? albumIds.get(albumKey(artistId, albumName)) : null;
+        try (Connection connection = dataSource.getConnection()) {
+            boolean createsNames = albumId == null;
+            if (createsNames) {
+                // Left uncommitted on any failure; the pool rolls it back when the connection is returned
+                connection.setAutoCommit(false);
+                if (artistId == null) {
+                    artistId = getOrCreateArtist(connection, artistName);
+                }
+                albumId = albumIds.get(albumKey(artistId, albumName));
+                if (albumId == null) {
+                    albumId = getOrCreateAlbum(connection, albumName, artistId);
+                }
+            }
+            String albumKey = albumKey(artistId, albumName);
+
+            try (PreparedStatement stmt = connection.prepareStatement(withFile ? INSERT_SONG_WITH_FILE : INSERT_SONG,
+                    PreparedStatement.RETURN_GENERATED_KEYS)) {
                 stmt.setString(1, song.getTitle());
                 stmt.setInt(2, artistId);
                 stmt.setInt(3, albumId);
                 stmt.setInt(4, song.getDurationSeconds());
-                stmt.setString(5, song.getAudioFilePath());
-                int rows = stmt.executeUpdate();
-                return rows > 0;
+                if (withFile) {
+                    stmt.setString(5, song.getAudioFilePath());
+                    stmt.setObject(6, song.getFileSize(), Types.BIGINT);
+                    stmt.setObject(7, song.getFileModified(), Types.BIGINT);
+                }
+                if (stmt.executeUpdate() == 0) {
+                    return false;
+                }
+                try (ResultSet rs = stmt.getGeneratedKeys()) {
+                    if (rs.next()) {
+                        song.setId(rs.getInt(1));
+                    }
+                }
+            }
+            if (createsNames) {
+                connection.commit();
             }
+
+            // Only committed ids are cached, so a rolled-back artist or album is never reused
+            cacheId(artistIds, artistName, artistId);
+            cacheId(albumIds, albumKey, albumId);
         } catch (SQLException e) {
-            System.out.println("Error while adding song with file: " + e.getMessage());
-            return false;
+            // A cached id may point at a row deleted outside the application; look it up again next time
+            if (artistName != null) {
+                artistIds.remove(artistName);
+            }
+            if (artistId != null) {
+                albumIds.remove(albumKey(artistId, albumName));
+            }
+            throw e;
         }
+
+        for (SongChangeListener listener : LISTENERS) {
+            listener.songAdded(song);
+        }
+        return true;
     }
 
-    public Song getSongById(int songId) {
-        String sql = "SELECT s.id, s.title, a.name AS artist_name, al.name AS album_name, s.duration_seconds, s.audio_file_path " +
-                "FROM songs s " +
-                "JOIN artists a ON s.artist_id = a.id " +
-                "JOIN albums al ON s.album_id = al.id " +
-                "WHERE s.id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+    /**
+     * Inserts a chunk of songs in one transaction using batched statements: the chunk's new artists,
+     * then its new albums, then the songs. If the batch fails it is rolled back and the chunk is
+     * retried one song at a time, so only the bad rows are reported. Returns the number inserted.
+     */
+    public int addSongs(List<Song> songs, RowErrorHandler onError) {
+        long start = System.nanoTime();
+        try {
+            if (songs.isEmpty()) {
+                return 0;
+            }
+            List<Song> inserted = songs;
+            try {
+                writeSongBatch(songs, false);
+            } catch (SQLException e) {
+                System.out.println("Error while adding song batch, retrying one by one: " + e.getMessage());
+                // Through the same batch path, so each good row keeps its seek table
+                inserted = new ArrayList<>();
+                for (int i = 0; i < songs.size(); i++) {
+                    try {
+                        writeSongBatch(Collections.singletonList(songs.get(i)), false);
+                        inserted.add(songs.get(i));
+                    } catch (SQLException rowError) {
+                        onError.rowFailed(i, rowError.getMessage());
+                    }
+                }
+            }
+
+            for (Song song : inserted) {
+                for (SongChangeListener listener : LISTENERS) {
+                    listener.songAdded(song);
+                }
+            }
+            return inserted.size();
+        } finally {
+            ADD_SONGS_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Rewrites the metadata and file stamp of existing songs (matched by id) in one batched
+     * transaction, with the same per-row fallback as {@link #addSongs}. Returns the number updated.
+     */
+    public int updateSongs(List<Song> songs, RowErrorHandler onError) {
+        long start = System.nanoTime();
+        try {
+            if (songs.isEmpty()) {
+                return 0;
+            }
+            List<Song> updated = songs;
+            try {
+                writeSongBatch(songs, true);
+            } catch (SQLException e) {
+                System.out.println("Error while updating song batch, retrying one by one: " + e.getMessage());
+                updated = new ArrayList<>();
+                for (int i = 0; i < songs.size(); i++) {
+                    try {
+                        writeSongBatch(Collections.singletonList(songs.get(i)), true);
+                        updated.add(songs.get(i));
+                    } catch (SQLException rowError) {
+                        onError.rowFailed(i, rowError.getMessage());
+                    }
+                }
+            }
+
+            // Listeners only know adds and deletes; replacing the song refreshes what they hold
+            for (Song song : updated) {
+                for (SongChangeListener listener : LISTENERS) {
+                    listener.songDeleted(song.getId());
+                    listener.songAdded(song);
+                }
+            }
+            return updated.size();
+        } finally {
+            UPDATE_SONGS_TIMER.recordSince(start);
+        }
+    }
+
+    /** Songs that have an audio file, keyed by its path, with only the id and file stamp filled in. */
+    public Map<String, Song> getFileStamps() throws SQLException {
+        long start = System.nanoTime();
+        Map<String, Song> stamps = new HashMap<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(SELECT_FILE_STAMPS,
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(streamingFetchSize(connection));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Song song = new Song();
+                    song.setId(rs.getInt("id"));
+                    song.setAudioFilePath(rs.getString("audio_file_path"));
+                    song.setFileSize(rs.getObject("file_size", Long.class));
+                    song.setFileModified(rs.getObject("file_modified", Long.class));
+                    stamps.put(song.getAudioFilePath(), song);
+                }
+            }
+        } finally {
+            GET_FILE_STAMPS_TIMER.recordSince(start);
+        }
+        return stamps;
+    }
+
+    /** Inserts the songs, or updates them by id, in one transaction with batched statements. */
+    private void writeSongBatch(List<Song> songs, boolean update) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            Map<String, Integer> artists = resolveArtistIds(connection, songs);
+            Map<String, Integer> albums = resolveAlbumIds(connection, songs, artists);
+            if (update) {
+                adjustPlaylistDurations(connection, songs);
+            }
+
+            try (PreparedStatement stmt = update
+                    ? connection.prepareStatement(UPDATE_SONG_FROM_FILE)
+                    : connection.prepareStatement(INSERT_SONG_WITH_FILE, PreparedStatement.RETURN_GENERATED_KEYS)) {
+                for (Song song : songs) {
+                    Integer artistId = artists.get(song.getArtistName());
+                    Integer albumId = artistId != null ? albums.get(albumKey(artistId, song.getAlbumName())) : null;
+                    if (albumId == null) {
+                        throw new SQLException("No artist or album for song: " + song.getTitle());
+                    }
+                    stmt.setString(1, song.getTitle());
+                    stmt.setInt(2, artistId);
+                    stmt.setInt(3, albumId);
+                    stmt.setInt(4, song.getDurationSeconds());
+                    stmt.setString(5, song.getAudioFilePath());
+                    stmt.setObject(6, song.getFileSize(), Types.BIGINT);
+                    stmt.setObject(7, song.getFileModified(), Types.BIGINT);
+                    if (update) {
+                        stmt.setInt(8, song.getId());
+                    }
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                if (!update) {
+                    try (ResultSet rs = stmt.getGeneratedKeys()) {
+                        for (int i = 0; i < songs.size() && rs.next(); i++) {
+                            songs.get(i).setId(rs.getInt(1));
+                        }
+                    }
+                }
+            }
+            writeSeekTables(connection, songs, update);
+            connection.commit();
+
+            for (Map.Entry<String, Integer> artist : artists.entrySet()) {
+                cacheId(artistIds, artist.getKey(), artist.getValue());
+            }
+            for (Map.Entry<String, Integer> album : albums.entrySet()) {
+                cacheId(albumIds, album.getKey(), album.getValue());
+            }
+        }
+    }
+
+    private void adjustPlaylistDurations(Connection connection, List<Song> songs) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(ADJUST_PLAYLIST_DURATIONS)) {
+            for (Song song : songs) {
+                stmt.setInt(1, song.getDurationSeconds());
+                stmt.setInt(2, song.getId());
+                stmt.setInt(3, song.getId());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    /** Artist name -> id for every artist in the chunk, creating the missing ones in one batch. */
+    private Map<String, Integer> resolveArtistIds(Connection connection, List<Song> songs) throws SQLException {
+        Map<String, Integer> ids = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (Song song : songs) {
+            String name = song.getArtistName();
+            if (name == null || ids.containsKey(name)) {
+                continue;
+            }
+            Integer id = artistIds.get(name);
+            if (id != null) {
+                ids.put(name, id);
+            } else {
+                missing.add(name);
+            }
+        }
+        if (missing.isEmpty()) {
+            return ids;
+        }
+
+        try (PreparedStatement stmt = connection.prepareStatement(UPSERT_ARTIST)) {
+            for (String name : missing) {
+                stmt.setString(1, name);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+
+        List<String> names = new ArrayList<>(missing);
+        try (PreparedStatement stmt = connection.prepareStatement(SELECT_ARTIST_IDS)) {
+            for (int from = 0; from < names.size(); from += LOOKUP_BATCH_SIZE) {
+                for (int i = 0; i < LOOKUP_BATCH_SIZE; i++) {
+                    stmt.setString(i + 1, names.get(Math.min(from + i, names.size() - 1)));
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        if (missing.contains(rs.getString("name"))) {
+                            ids.put(rs.getString("name"), rs.getInt("id"));
+                        }
+                    }
+                }
+            }
+        }
+        // The column's collation may match a differently spelled existing name; ask for those one by one
+        for (String name : names) {
+            if (!ids.containsKey(name)) {
+                ids.put(name, getOrCreateArtist(connection, name));
+            }
+        }
+        return ids;
+    }
+
+    /** albumKey -> id for every album in the chunk, creating the missing ones in one batch. */
+    private Map<String, Integer> resolveAlbumIds(Connection connection, List<Song> songs,
+                                                 Map<String, Integer> artists) throws SQLException {
+        Map<String, Integer> ids = new HashMap<>();
+        Map<String, Song> missing = new HashMap<>();
+        for (Song song : songs) {
+            Integer artistId = artists.get(song.getArtistName());
+            if (artistId == null || song.getAlbumName() == null) {
+                continue;
+            }
+            String key = albumKey(artistId, song.getAlbumName());
+            if (ids.containsKey(key) || missing.containsKey(key)) {
+                continue;
+            }
+            Integer id = albumIds.get(key);
+            if (id != null) {
+                ids.put(key, id);
+            } else {
+                missing.put(key, song);
+            }
+        }
+        if (missing.isEmpty()) {
+            return ids;
+        }
+
+        try (PreparedStatement stmt = connection.prepareStatement(UPSERT_ALBUM)) {
+            for (Song song : missing.values()) {
+                stmt.setString(1, song.getAlbumName());
+                stmt.setInt(2, artists.get(song.getArtistName()));
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+
+        List<Song> albumSongs = new ArrayList<>(missing.values());
+        try (PreparedStatement stmt = connection.prepareStatement(SELECT_ALBUM_IDS)) {
+            for (int from = 0; from < albumSongs.size(); from += LOOKUP_BATCH_SIZE) {
+                for (int i = 0; i < LOOKUP_BATCH_SIZE; i++) {
+                    Song song = albumSongs.get(Math.min(from + i, albumSongs.size() - 1));
+                    stmt.setInt(2 * i + 1, artists.get(song.getArtistName()));
+                    stmt.setString(2 * i + 2, song.getAlbumName());
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        String key = albumKey(rs.getInt("artist_id"), rs.getString("name"));
+                        if (missing.containsKey(key)) {
+                            ids.put(key, rs.getInt("id"));
+                        }
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, Song> album : missing.entrySet()) {
+            if (!ids.containsKey(album.getKey())) {
+                Song song = album.getValue();
+                ids.put(album.getKey(), getOrCreateAlbum(connection, song.getAlbumName(),
+                        artists.get(song.getArtistName())));
+            }
+        }
+        return ids;
+    }
+
+    /** The seek table saved for the song, or null if there is none for this size and modification time of its file. */
+    public SeekTable getSeekTable(int songId, long fileSize, long fileModified) {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(SELECT_SEEK_TABLE)) {
             stmt.setInt(1, songId);
+            stmt.setLong(2, fileSize);
+            stmt.setLong(3, fileModified);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    return mapRowToSong(rs);
+                    return new SeekTable(rs.getInt("frames_per_entry"), rs.getInt("samples_per_frame"),
+                            rs.getInt("sample_rate"), rs.getLong("frame_count"),
+                            SeekTable.decodeOffsets(rs.getBytes("offsets")));
                 }
             }
         } catch (SQLException e) {
-            System.out.println("Error while fetching song: " + e.getMessage());
+            System.out.println("Error while fetching seek table: " + e.getMessage());
+        } finally {
+            GET_SEEK_TABLE_TIMER.recordSince(start);
         }
         return null;
     }
 
-    public boolean deleteSong(int songId) {
-        String sql = "DELETE FROM songs WHERE id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setInt(1, songId);
-            int rows = stmt.executeUpdate();
-            return rows > 0;
+    /** Replaces the song's seek table with one computed from the file as it is now. */
+    public boolean saveSeekTable(int songId, long fileSize, long fileModified, SeekTable seekTable) {
+        long start = System.nanoTime();
+        Song song = new Song();
+        song.setId(songId);
+        song.setFileSize(fileSize);
+        song.setFileModified(fileModified);
+        song.setSeekTable(seekTable);
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            writeSeekTables(connection, Collections.singletonList(song), true);
+            connection.commit();
+            return true;
         } catch (SQLException e) {
-            System.out.println("Error while deleting song: " + e.getMessage());
+            System.out.println("Error while saving seek table: " + e.getMessage());
             return false;
+        } finally {
+            SAVE_SEEK_TABLE_TIMER.recordSince(start);
         }
     }
 
-    private int getOrCreateArtist(String name) throws SQLException {
-        String selectSql = "SELECT id FROM artists WHERE name = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(selectSql)) {
-            stmt.setString(1, name);
+    /**
+     * Stores the seek tables carried by the songs, on the caller's transaction. When the songs
+     * already existed their old tables are dropped first, even those with no new one.
+     */
+    private void writeSeekTables(Connection connection, List<Song> songs, boolean replace) throws SQLException {
+        if (replace) {
+            try (PreparedStatement stmt = connection.prepareStatement(DELETE_SEEK_TABLE)) {
+                for (Song song : songs) {
+                    stmt.setInt(1, song.getId());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+        }
+        boolean any = false;
+        try (PreparedStatement stmt = connection.prepareStatement(INSERT_SEEK_TABLE)) {
+            for (Song song : songs) {
+                SeekTable table = song.getSeekTable();
+                if (table == null || song.getFileSize() == null || song.getFileModified() == null) {
+                    continue;
+                }
+                stmt.setInt(1, song.getId());
+                stmt.setLong(2, song.getFileSize());
+                stmt.setLong(3, song.getFileModified());
+                stmt.setInt(4, table.getFramesPerEntry());
+                stmt.setInt(5, table.getSamplesPerFrame());
+                stmt.setInt(6, table.getSampleRate());
+                stmt.setLong(7, table.getFrameCount());
+                stmt.setBytes(8, table.encodeOffsets());
+                stmt.addBatch();
+                any = true;
+            }
+            if (any) {
+                stmt.executeBatch();
+            }
+        }
+    }
+
+    public Song getSongById(int songId) {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(SELECT_SONG_BY_ID)) {
+            stmt.setInt(1, songId);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    return rs.getInt("id");
+                    return mapRowToSong(rs);
                 }
             }
+        } catch (SQLException e) {
+            System.out.println("Error while fetching song: " + e.getMessage());
+        } finally {
+            GET_SONG_BY_ID_TIMER.recordSince(start);
         }
+        return null;
+    }
 
-        String insertSql = "INSERT INTO artists (name) VALUES (?)";
-        try (PreparedStatement stmt = connection.prepareStatement(insertSql, PreparedStatement.RETURN_GENERATED_KEYS)) {
+    /**
+     * Deletes the song and takes it out of the totals of the playlists holding it, in one
+     * transaction. Returns false if there is no such song. A deadlock with a concurrent playlist
+     * edit is retried; any other failure is thrown.
+     */
+    public boolean deleteSong(int songId) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try (Connection connection = dataSource.getConnection();
+                     PreparedStatement totalsStmt = connection.prepareStatement(SUBTRACT_FROM_PLAYLIST_TOTALS);
+                     PreparedStatement stmt = connection.prepareStatement(DELETE_SONG)) {
+                    // Left uncommitted on any failure; the pool rolls it back when the connection is returned
+                    connection.setAutoCommit(false);
+                    totalsStmt.setInt(1, songId);
+                    totalsStmt.setInt(2, songId);
+                    totalsStmt.executeUpdate();
+                    stmt.setInt(1, songId);
+                    int rows = stmt.executeUpdate();
+                    connection.commit();
+                    if (rows > 0) {
+                        for (SongChangeListener listener : LISTENERS) {
+                            listener.songDeleted(songId);
+                        }
+                    }
+                    return rows > 0;
+                } catch (SQLException e) {
+                    if (attempt < MAX_DELETE_ATTEMPTS && SQLSTATE_DEADLOCK.equals(e.getSQLState())) {
+                        continue;
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            DELETE_SONG_TIMER.recordSince(start);
+        }
+    }
+
+    private int getOrCreateArtist(Connection connection, String name) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(UPSERT_ARTIST, PreparedStatement.RETURN_GENERATED_KEYS)) {
             stmt.setString(1, name);
             stmt.executeUpdate();
             try (ResultSet rs = stmt.getGeneratedKeys()) {
                 if (rs.next()) {
                     return rs.getInt(1);
-                } else {
-                    throw new SQLException("Failed to get generated artist ID.");
                 }
             }
         }
-    }
 
-    private int getOrCreateAlbum(String name, int artistId) throws SQLException {
-        String selectSql = "SELECT id FROM albums WHERE name = ? AND artist_id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(selectSql)) {
+        // Drivers other than MySQL report no key when the row already existed
+        try (PreparedStatement stmt = connection.prepareStatement(SELECT_ARTIST_ID)) {
             stmt.setString(1, name);
-            stmt.setInt(2, artistId);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
                     return rs.getInt("id");
+                } else {
+                    throw new SQLException("Failed to get generated artist ID.");
                 }
             }
         }
+    }
 
-        String insertSql = "INSERT INTO albums (name, artist_id) VALUES (?, ?)";
-        try (PreparedStatement stmt = connection.prepareStatement(insertSql, PreparedStatement.RETURN_GENERATED_KEYS)) {
+    private int getOrCreateAlbum(Connection connection, String name, int artistId) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(UPSERT_ALBUM, PreparedStatement.RETURN_GENERATED_KEYS)) {
             stmt.setString(1, name);
             stmt.setInt(2, artistId);
             stmt.executeUpdate();
             try (ResultSet rs = stmt.getGeneratedKeys()) {
                 if (rs.next()) {
                     return rs.getInt(1);
+                }
+            }
+        }
+
+        try (PreparedStatement stmt = connection.prepareStatement(SELECT_ALBUM_ID)) {
+            stmt.setString(1, name);
+            stmt.setInt(2, artistId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt("id");
                 } else {
                     throw new SQLException("Failed to get generated album ID.");
                 }
@@ -204,9 +813,34 @@ public class SongDao {
         }
     }
 
-    private Song mapRowToSong(ResultSet rs) throws SQLException {
+    /** {@code count} copies of {@code placeholder}, comma separated. */
+    private static String placeholders(int count, String placeholder) {
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sql.append(i == 0 ? "" : ", ").append(placeholder);
+        }
+        return sql.toString();
+    }
+
+    private static String albumKey(int artistId, String albumName) {
+        return artistId + "/" + albumName;
+    }
+
+    private static void cacheId(ConcurrentMap<String, Integer> ids, String key, int id) {
+        if (key != null && ids.size() < MAX_CACHED_IDS) {
+            ids.put(key, id);
+        }
+    }
+
+    // Package-private so the benchmarks module can measure row mapping on its own
+    static Song mapRowToSong(ResultSet rs) throws SQLException {
+        return mapRowToSong(rs, "id");
+    }
+
+    /** For rows where the song's id comes under another name, e.g. beside a playlist's own id. */
+    static Song mapRowToSong(ResultSet rs, String idColumn) throws SQLException {
         Song song = new Song();
-        song.setId(rs.getInt("id"));
+        song.setId(rs.getInt(idColumn));
         song.setTitle(rs.getString("title"));
         song.setArtistName(rs.getString("artist_name"));
         song.setAlbumName(rs.getString("album_name"));
@@ -215,5 +849,3 @@ public class SongDao {
         return song;
     }
 }
-
-
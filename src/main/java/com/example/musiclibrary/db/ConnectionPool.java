@@ -0,0 +1,477 @@
+package com.example.musiclibrary.db;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * A small bounded JDBC connection pool.
+ *
+ * Physical connections are opened once and handed out as proxies; closing the proxy returns
+ * the physical connection to the pool instead of tearing down the TCP session. A fair semaphore
+ * caps the number of borrowed connections at {@code maxSize}, and a background housekeeper evicts
+ * idle connections, keeps {@code minSize} warm and reports connections held past the leak threshold
+ * together with the stack trace of the code that borrowed them.
+ */
+public class ConnectionPool implements DataSource, AutoCloseable {
+
+    /** Connections returned more recently than this are handed out again without a ping. */
+    private static final long VALIDATION_BYPASS_MILLIS = 500;
+
+    private final PoolConfig config;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private final QueryProfiler profiler;
+    private volatile boolean closed;
+
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder acquireTimeoutCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder destroyedCount = new LongAdder();
+    private final LongAdder leakCount = new LongAdder();
+
+    public ConnectionPool(PoolConfig config) {
+        this.config = config;
+        this.permits = new Semaphore(config.getMaxSize(), true);
+        this.profiler = new QueryProfiler(config.isProfilerEnabled(), config.getSlowQueryMillis());
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "db-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the minimum number of connections and starts housekeeping.
+     * Fails fast if the database cannot be reached at all.
+     */
+    public void start() throws SQLException {
+        fillToMinimum();
+        if (totalConnections.get() == 0) {
+            // minSize of zero: still prove the settings work before the server starts
+            idle.offerFirst(createPhysical());
+        }
+        long interval = config.getHousekeepingIntervalMillis();
+        housekeeper.scheduleWithFixedDelay(this::housekeep, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long startNanos = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(config.getAcquireTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                acquireTimeoutCount.increment();
+                throw new SQLTransientConnectionException("Timed out after " + config.getAcquireTimeoutMillis()
+                        + "ms waiting for a database connection (active=" + borrowed.size()
+                        + ", max=" + config.getMaxSize() + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            PooledConnection pooled = takeValidConnection();
+            long waited = System.nanoTime() - startNanos;
+            recordWait(waited);
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrowStack = config.getLeakDetectionThresholdMillis() > 0
+                    ? new Throwable("Connection borrowed here") : null;
+            pooled.leakReported = false;
+            borrowed.add(pooled);
+            return pooled.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pooled connections use the credentials from db.properties");
+    }
+
+    private PooledConnection takeValidConnection() throws SQLException {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - pooled.returnedAt < VALIDATION_BYPASS_MILLIS || isAlive(pooled)) {
+                return pooled;
+            }
+            destroy(pooled);
+        }
+        return createPhysical();
+    }
+
+    private boolean isAlive(PooledConnection pooled) {
+        try {
+            return pooled.physical.isValid(config.getValidationTimeoutSeconds());
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection createPhysical() throws SQLException {
+        totalConnections.incrementAndGet();
+        try {
+            Connection physical = DriverManager.getConnection(config.getUrl(), config.getUser(), config.getPassword());
+            createdCount.increment();
+            return new PooledConnection(physical);
+        } catch (SQLException | RuntimeException e) {
+            totalConnections.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void destroy(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        destroyedCount.increment();
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            // already broken; nothing more to release
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        borrowed.remove(pooled);
+        try {
+            pooled.closeOpenStatements();
+            if (closed || pooled.broken || !resetState(pooled)) {
+                destroy(pooled);
+            } else {
+                pooled.returnedAt = System.currentTimeMillis();
+                idle.offerFirst(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private boolean resetState(PooledConnection pooled) {
+        try {
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            if (pooled.readOnlyChanged) {
+                pooled.physical.setReadOnly(false);
+                pooled.readOnlyChanged = false;
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void recordWait(long nanos) {
+        acquireCount.increment();
+        totalWaitNanos.add(nanos);
+        long currentMax;
+        while (nanos > (currentMax = maxWaitNanos.get())) {
+            if (maxWaitNanos.compareAndSet(currentMax, nanos)) {
+                break;
+            }
+        }
+    }
+
+    private void housekeep() {
+        try {
+            detectLeaks();
+            evictIdle();
+            fillToMinimum();
+        } catch (Exception e) {
+            System.err.println("Connection pool housekeeping failed: " + e.getMessage());
+        }
+    }
+
+    private void detectLeaks() {
+        long threshold = config.getLeakDetectionThresholdMillis();
+        if (threshold <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : borrowed) {
+            if (!pooled.leakReported && now - pooled.borrowedAt > threshold) {
+                pooled.leakReported = true;
+                leakCount.increment();
+                System.err.println("Possible connection leak: connection held for "
+                        + (now - pooled.borrowedAt) + "ms without being closed");
+                if (pooled.borrowStack != null) {
+                    pooled.borrowStack.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledConnection> oldestFirst = idle.descendingIterator();
+        while (oldestFirst.hasNext() && totalConnections.get() > config.getMinSize()) {
+            PooledConnection pooled = oldestFirst.next();
+            if (now - pooled.returnedAt > config.getIdleTimeoutMillis() && idle.remove(pooled)) {
+                destroy(pooled);
+            }
+        }
+    }
+
+    private void fillToMinimum() throws SQLException {
+        while (!closed && totalConnections.get() < config.getMinSize()) {
+            PooledConnection pooled = createPhysical();
+            pooled.returnedAt = System.currentTimeMillis();
+            idle.offerLast(pooled);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+        // Borrowed connections are destroyed as they are returned.
+    }
+
+    // ---- Metrics ----
+
+    /** Per-statement timings for everything run through this pool. */
+    public QueryProfiler getProfiler() {
+        return profiler;
+    }
+
+    public int getActiveConnections() {
+        return borrowed.size();
+    }
+
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    public int getMaxConnections() {
+        return config.getMaxSize();
+    }
+
+    /** Threads currently blocked waiting for a connection. */
+    public int getPendingThreads() {
+        return permits.getQueueLength();
+    }
+
+    public long getAcquireCount() {
+        return acquireCount.sum();
+    }
+
+    public long getAcquireTimeoutCount() {
+        return acquireTimeoutCount.sum();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = acquireCount.sum();
+        return count == 0 ? 0.0 : totalWaitNanos.sum() / (double) count / 1_000_000.0;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    public long getDestroyedCount() {
+        return destroyedCount.sum();
+    }
+
+    public long getLeakCount() {
+        return leakCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConnectionPool{active=%d, idle=%d, total=%d, max=%d, pending=%d, acquired=%d, timeouts=%d, avgWait=%.3fms, maxWait=%.3fms, leaks=%d}",
+                getActiveConnections(), getIdleConnections(), getTotalConnections(), getMaxConnections(),
+                getPendingThreads(), getAcquireCount(), getAcquireTimeoutCount(),
+                getAverageWaitMillis(), getMaxWaitMillis(), getLeakCount());
+    }
+
+    // ---- DataSource boilerplate ----
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        // not used
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        // the pool uses acquireTimeoutMillis instead
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return (int) TimeUnit.MILLISECONDS.toSeconds(config.getAcquireTimeoutMillis());
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /** One physical connection plus the bookkeeping for its current borrower. */
+    private final class PooledConnection {
+        final Connection physical;
+        final List<Statement> openStatements = new ArrayList<>();
+        volatile long borrowedAt;
+        volatile long returnedAt;
+        volatile Throwable borrowStack;
+        volatile boolean leakReported;
+        volatile boolean broken;
+        boolean readOnlyChanged;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Handle(this));
+        }
+
+        void trackStatement(Statement statement) {
+            if (openStatements.size() >= 32) {
+                // long-held connections: forget statements the caller already closed
+                openStatements.removeIf(s -> {
+                    try {
+                        return s.isClosed();
+                    } catch (SQLException e) {
+                        return true;
+                    }
+                });
+            }
+            openStatements.add(statement);
+        }
+
+        void closeOpenStatements() {
+            for (Statement statement : openStatements) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    // the statement is unusable either way
+                }
+            }
+            openStatements.clear();
+        }
+    }
+
+    /** The borrower's view of a pooled connection; closing it returns the connection once. */
+    private final class Handle implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean handleClosed;
+
+        Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (!handleClosed) {
+                        handleClosed = true;
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return handleClosed || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + pooled.physical + "]";
+                default:
+                    break;
+            }
+            if (handleClosed) {
+                throw new SQLException("Connection is closed");
+            }
+            if (name.equals("setReadOnly")) {
+                pooled.readOnlyChanged = true;
+            }
+            try {
+                Object result = method.invoke(pooled.physical, args);
+                if (result instanceof Statement) {
+                    pooled.trackStatement((Statement) result);
+                    if (name.equals("prepareStatement")) {
+                        return profiler.wrap((PreparedStatement) result, (String) args[0]);
+                    }
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    String state = ((SQLException) cause).getSQLState();
+                    if (state != null && state.startsWith("08")) {
+                        // connection-level failure: never hand this connection out again
+                        pooled.broken = true;
+                    }
+                }
+                throw cause;
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.musiclibrary.db;
+
+import java.util.Properties;
+
+/**
+ * Connection pool settings, read once from db.properties.
+ * Every key is optional; the defaults suit a single small server.
+ */
+public class PoolConfig {
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final long idleTimeoutMillis;
+    private final long leakDetectionThresholdMillis;
+    private final long housekeepingIntervalMillis;
+    private final boolean profilerEnabled;
+    private final long slowQueryMillis;
+
+    public PoolConfig(Properties properties) {
+        this.url = properties.getProperty("db.url");
+        this.user = properties.getProperty("db.user");
+        this.password = properties.getProperty("db.password");
+        this.minSize = intProperty(properties, "db.pool.minSize", 2);
+        this.maxSize = Math.max(1, intProperty(properties, "db.pool.maxSize", 10));
+        this.acquireTimeoutMillis = longProperty(properties, "db.pool.acquireTimeoutMillis", 5000);
+        this.validationTimeoutSeconds = intProperty(properties, "db.pool.validationTimeoutSeconds", 2);
+        this.idleTimeoutMillis = longProperty(properties, "db.pool.idleTimeoutMillis", 600000);
+        this.leakDetectionThresholdMillis = longProperty(properties, "db.pool.leakDetectionThresholdMillis", 30000);
+        this.housekeepingIntervalMillis = longProperty(properties, "db.pool.housekeepingIntervalMillis", 30000);
+        this.profilerEnabled = !"false".equalsIgnoreCase(properties.getProperty("db.profiler.enabled", "true").trim());
+        this.slowQueryMillis = longProperty(properties, "db.profiler.slowQueryMillis", 200);
+    }
+
+    private static int intProperty(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid " + key + "=" + value);
+            return defaultValue;
+        }
+    }
+
+    private static long longProperty(Properties properties, String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid " + key + "=" + value);
+            return defaultValue;
+        }
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public int getMinSize() {
+        return Math.min(minSize, maxSize);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getAcquireTimeoutMillis() {
+        return acquireTimeoutMillis;
+    }
+
+    public int getValidationTimeoutSeconds() {
+        return validationTimeoutSeconds;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /** Zero or negative disables leak detection (and the stack capture that goes with it). */
+    public long getLeakDetectionThresholdMillis() {
+        return leakDetectionThresholdMillis;
+    }
+
+    public long getHousekeepingIntervalMillis() {
+        return housekeepingIntervalMillis;
+    }
+
+    /** Whether prepared statements are timed by {@link QueryProfiler}. */
+    public boolean isProfilerEnabled() {
+        return profilerEnabled;
+    }
+
+    /** Statements taking at least this long (execute plus fetch) go to the slow-query log. */
+    public long getSlowQueryMillis() {
+        return slowQueryMillis;
+    }
+}
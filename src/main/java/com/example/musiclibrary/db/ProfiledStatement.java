@@ -0,0 +1,164 @@
+package com.example.musiclibrary.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+
+/**
+ * Wraps one PreparedStatement for {@link QueryProfiler}: remembers bind values, times the execute
+ * call and, for queries, the rows fetched through the returned ResultSet. Each execution is
+ * reported once, when its result set is exhausted or closed.
+ */
+class ProfiledStatement implements InvocationHandler {
+
+    private final QueryProfiler profiler;
+    private final PreparedStatement delegate;
+    private final String sql;
+    private Object[] binds = new Object[8];
+    private int bindCount;
+
+    ProfiledStatement(QueryProfiler profiler, PreparedStatement delegate, String sql) {
+        this.profiler = profiler;
+        this.delegate = delegate;
+        this.sql = sql;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        switch (name) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "Profiled[" + delegate + "]";
+            case "clearParameters":
+                Arrays.fill(binds, null);
+                bindCount = 0;
+                break;
+            default:
+                if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                    bind((Integer) args[0], name.equals("setNull") ? null : args[1]);
+                }
+                break;
+        }
+
+        if (name.equals("executeQuery") && (args == null || args.length == 0)) {
+            long start = System.nanoTime();
+            ResultSet resultSet = (ResultSet) call(method, args);
+            long executeNanos = System.nanoTime() - start;
+            return Proxy.newProxyInstance(QueryProfiler.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                    new ProfiledResultSet(resultSet, Arrays.copyOf(binds, bindCount), bindCount, executeNanos));
+        }
+        if ((name.equals("executeUpdate") || name.equals("executeLargeUpdate") || name.equals("execute")
+                || name.equals("executeBatch")) && (args == null || args.length == 0)) {
+            long start = System.nanoTime();
+            Object result = call(method, args);
+            long executeNanos = System.nanoTime() - start;
+            profiler.record(sql, Arrays.copyOf(binds, bindCount), bindCount, rowsOf(result), executeNanos, 0);
+            return result;
+        }
+        return call(method, args);
+    }
+
+    private Object call(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void bind(int index, Object value) {
+        if (index < 1 || index > 1000) {
+            return;
+        }
+        if (index > binds.length) {
+            binds = Arrays.copyOf(binds, Math.max(index, binds.length * 2));
+        }
+        binds[index - 1] = value;
+        bindCount = Math.max(bindCount, index);
+    }
+
+    private static long rowsOf(Object result) {
+        if (result instanceof Integer) {
+            return Math.max(0, (Integer) result);
+        }
+        if (result instanceof Long) {
+            return Math.max(0, (Long) result);
+        }
+        if (result instanceof int[]) {
+            long rows = 0;
+            for (int count : (int[]) result) {
+                rows += Math.max(0, count);
+            }
+            return rows;
+        }
+        return 0;
+    }
+
+    /** Counts rows and the time spent fetching them; reports when exhausted or closed. */
+    private final class ProfiledResultSet implements InvocationHandler {
+        private final ResultSet delegate;
+        private final Object[] binds;
+        private final int bindCount;
+        private final long executeNanos;
+        private long fetchNanos;
+        private long rows;
+        private boolean reported;
+
+        ProfiledResultSet(ResultSet delegate, Object[] binds, int bindCount, long executeNanos) {
+            this.delegate = delegate;
+            this.binds = binds;
+            this.bindCount = bindCount;
+            this.executeNanos = executeNanos;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "next": {
+                    long start = System.nanoTime();
+                    boolean hasRow = (Boolean) invokeDelegate(method, args);
+                    fetchNanos += System.nanoTime() - start;
+                    if (hasRow) {
+                        rows++;
+                    } else {
+                        report();
+                    }
+                    return hasRow;
+                }
+                case "close":
+                    report();
+                    return invokeDelegate(method, args);
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return invokeDelegate(method, args);
+            }
+        }
+
+        private Object invokeDelegate(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(delegate, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void report() {
+            if (!reported) {
+                reported = true;
+                profiler.record(sql, binds, bindCount, rows, executeNanos, fetchNanos);
+            }
+        }
+    }
+}
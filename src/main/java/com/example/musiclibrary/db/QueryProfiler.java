@@ -0,0 +1,191 @@
+package com.example.musiclibrary.db;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Times every prepared statement run through the pool, aggregated by SQL shape, and logs the ones
+ * slower than the configured threshold as one JSON line each.
+ *
+ * A statement's time is its execute call plus the time spent inside {@code ResultSet.next()},
+ * so streaming callers are not charged for their own work between rows. Bind values are kept
+ * only for the slowest run of each shape, in memory, so that shape can be EXPLAINed later;
+ * they are never logged.
+ */
+public class QueryProfiler {
+
+    /** Shapes beyond this many are not tracked; they still reach the slow-query log. */
+    private static final int MAX_SHAPES = 1000;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+\\b");
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final boolean enabled;
+    private final long slowQueryNanos;
+    private final ConcurrentMap<String, QueryStats> stats = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> shapes = new ConcurrentHashMap<>();
+
+    public QueryProfiler(boolean enabled, long slowQueryMillis) {
+        this.enabled = enabled;
+        this.slowQueryNanos = slowQueryMillis * 1_000_000L;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Returns a statement that reports to this profiler, or the statement itself when profiling is off. */
+    PreparedStatement wrap(PreparedStatement statement, String sql) {
+        if (!enabled) {
+            return statement;
+        }
+        return (PreparedStatement) Proxy.newProxyInstance(QueryProfiler.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new ProfiledStatement(this, statement, sql));
+    }
+
+    void record(String sql, Object[] binds, int bindCount, long rows, long executeNanos, long fetchNanos) {
+        long totalNanos = executeNanos + fetchNanos;
+        String shape = shapeOf(sql);
+        QueryStats entry = stats.get(shape);
+        if (entry == null && stats.size() < MAX_SHAPES) {
+            entry = stats.computeIfAbsent(shape, QueryStats::new);
+        }
+        if (entry != null) {
+            entry.add(sql, binds, bindCount, rows, totalNanos, totalNanos >= slowQueryNanos);
+        }
+        if (totalNanos >= slowQueryNanos) {
+            logSlowQuery(shape, bindCount, rows, executeNanos, fetchNanos);
+        }
+    }
+
+    private void logSlowQuery(String shape, int bindCount, long rows, long executeNanos, long fetchNanos) {
+        System.out.println("SLOW QUERY {\"ts\":\"" + Instant.now() + "\""
+                + ",\"totalMs\":" + millis(executeNanos + fetchNanos)
+                + ",\"executeMs\":" + millis(executeNanos)
+                + ",\"fetchMs\":" + millis(fetchNanos)
+                + ",\"rows\":" + rows
+                + ",\"binds\":" + bindCount
+                + ",\"thread\":\"" + escape(Thread.currentThread().getName()) + "\""
+                + ",\"sql\":\"" + escape(shape) + "\"}");
+    }
+
+    /** Statistics per shape, most expensive (by total time) first. */
+    public List<QueryStats> getTopQueries(int limit) {
+        List<QueryStats> all = new ArrayList<>(stats.values());
+        all.sort(Comparator.comparingLong(QueryStats::getTotalNanos).reversed());
+        return all.size() > limit ? new ArrayList<>(all.subList(0, limit)) : all;
+    }
+
+    public void reset() {
+        stats.clear();
+    }
+
+    /** Whitespace collapsed, literals and IN lists replaced by placeholders. Cached per distinct SQL string. */
+    String shapeOf(String sql) {
+        String shape = shapes.get(sql);
+        if (shape == null) {
+            shape = WHITESPACE.matcher(sql.trim()).replaceAll(" ");
+            shape = STRING_LITERAL.matcher(shape).replaceAll("?");
+            shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+            shape = PLACEHOLDER_LIST.matcher(shape).replaceAll("(?, ...)");
+            if (shapes.size() < MAX_SHAPES * 4) {
+                shapes.put(sql, shape);
+            }
+        }
+        return shape;
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /** Totals for one SQL shape, plus the SQL and binds of its slowest run for EXPLAIN. */
+    public static class QueryStats {
+        private final String shape;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder totalRows = new LongAdder();
+        private final LongAdder slowCount = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private volatile int bindCount;
+        private String sampleSql;
+        private Object[] sampleBinds;
+
+        QueryStats(String shape) {
+            this.shape = shape;
+        }
+
+        void add(String sql, Object[] binds, int bindCount, long rows, long nanos, boolean slow) {
+            count.increment();
+            totalNanos.add(nanos);
+            totalRows.add(rows);
+            if (slow) {
+                slowCount.increment();
+            }
+            this.bindCount = bindCount;
+            long max = maxNanos.get();
+            while (nanos > max) {
+                if (maxNanos.compareAndSet(max, nanos)) {
+                    synchronized (this) {
+                        sampleSql = sql;
+                        sampleBinds = binds;
+                    }
+                    break;
+                }
+                max = maxNanos.get();
+            }
+        }
+
+        public String getShape() {
+            return shape;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        public long getTotalRows() {
+            return totalRows.sum();
+        }
+
+        public long getSlowCount() {
+            return slowCount.sum();
+        }
+
+        public int getBindCount() {
+            return bindCount;
+        }
+
+        public synchronized String getSampleSql() {
+            return sampleSql;
+        }
+
+        public synchronized Object[] getSampleBinds() {
+            return sampleBinds == null ? new Object[0] : sampleBinds.clone();
+        }
+    }
+}
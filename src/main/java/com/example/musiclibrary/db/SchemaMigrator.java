@@ -0,0 +1,205 @@
+package com.example.musiclibrary.db;
+
+import javax.sql.DataSource;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies the numbered scripts in {@code db/migration/} exactly once, in order, and records
+ * each one in the {@code schema_version} table together with a SHA-256 checksum.
+ *
+ * Runs once at startup. A script that was edited after it had been applied fails the run,
+ * so schema drift shows up immediately instead of as a broken query later on.
+ */
+public class SchemaMigrator {
+
+    private static final String MIGRATION_DIR = "/db/migration/";
+
+    /** Scripts in the order they are applied. New migrations are appended, never edited. */
+    private static final String[] MIGRATIONS = {
+            "V1__base_schema.sql",
+            "V2__legacy_columns.sql",
+            "V3__songs_title_index.sql",
+            "V4__song_file_stamps.sql",
+            "V5__song_seek_tables.sql",
+            "V6__playlist_position_keys.sql",
+            "V7__playlist_totals.sql"
+    };
+
+    // "Column already exists" / "index already exists" — lets ALTER scripts adopt databases
+    // that older builds patched on the fly. MySQL reports a duplicate key name as 1061 / 42000.
+    private static final String SQLSTATE_DUPLICATE_COLUMN = "42S21";
+    private static final String SQLSTATE_DUPLICATE_INDEX = "42S11";
+    private static final int MYSQL_DUPLICATE_KEY_NAME = 1061;
+
+    private static final String CREATE_VERSION_TABLE = "CREATE TABLE IF NOT EXISTS schema_version ("
+            + "version INT PRIMARY KEY,"
+            + "script VARCHAR(255) NOT NULL,"
+            + "checksum CHAR(64) NOT NULL,"
+            + "execution_ms INT NOT NULL,"
+            + "installed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP"
+            + ")";
+    private static final String SELECT_APPLIED = "SELECT version, script, checksum FROM schema_version";
+    private static final String INSERT_APPLIED =
+            "INSERT INTO schema_version (version, script, checksum, execution_ms) VALUES (?, ?, ?, ?)";
+
+    private final DataSource dataSource;
+
+    public SchemaMigrator(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Brings the schema up to date.
+     *
+     * @return the number of migrations applied by this run
+     */
+    public int migrate() throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(CREATE_VERSION_TABLE);
+            }
+            Map<Integer, String> applied = loadApplied(conn);
+
+            int count = 0;
+            int latest = 0;
+            for (String script : MIGRATIONS) {
+                int version = versionOf(script);
+                latest = version;
+                String body = readScript(script);
+                String checksum = sha256(body);
+
+                String appliedChecksum = applied.get(version);
+                if (appliedChecksum != null) {
+                    if (!appliedChecksum.equalsIgnoreCase(checksum)) {
+                        throw new SQLException("Migration " + script + " was modified after it was applied "
+                                + "(recorded checksum " + appliedChecksum + ", current " + checksum + ")");
+                    }
+                    continue;
+                }
+
+                long start = System.currentTimeMillis();
+                apply(conn, script, body);
+                int elapsed = (int) (System.currentTimeMillis() - start);
+                try (PreparedStatement stmt = conn.prepareStatement(INSERT_APPLIED)) {
+                    stmt.setInt(1, version);
+                    stmt.setString(2, script);
+                    stmt.setString(3, checksum);
+                    stmt.setInt(4, elapsed);
+                    stmt.executeUpdate();
+                }
+                System.out.println("Applied migration " + script + " (" + elapsed + "ms)");
+                count++;
+            }
+
+            for (Integer version : applied.keySet()) {
+                if (version > latest) {
+                    System.err.println("Warning: database has migration V" + version
+                            + " which this build does not know about");
+                }
+            }
+            return count;
+        }
+    }
+
+    private Map<Integer, String> loadApplied(Connection conn) throws SQLException {
+        Map<Integer, String> applied = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(SELECT_APPLIED);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                applied.put(rs.getInt("version"), rs.getString("checksum"));
+            }
+        }
+        return applied;
+    }
+
+    private void apply(Connection conn, String script, String body) throws SQLException {
+        for (String sql : splitStatements(body)) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(sql);
+            } catch (SQLException e) {
+                if (!isAlreadyApplied(e)) {
+                    throw new SQLException("Migration " + script + " failed: " + e.getMessage(), e.getSQLState(), e);
+                }
+                System.out.println("  " + script + ": skipping, already present (" + e.getMessage() + ")");
+            }
+        }
+    }
+
+    private static boolean isAlreadyApplied(SQLException e) {
+        return SQLSTATE_DUPLICATE_COLUMN.equals(e.getSQLState())
+                || SQLSTATE_DUPLICATE_INDEX.equals(e.getSQLState())
+                || e.getErrorCode() == MYSQL_DUPLICATE_KEY_NAME;
+    }
+
+    /** One statement per {@code ;}-terminated line; full-line {@code --} comments are dropped. */
+    private static List<String> splitStatements(String body) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String line : body.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("--")) {
+                continue;
+            }
+            current.append(line).append('\n');
+            if (trimmed.endsWith(";")) {
+                String sql = current.toString().trim();
+                statements.add(sql.substring(0, sql.length() - 1));
+                current.setLength(0);
+            }
+        }
+        if (current.toString().trim().length() > 0) {
+            statements.add(current.toString().trim());
+        }
+        return statements;
+    }
+
+    private static int versionOf(String script) {
+        return Integer.parseInt(script.substring(1, script.indexOf("__")));
+    }
+
+    private static String readScript(String script) throws SQLException {
+        try (InputStream input = SchemaMigrator.class.getResourceAsStream(MIGRATION_DIR + script)) {
+            if (input == null) {
+                throw new SQLException("Migration script not found on classpath: " + script);
+            }
+            StringBuilder body = new StringBuilder();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    body.append(line).append('\n');
+                }
+            }
+            return body.toString();
+        } catch (IOException e) {
+            throw new SQLException("Failed to read migration " + script + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static String sha256(String body) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(body.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.musiclibrary.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One satisfiable byte range of a representation, with an inclusive end.
+ */
+public final class ByteRange {
+
+    private final long start;
+    private final long end;
+
+    public ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /** Value for the Content-Range header, e.g. {@code bytes 0-499/1234}. */
+    public String toContentRange(long totalLength) {
+        return "bytes " + start + "-" + end + "/" + totalLength;
+    }
+
+    /**
+     * Parses a Range header (RFC 7233) against a representation of the given length.
+     * Supports {@code a-b}, open-ended {@code a-} and suffix {@code -n} specs, comma separated.
+     *
+     * @return {@code null} if there is no header or it is malformed (serve the whole body),
+     *         an empty list if no spec overlaps the body (answer 416), otherwise the ranges
+     *         clamped to the body, in request order
+     */
+    public static List<ByteRange> parse(String header, long totalLength) {
+        if (header == null) {
+            return null;
+        }
+        String value = header.trim();
+        if (!value.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<>();
+        for (String spec : value.substring(6).split(",")) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            try {
+                if (first.isEmpty()) {
+                    // suffix range: the final N bytes
+                    if (last.isEmpty()) {
+                        return null;
+                    }
+                    long suffix = Long.parseLong(last);
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    if (suffix > 0 && totalLength > 0) {
+                        ranges.add(new ByteRange(Math.max(0, totalLength - suffix), totalLength - 1));
+                    }
+                } else {
+                    long start = Long.parseLong(first);
+                    long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+                    if (start < totalLength) {
+                        ranges.add(new ByteRange(start, Math.min(end, totalLength - 1)));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ranges.isEmpty() ? Collections.<ByteRange>emptyList() : ranges;
+    }
+}
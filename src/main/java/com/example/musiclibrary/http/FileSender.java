@@ -0,0 +1,185 @@
+package com.example.musiclibrary.http;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.server.HttpOutput;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Delivers files from disk: conditional requests, single and multiple byte ranges, and a body
+ * that never passes through a heap buffer.
+ *
+ * Under Jetty each region is read into a direct buffer borrowed from the connector's buffer pool
+ * and handed to {@link HttpOutput#write(ByteBuffer)}, which writes it straight to the socket. Nothing
+ * is memory-mapped, so concurrent seeks hold no mappings waiting for the GC, and a file truncated
+ * mid-send just ends the body early. Other containers fall back to {@link FileChannel#transferTo}.
+ */
+public final class FileSender {
+
+    /** Bytes read from the file per socket write. */
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+    /** Requests for more ranges than this get the whole file rather than a huge multipart body. */
+    private static final int MAX_RANGES = 16;
+
+    private static final String BOUNDARY_CHARS = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+    private FileSender() {
+    }
+
+    /**
+     * Answers a GET for a file: 304 when the client copy is current, 206 for one range,
+     * 206 multipart/byteranges for several, 416 when no range fits, otherwise 200.
+     * Callers set Cache-Control and any other headers of their own first.
+     *
+     * @return the number of body bytes written
+     *
+     * @throws java.nio.file.NoSuchFileException if the file is gone; nothing has been written yet
+     *         apart from validator headers, so the caller can still reset the response
+     */
+    public static long serve(HttpServletRequest request, HttpServletResponse response, Path path,
+                             long fileSize, long lastModified, String contentType) throws IOException {
+        return serve(request, response, path, 0, fileSize, lastModified, contentType);
+    }
+
+    /**
+     * Like {@link #serve(HttpServletRequest, HttpServletResponse, Path, long, long, String)}, for
+     * the bytes from {@code offset} to the end of the file as if they were a file of their own:
+     * ranges count from the offset, and the ETag differs from the whole file's.
+     */
+    public static long serve(HttpServletRequest request, HttpServletResponse response, Path path, long offset,
+                             long fileSize, long lastModified, String contentType) throws IOException {
+        String etag = offset == 0 ? HttpValidators.fileETag(fileSize, lastModified)
+                : HttpValidators.fileETag(fileSize, lastModified, offset);
+        long length = fileSize - offset;
+        if (HttpValidators.isNotModified(request, etag, lastModified)) {
+            HttpValidators.sendNotModified(response, etag, lastModified);
+            return 0;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            HttpValidators.setValidators(response, etag, lastModified);
+            response.setHeader("Accept-Ranges", "bytes");
+
+            // A stale If-Range means the client's partial copy is outdated: send everything
+            String rangeHeader = HttpValidators.ifRangeMatches(request, etag, lastModified)
+                    ? request.getHeader("Range") : null;
+            List<ByteRange> ranges = ByteRange.parse(rangeHeader, length);
+            if (ranges != null && ranges.isEmpty()) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader("Content-Range", "bytes */" + length);
+                return 0;
+            }
+
+            if (ranges == null || ranges.size() > MAX_RANGES) {
+                response.setContentType(contentType);
+                response.setContentLengthLong(length);
+                send(channel, offset, length, response.getOutputStream());
+                return length;
+            } else if (ranges.size() == 1) {
+                ByteRange range = ranges.get(0);
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setContentType(contentType);
+                response.setHeader("Content-Range", range.toContentRange(length));
+                response.setContentLengthLong(range.getLength());
+                send(channel, offset + range.getStart(), range.getLength(), response.getOutputStream());
+                return range.getLength();
+            } else {
+                return sendMultipart(channel, offset, ranges, length, contentType, response);
+            }
+        }
+    }
+
+    /** RFC 7233 multipart/byteranges body with an exact Content-Length. */
+    private static long sendMultipart(FileChannel channel, long offset, List<ByteRange> ranges, long fileSize,
+                                      String contentType, HttpServletResponse response) throws IOException {
+        String boundary = newBoundary();
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            ByteRange range = ranges.get(i);
+            String header = (i == 0 ? "" : "\r\n") + "--" + boundary + "\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + "Content-Range: " + range.toContentRange(fileSize) + "\r\n\r\n";
+            byte[] headerBytes = header.getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(headerBytes);
+            contentLength += headerBytes.length + range.getLength();
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += closing.length;
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        OutputStream out = response.getOutputStream();
+        for (int i = 0; i < ranges.size(); i++) {
+            ByteRange range = ranges.get(i);
+            out.write(partHeaders.get(i));
+            send(channel, offset + range.getStart(), range.getLength(), out);
+        }
+        out.write(closing);
+        return contentLength;
+    }
+
+    private static String newBoundary() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder boundary = new StringBuilder("BYTERANGE_");
+        for (int i = 0; i < 20; i++) {
+            boundary.append(BOUNDARY_CHARS.charAt(random.nextInt(BOUNDARY_CHARS.length())));
+        }
+        return boundary.toString();
+    }
+
+    /** Sends {@code length} bytes starting at {@code start}; stops early if the file shrank meanwhile. */
+    public static void send(FileChannel channel, long start, long length, OutputStream out) throws IOException {
+        long position = start;
+        long remaining = length;
+
+        if (out instanceof HttpOutput) {
+            HttpOutput httpOut = (HttpOutput) out;
+            ByteBufferPool pool = httpOut.getHttpChannel().getByteBufferPool();
+            ByteBuffer buffer = pool.acquire(COPY_BUFFER_BYTES, true);
+            try {
+                while (remaining > 0) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), remaining));
+                    int read = channel.read(buffer, position);
+                    if (read <= 0) {
+                        break;
+                    }
+                    buffer.flip();
+                    // Blocking: returns once the bytes are written or copied, so the buffer can be refilled
+                    httpOut.write(buffer);
+                    position += read;
+                    remaining -= read;
+                }
+            } finally {
+                pool.release(buffer);
+            }
+            return;
+        }
+
+        WritableByteChannel target = Channels.newChannel(out);
+        while (remaining > 0) {
+            long sent = channel.transferTo(position, remaining, target);
+            if (sent <= 0) {
+                break;
+            }
+            position += sent;
+            remaining -= sent;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.musiclibrary.http;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Entity tags and the conditional-request checks that go with them (RFC 7232 / 7233):
+ * If-None-Match and If-Modified-Since for 304 responses, and If-Range for resumed downloads.
+ */
+public final class HttpValidators {
+
+    private HttpValidators() {
+    }
+
+    /** Strong tag for a file on disk: changes whenever its size or modification time does. */
+    public static String fileETag(long size, long lastModified) {
+        return "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+    /** Tag for the part of a file from {@code offset} on, served as a resource of its own. */
+    public static String fileETag(long size, long lastModified, long offset) {
+        return "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "@" + Long.toHexString(offset) + "\"";
+    }
+
+    /** Strong tag derived from the bytes themselves, for content without a trustworthy mtime. */
+    public static String contentETag(byte[] content) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder tag = new StringBuilder("\"");
+            for (int i = 0; i < 12; i++) {
+                tag.append(String.format("%02x", hash[i]));
+            }
+            return tag.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /** Sets ETag and, when known ({@code lastModified > 0}), Last-Modified. */
+    public static void setValidators(HttpServletResponse response, String etag, long lastModified) {
+        response.setHeader("ETag", etag);
+        if (lastModified > 0) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+    }
+
+    /**
+     * Whether the client's cached copy is still current, i.e. the caller should answer 304.
+     * If-None-Match wins over If-Modified-Since when both are present.
+     */
+    public static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return matchesAny(ifNoneMatch, etag, false);
+        }
+        if (lastModified > 0) {
+            long since = dateHeader(request, "If-Modified-Since");
+            return since >= 0 && lastModified / 1000 <= since / 1000;
+        }
+        return false;
+    }
+
+    /**
+     * Whether a Range header may be honoured. With If-Range present the range applies only if the
+     * validator still matches exactly; otherwise the client's partial copy is stale and it must get
+     * the whole representation.
+     */
+    public static boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return matchesAny(ifRange, etag, true);
+        }
+        long date = dateHeader(request, "If-Range");
+        return date >= 0 && lastModified > 0 && date / 1000 == lastModified / 1000;
+    }
+
+    /** Answers 304 with the validators, and no body. */
+    public static void sendNotModified(HttpServletResponse response, String etag, long lastModified) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        setValidators(response, etag, lastModified);
+    }
+
+    /**
+     * Compares against a comma-separated list of tags. Weak comparison ignores the {@code W/}
+     * prefix; strong comparison never matches a weak tag.
+     */
+    private static boolean matchesAny(String header, String etag, boolean strong) {
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*")) {
+                return !strong;
+            }
+            if (candidate.startsWith("W/")) {
+                if (strong) {
+                    continue;
+                }
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long dateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            // unparseable date: treat as absent
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.musiclibrary.http;
+
+import com.example.musiclibrary.model.Playlist;
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+
+/**
+ * The one Jackson configuration every servlet reads and writes JSON with.
+ *
+ * Readers and writers are immutable and thread-safe, so they are built once and shared; Afterburner
+ * replaces reflection on model getters and setters with generated accessors. Bodies are parsed
+ * straight from the request's byte stream (Jackson detects UTF-8/16/32 itself, whatever charset the
+ * client did or did not declare) and responses are encoded straight into the response's output
+ * buffer, with no intermediate String or char[] copy.
+ *
+ * A response written with {@link #write} uses {@code getOutputStream()}, so it must not have called
+ * {@code getWriter()} first.
+ *
+ * Playlists can be written with only some of their properties ({@link #write(HttpServletResponse,
+ * Object, Set)}); everything else is always written whole.
+ */
+public final class Json {
+    private static final String FIELDS_FILTER = "fields";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .registerModule(new AfterburnerModule())
+            .addMixIn(Playlist.class, Projectable.class)
+            .setFilterProvider(new SimpleFilterProvider()
+                    .addFilter(FIELDS_FILTER, SimpleBeanPropertyFilter.serializeAll()));
+    private static final ObjectWriter WRITER = MAPPER.writer();
+
+    /** Attached to {@link Playlist} without touching the model class. */
+    @JsonFilter(FIELDS_FILTER)
+    private interface Projectable {
+    }
+
+    private Json() {
+    }
+
+    /** A shared reader for one request type; keep it in a static field. */
+    public static ObjectReader readerFor(Class<?> type) {
+        return MAPPER.readerFor(type);
+    }
+
+    /** Parses the request body. Throws a JsonProcessingException (an IOException) for malformed JSON. */
+    public static <T> T read(HttpServletRequest request, ObjectReader reader) throws IOException {
+        return reader.readValue(request.getInputStream());
+    }
+
+    /** Serializes {@code value} as the response body. */
+    public static void write(HttpServletResponse response, Object value) throws IOException {
+        WRITER.writeValue(response.getOutputStream(), value);
+    }
+
+    /** Serializes {@code value} with only the named properties of each playlist in it. */
+    public static void write(HttpServletResponse response, Object value, Set<String> fields) throws IOException {
+        WRITER.with(new SimpleFilterProvider()
+                        .addFilter(FIELDS_FILTER, SimpleBeanPropertyFilter.filterOutAllExcept(fields)))
+                .writeValue(response.getOutputStream(), value);
+    }
+
+    /** Serializes {@code value} once, for a body that is cached and sent many times. */
+    public static byte[] toBytes(Object value) throws IOException {
+        return WRITER.writeValueAsBytes(value);
+    }
+
+    /** A generator for writing a large body piece by piece, e.g. one database row at a time. */
+    public static JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return WRITER.createGenerator(out);
+    }
+}
@@ -0,0 +1,297 @@
+package com.example.musiclibrary.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The web UI's static files, read from the classpath once at startup and kept in memory together
+ * with gzip and deflate encodings, so serving one is a single buffer write.
+ *
+ * Every non-HTML asset is also reachable under a fingerprinted name such as {@code app.1a2b3c4d.js};
+ * HTML pages are rewritten to reference those names, so the assets can be cached by browsers
+ * indefinitely while the pages themselves are always revalidated.
+ */
+public final class StaticAssetCache {
+
+    private static final int FINGERPRINT_LENGTH = 8;
+    private static final Pattern ASSET_REFERENCE = Pattern.compile("(href|src)=\"(/?)([^\"?#:]+)\"");
+
+    private final Map<String, Asset> byPath;
+
+    private StaticAssetCache(Map<String, Asset> byPath) {
+        this.byPath = byPath;
+    }
+
+    /** Loads everything below {@code baseDir} (e.g. {@code "webapp"}) on the classpath. */
+    public static StaticAssetCache load(String baseDir) throws IOException {
+        ClassLoader loader = StaticAssetCache.class.getClassLoader();
+        Map<String, byte[]> contents = new HashMap<>();
+        for (String name : listResources(loader, baseDir)) {
+            try (InputStream in = loader.getResourceAsStream(baseDir + "/" + name)) {
+                if (in != null) {
+                    contents.put(name, readFully(in));
+                }
+            }
+        }
+
+        // Fingerprint the assets first so the pages can point at the fingerprinted names
+        Map<String, Asset> byPath = new HashMap<>();
+        Map<String, String> fingerprinted = new HashMap<>();
+        for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            String name = entry.getKey();
+            if (isHtml(name)) {
+                continue;
+            }
+            Asset asset = new Asset(name, entry.getValue(), false);
+            String fingerprintedName = fingerprintedName(name, asset.etag);
+            byPath.put(name, asset);
+            byPath.put(fingerprintedName, asset.asImmutable());
+            fingerprinted.put(name, fingerprintedName);
+        }
+        for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            String name = entry.getKey();
+            if (isHtml(name)) {
+                byte[] page = rewriteReferences(new String(entry.getValue(), StandardCharsets.UTF_8), fingerprinted)
+                        .getBytes(StandardCharsets.UTF_8);
+                byPath.put(name, new Asset(name, page, false));
+            }
+        }
+        return new StaticAssetCache(Collections.unmodifiableMap(byPath));
+    }
+
+    /** The asset for a request path without the leading slash, or {@code null}. */
+    public Asset get(String path) {
+        return byPath.get(path);
+    }
+
+    public int size() {
+        return byPath.size();
+    }
+
+    public static String contentTypeFor(String path) {
+        if (path.endsWith(".html")) return "text/html";
+        if (path.endsWith(".css")) return "text/css";
+        if (path.endsWith(".js")) return "application/javascript";
+        if (path.endsWith(".json")) return "application/json";
+        if (path.endsWith(".png")) return "image/png";
+        if (path.endsWith(".jpg") || path.endsWith(".jpeg")) return "image/jpeg";
+        if (path.endsWith(".svg")) return "image/svg+xml";
+        if (path.endsWith(".mp3")) return "audio/mpeg";
+        if (path.endsWith(".wav")) return "audio/wav";
+        if (path.endsWith(".ogg")) return "audio/ogg";
+        if (path.endsWith(".m4a")) return "audio/mp4";
+        return "application/octet-stream";
+    }
+
+    private static boolean isHtml(String name) {
+        return name.endsWith(".html");
+    }
+
+    private static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/") || contentType.equals("application/javascript")
+                || contentType.equals("application/json") || contentType.equals("image/svg+xml");
+    }
+
+    private static String fingerprintedName(String name, String etag) {
+        String fingerprint = etag.substring(1, 1 + FINGERPRINT_LENGTH);
+        int dot = name.lastIndexOf('.');
+        int slash = name.lastIndexOf('/');
+        return dot > slash ? name.substring(0, dot) + "." + fingerprint + name.substring(dot)
+                : name + "." + fingerprint;
+    }
+
+    private static String rewriteReferences(String html, Map<String, String> fingerprinted) {
+        Matcher matcher = ASSET_REFERENCE.matcher(html);
+        StringBuffer rewritten = new StringBuffer();
+        while (matcher.find()) {
+            String target = fingerprinted.get(matcher.group(3));
+            String replacement = target == null ? matcher.group()
+                    : matcher.group(1) + "=\"" + matcher.group(2) + target + "\"";
+            matcher.appendReplacement(rewritten, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(rewritten);
+        return rewritten.toString();
+    }
+
+    private static List<String> listResources(ClassLoader loader, String baseDir) throws IOException {
+        URL root = loader.getResource(baseDir);
+        if (root == null) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<>();
+        if ("jar".equals(root.getProtocol())) {
+            JarURLConnection connection = (JarURLConnection) root.openConnection();
+            connection.setUseCaches(false);
+            try (JarFile jar = connection.getJarFile()) {
+                String prefix = baseDir + "/";
+                Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements()) {
+                    JarEntry entry = entries.nextElement();
+                    if (!entry.isDirectory() && entry.getName().startsWith(prefix)) {
+                        names.add(entry.getName().substring(prefix.length()));
+                    }
+                }
+            }
+        } else {
+            try {
+                Path dir = Paths.get(root.toURI());
+                try (Stream<Path> files = Files.walk(dir)) {
+                    files.filter(Files::isRegularFile)
+                            .forEach(file -> names.add(dir.relativize(file).toString().replace('\\', '/')));
+                }
+            } catch (URISyntaxException e) {
+                throw new IOException("Cannot list " + root, e);
+            }
+        }
+        return names;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) != -1) {
+            content.write(buffer, 0, bytesRead);
+        }
+        return content.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 2 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(content);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 2 + 64);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed)) {
+            out.write(content);
+        }
+        return compressed.toByteArray();
+    }
+
+    /** One servable file. Fingerprinted copies share the content of the plain one. */
+    public static final class Asset {
+        private final String contentType;
+        private final String etag;
+        private final boolean immutable;
+        private final byte[] identity;
+        private final byte[] gzip;
+        private final byte[] deflate;
+
+        Asset(String name, byte[] content, boolean immutable) throws IOException {
+            String type = contentTypeFor(name);
+            this.contentType = type.startsWith("text/") || type.equals("application/javascript")
+                    ? type + ";charset=UTF-8" : type;
+            this.etag = HttpValidators.contentETag(content);
+            this.immutable = immutable;
+            this.identity = content;
+            if (isCompressible(type) && content.length > 256) {
+                byte[] gzipped = gzip(content);
+                byte[] deflated = deflate(content);
+                this.gzip = gzipped.length < content.length ? gzipped : null;
+                this.deflate = deflated.length < content.length ? deflated : null;
+            } else {
+                this.gzip = null;
+                this.deflate = null;
+            }
+        }
+
+        private Asset(Asset source) {
+            this.contentType = source.contentType;
+            this.etag = source.etag;
+            this.immutable = true;
+            this.identity = source.identity;
+            this.gzip = source.gzip;
+            this.deflate = source.deflate;
+        }
+
+        Asset asImmutable() {
+            return new Asset(this);
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        /** Served under a fingerprinted name: safe to cache forever. */
+        public boolean isImmutable() {
+            return immutable;
+        }
+
+        public boolean hasEncodings() {
+            return gzip != null || deflate != null;
+        }
+
+        /**
+         * Picks the smallest encoding the client accepts: {@code "gzip"}, {@code "deflate"},
+         * or {@code null} for the identity bytes.
+         */
+        public String chooseEncoding(String acceptEncoding) {
+            if (acceptEncoding == null || !hasEncodings()) {
+                return null;
+            }
+            boolean acceptsGzip = gzip != null && accepts(acceptEncoding, "gzip");
+            boolean acceptsDeflate = deflate != null && accepts(acceptEncoding, "deflate");
+            if (acceptsGzip && acceptsDeflate) {
+                return deflate.length < gzip.length ? "deflate" : "gzip";
+            }
+            return acceptsGzip ? "gzip" : acceptsDeflate ? "deflate" : null;
+        }
+
+        public byte[] getBytes(String encoding) {
+            if ("gzip".equals(encoding)) return gzip;
+            if ("deflate".equals(encoding)) return deflate;
+            return identity;
+        }
+
+        /** Each encoding is a different representation, so it gets its own strong tag. */
+        public String getETag(String encoding) {
+            return encoding == null ? etag : etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+        }
+
+        private static boolean accepts(String acceptEncoding, String coding) {
+            for (String part : acceptEncoding.split(",")) {
+                String[] params = part.trim().split(";");
+                if (!params[0].trim().equalsIgnoreCase(coding)) {
+                    continue;
+                }
+                for (int i = 1; i < params.length; i++) {
+                    String param = params[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            return Double.parseDouble(param.substring(2)) > 0;
+                        } catch (NumberFormatException e) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+}
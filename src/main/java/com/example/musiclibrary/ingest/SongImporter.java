@@ -0,0 +1,278 @@
+package com.example.musiclibrary.ingest;
+
+import com.example.musiclibrary.dao.SongDao;
+import com.example.musiclibrary.http.Json;
+import com.example.musiclibrary.model.Song;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads songs from an NDJSON or CSV stream in chunks, each chunk inserted by
+ * {@link SongDao#addSongs} in its own transaction. Bad rows are reported with their line number
+ * and skipped; they never abort the rest of the load.
+ *
+ * NDJSON lines are song objects as returned by {@code GET /api/songs}. CSV needs a header row
+ * naming the columns: {@code title}, {@code artistName} (or {@code artist}), {@code albumName}
+ * (or {@code album}), {@code durationSeconds} (or {@code duration}) and optionally
+ * {@code audioFilePath}. Quoted CSV fields may contain commas and doubled quotes, but not line breaks.
+ *
+ * Audio file paths are only kept when the importer is created with {@code keepAudioFilePaths};
+ * {@code /api/audio} serves whatever path a song has, so remote callers must not be able to set one.
+ */
+public class SongImporter {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+    public static final int MAX_CHUNK_SIZE = 10_000;
+
+    /** Row errors kept for the result; later ones are only counted. */
+    private static final int MAX_REPORTED_ERRORS = 1000;
+
+    private static final ObjectReader SONG_READER = Json.readerFor(Song.class)
+            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    public enum Format {
+        NDJSON, CSV;
+
+        /** {@code "csv"} or {@code "ndjson"} (also {@code "json"}), ignoring case; null if neither. */
+        public static Format fromName(String name) {
+            if (name == null) {
+                return null;
+            }
+            switch (name.trim().toLowerCase()) {
+                case "csv":
+                    return CSV;
+                case "ndjson":
+                case "jsonl":
+                case "json":
+                    return NDJSON;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private final SongDao songDao;
+    private final int chunkSize;
+    private final boolean keepAudioFilePaths;
+
+    public SongImporter(SongDao songDao, int chunkSize, boolean keepAudioFilePaths) {
+        this.songDao = songDao;
+        this.chunkSize = Math.max(1, Math.min(MAX_CHUNK_SIZE, chunkSize));
+        this.keepAudioFilePaths = keepAudioFilePaths;
+    }
+
+    /** Reads the whole stream. The reader is not closed. */
+    public ImportResult importSongs(Reader reader, Format format) throws IOException {
+        ImportResult result = new ImportResult();
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        List<Song> chunk = new ArrayList<>(chunkSize);
+        List<Integer> chunkLines = new ArrayList<>(chunkSize);
+        Map<String, Integer> csvColumns = null;
+
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                Song song;
+                if (format == Format.CSV) {
+                    if (csvColumns == null) {
+                        csvColumns = csvHeader(parseCsvLine(line));
+                        continue;
+                    }
+                    song = csvSong(parseCsvLine(line), csvColumns);
+                } else {
+                    song = SONG_READER.readValue(line);
+                }
+                validate(song);
+                chunk.add(song);
+                chunkLines.add(lineNumber);
+            } catch (JsonProcessingException e) {
+                result.addError(lineNumber, e.getOriginalMessage());
+                continue;
+            } catch (IllegalArgumentException e) {
+                result.addError(lineNumber, e.getMessage());
+                if (format == Format.CSV && csvColumns == null) {
+                    // Without a usable header no row can be read
+                    return result;
+                }
+                continue;
+            }
+
+            if (chunk.size() >= chunkSize) {
+                flush(chunk, chunkLines, result);
+            }
+        }
+        flush(chunk, chunkLines, result);
+        return result;
+    }
+
+    private void flush(List<Song> chunk, List<Integer> chunkLines, ImportResult result) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        int inserted = songDao.addSongs(chunk, (index, message) -> result.addError(chunkLines.get(index), message));
+        result.imported += inserted;
+        chunk.clear();
+        chunkLines.clear();
+    }
+
+    private void validate(Song song) {
+        if (song == null) {
+            throw new IllegalArgumentException("Expected a song object");
+        }
+        song.setTitle(required(song.getTitle(), "title"));
+        song.setArtistName(required(song.getArtistName(), "artistName"));
+        song.setAlbumName(required(song.getAlbumName(), "albumName"));
+        if (song.getDurationSeconds() < 0) {
+            throw new IllegalArgumentException("durationSeconds must not be negative");
+        }
+        String path = song.getAudioFilePath();
+        song.setAudioFilePath(!keepAudioFilePaths || path == null || path.trim().isEmpty() ? null : path.trim());
+    }
+
+    private static String required(String value, String field) {
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException(field + " is required");
+        }
+        return value.trim();
+    }
+
+    /** Column name (lower case, no separators) -> index, checking the required columns are present. */
+    private static Map<String, Integer> csvHeader(List<String> header) {
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            String name = header.get(i).trim().toLowerCase().replace("_", "").replace(" ", "");
+            switch (name) {
+                case "artist":
+                    name = "artistname";
+                    break;
+                case "album":
+                    name = "albumname";
+                    break;
+                case "duration":
+                    name = "durationseconds";
+                    break;
+                default:
+                    break;
+            }
+            columns.put(name, i);
+        }
+        for (String required : new String[]{"title", "artistname", "albumname", "durationseconds"}) {
+            if (!columns.containsKey(required)) {
+                throw new IllegalArgumentException("CSV header is missing the " + required + " column");
+            }
+        }
+        return columns;
+    }
+
+    private static Song csvSong(List<String> fields, Map<String, Integer> columns) {
+        Song song = new Song();
+        song.setTitle(field(fields, columns, "title"));
+        song.setArtistName(field(fields, columns, "artistname"));
+        song.setAlbumName(field(fields, columns, "albumname"));
+        song.setAudioFilePath(field(fields, columns, "audiofilepath"));
+        String duration = field(fields, columns, "durationseconds");
+        try {
+            song.setDurationSeconds(duration == null ? 0 : Integer.parseInt(duration.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid durationSeconds: " + duration);
+        }
+        return song;
+    }
+
+    private static String field(List<String> fields, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        return index != null && index < fields.size() ? fields.get(index) : null;
+    }
+
+    /** Splits one CSV line into fields (RFC 4180 quoting, within a single line). */
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /** Totals for one import, plus the first {@value #MAX_REPORTED_ERRORS} row errors. */
+    public static class ImportResult {
+        private int imported;
+        private int failed;
+        private final List<RowError> errors = new ArrayList<>();
+
+        void addError(int line, String message) {
+            failed++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(new RowError(line, message));
+            }
+        }
+
+        public int getImported() {
+            return imported;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public List<RowError> getErrors() {
+            return errors;
+        }
+    }
+
+    public static class RowError {
+        private final int line;
+        private final String message;
+
+        RowError(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
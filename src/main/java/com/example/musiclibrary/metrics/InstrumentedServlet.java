@@ -0,0 +1,44 @@
+package com.example.musiclibrary.metrics;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Base servlet that records how long each request takes, per servlet and HTTP method. It also
+ * dispatches PATCH, which {@link HttpServlet} does not know, to {@link #doPatch}.
+ */
+public abstract class InstrumentedServlet extends HttpServlet {
+
+    private final ConcurrentMap<String, LatencyHistogram> timers = new ConcurrentHashMap<>();
+
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        long start = System.nanoTime();
+        try {
+            if ("PATCH".equals(request.getMethod())) {
+                doPatch(request, response);
+            } else {
+                super.service(request, response);
+            }
+        } finally {
+            String method = request.getMethod();
+            LatencyHistogram timer = timers.get(method);
+            if (timer == null) {
+                timer = timers.computeIfAbsent(method, key -> Metrics.httpTimer(getClass().getSimpleName(), key));
+            }
+            timer.recordSince(start);
+        }
+    }
+
+    /** Handles PATCH; like the other {@code doXxx} methods, answers 405 unless overridden. */
+    protected void doPatch(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, "HTTP method PATCH is not supported by this URL");
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.musiclibrary.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram. Values are bucketed log-linearly in microseconds (every power of
+ * two split into 64 buckets, so quantiles are accurate to about 1.5%), the way HdrHistogram does.
+ *
+ * Recording is a bucket increment plus two LongAdder adds, so it is cheap enough for every request
+ * and every query. Quantiles and cumulative counts are read from a scan of the buckets and need not
+ * be exactly consistent with {@link #getCount()} while writers are active.
+ */
+public class LatencyHistogram {
+
+    // Values below 128us get a bucket each; above that every power of two is split into 64 buckets
+    private static final int LINEAR_LIMIT = 128;
+    private static final int SUB_BUCKETS = 64;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (MAX_EXPONENT - 7 + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.getAndIncrement(indexOf(value / 1000));
+        count.increment();
+        sumNanos.add(value);
+        long max = maxNanos.get();
+        while (value > max && !maxNanos.compareAndSet(max, value)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /** Records the time elapsed since {@code startNanos}, a value taken from {@link System#nanoTime()}. */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Adds everything {@code other} has recorded to this histogram, for merging per-thread
+     * histograms into a report. Not atomic: {@code other} should no longer be recorded into.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long bucket = other.buckets.get(i);
+            if (bucket != 0) {
+                buckets.getAndAdd(i, bucket);
+            }
+        }
+        count.add(other.getCount());
+        sumNanos.add(other.getSumNanos());
+        maxNanos.accumulateAndGet(other.getMaxNanos(), Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /** Latency in nanoseconds at or below which the given fraction (0..1) of recordings fall. */
+    public long percentileNanos(double fraction) {
+        long total = 0;
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(TimeUnit.MICROSECONDS.toNanos(highestValueIn(i)), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * How many recordings were below each bound, plus the total as the last element. Bounds are
+     * in microseconds, ascending, and must be below 128 or a power of two so they fall on bucket
+     * edges; the counts are then exact.
+     */
+    public long[] cumulativeCounts(long[] boundsMicros) {
+        long[] counts = new long[boundsMicros.length + 1];
+        long seen = 0;
+        int bound = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            while (bound < boundsMicros.length && highestValueIn(i) >= boundsMicros[bound]) {
+                counts[bound++] = seen;
+            }
+            seen += buckets.get(i);
+        }
+        while (bound < boundsMicros.length) {
+            counts[bound++] = seen;
+        }
+        counts[boundsMicros.length] = seen;
+        return counts;
+    }
+
+    private static int indexOf(long micros) {
+        if (micros < LINEAR_LIMIT) {
+            return (int) micros;
+        }
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_EXPONENT);
+        int shift = exponent - 6;
+        int sub = (int) Math.min((micros >>> shift) - SUB_BUCKETS, SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - 7) * SUB_BUCKETS + sub;
+    }
+
+    private static long highestValueIn(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int exponent = 7 + (index - LINEAR_LIMIT) / SUB_BUCKETS;
+        int sub = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 6)) - 1;
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.musiclibrary.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** The application's metric names, so every caller registers them the same way. */
+public final class Metrics {
+
+    private Metrics() {
+    }
+
+    public static LatencyHistogram httpTimer(String servlet, String method) {
+        return MetricsRegistry.getDefault().histogram("musiclibrary_http_request_seconds",
+                "Time spent handling HTTP requests", "servlet", servlet, "method", method);
+    }
+
+    public static LatencyHistogram daoTimer(String dao, String method) {
+        return MetricsRegistry.getDefault().histogram("musiclibrary_dao_call_seconds",
+                "Time spent in DAO methods, including connection use and row mapping", "dao", dao, "method", method);
+    }
+
+    public static LongAdder audioBytes(String route) {
+        return MetricsRegistry.getDefault().counter("musiclibrary_audio_bytes_total",
+                "Audio bytes written to clients", "route", route);
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.musiclibrary.metrics;
+
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Named latency histograms, counters and gauges, written out in the Prometheus text format.
+ *
+ * Callers look a metric up once and keep the reference (a static field, or a map keyed by
+ * something cheaper than the label string); lookups are thread-safe but not free.
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    /**
+     * Upper bounds of the exported latency buckets: powers of two from 64us to about 33s. Each is an
+     * edge of {@link LatencyHistogram}'s own finer buckets, so the exported counts are exact.
+     */
+    private static final long[] BUCKET_BOUNDS_MICROS = new long[20];
+    private static final String[] BUCKET_LABELS = new String[BUCKET_BOUNDS_MICROS.length + 1];
+
+    static {
+        for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+            BUCKET_BOUNDS_MICROS[i] = 64L << i;
+            BUCKET_LABELS[i] = BigDecimal.valueOf(BUCKET_BOUNDS_MICROS[i], 6).toPlainString();
+        }
+        BUCKET_LABELS[BUCKET_BOUNDS_MICROS.length] = "+Inf";
+    }
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /** The registry /api/metrics exposes. */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * A latency histogram, exported in seconds as cumulative {@code _bucket} counts so quantiles
+     * over any window can be taken with {@code histogram_quantile(rate(...))}.
+     *
+     * @param labels alternating label names and values, e.g. {@code "method", "GET"}
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) family(name, help, "histogram")
+                .metrics.computeIfAbsent(labelString(labels), key -> new LatencyHistogram());
+    }
+
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) family(name, help, "counter")
+                .metrics.computeIfAbsent(labelString(labels), key -> new LongAdder());
+    }
+
+    /**
+     * Registers a count kept elsewhere and read at scrape time, such as a cache's hit count. It must
+     * only ever increase; name it with a {@code _total} suffix. Re-registering replaces it.
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, "counter").metrics.put(labelString(labels), value);
+    }
+
+    /** Registers a value read at scrape time, such as a pool size. Re-registering replaces it. */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").metrics.put(labelString(labels), value);
+    }
+
+    public void writePrometheus(PrintWriter out) {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.print("# HELP " + name + " " + family.help + "\n");
+            out.print("# TYPE " + name + " " + family.type + "\n");
+            for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                String labels = metric.getKey();
+                Object value = metric.getValue();
+                if (value instanceof LatencyHistogram) {
+                    LatencyHistogram histogram = (LatencyHistogram) value;
+                    long[] counts = histogram.cumulativeCounts(BUCKET_BOUNDS_MICROS);
+                    for (int i = 0; i < counts.length; i++) {
+                        out.print(name + "_bucket{" + labels + (labels.isEmpty() ? "" : ",") + "le=\"" + BUCKET_LABELS[i] + "\"} "
+                                + counts[i] + "\n");
+                    }
+                    out.print(name + "_sum" + braces(labels) + " " + seconds(histogram.getSumNanos()) + "\n");
+                    // The +Inf bucket's count, so the two always agree
+                    out.print(name + "_count" + braces(labels) + " " + counts[counts.length - 1] + "\n");
+                } else if (value instanceof LongAdder) {
+                    out.print(name + braces(labels) + " " + ((LongAdder) value).sum() + "\n");
+                } else if (value instanceof LongSupplier) {
+                    out.print(name + braces(labels) + " " + ((LongSupplier) value).getAsLong() + "\n");
+                } else {
+                    out.print(name + braces(labels) + " " + ((DoubleSupplier) value).getAsDouble() + "\n");
+                }
+            }
+        }
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type + ", not a " + type);
+        }
+        return family;
+    }
+
+    private static String labelString(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return result.toString();
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static final class Family {
+        final String help;
+        final String type;
+        final ConcurrentMap<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -12,6 +12,7 @@ public class Playlist {
     private Date updatedAt;
     private List<Song> songs;
     private int songCount;
+    private long totalDurationSeconds;
 
     public Playlist() {
         this.songs = new ArrayList<>();
@@ -72,4 +73,12 @@ public class Playlist {
     public void setSongCount(int songCount) {
         this.songCount = songCount;
     }
+
+    public long getTotalDurationSeconds() {
+        return totalDurationSeconds;
+    }
+
+    public void setTotalDurationSeconds(long totalDurationSeconds) {
+        this.totalDurationSeconds = totalDurationSeconds;
+    }
 }
@@ -1,5 +1,7 @@
 package com.example.musiclibrary.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 public class Song {
 
     private int id;
@@ -9,6 +11,15 @@ public class Song {
     private int durationSeconds;
     private String audioFilePath; // Path to audio file
 
+    // Audio file size and modification time seen by the library scanner; internal only
+    @JsonIgnore
+    private Long fileSize;
+    @JsonIgnore
+    private Long fileModified;
+    // Frame offsets found by the scanner, saved alongside the song; only set on the way in
+    @JsonIgnore
+    private SeekTable seekTable;
+
     public int getId() {
         return id;
     }
@@ -56,6 +67,31 @@ public class Song {
     public void setAudioFilePath(String audioFilePath) {
         this.audioFilePath = audioFilePath;
     }
+
+    public Long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(Long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public Long getFileModified() {
+        return fileModified;
+    }
+
+    public void setFileModified(Long fileModified) {
+        this.fileModified = fileModified;
+    }
+
+    public SeekTable getSeekTable() {
+        return seekTable;
+    }
+
+    public void setSeekTable(SeekTable seekTable) {
+        this.seekTable = seekTable;
+    }
+
     @Override
     public String toString() {
         int minutes = durationSeconds / 60;
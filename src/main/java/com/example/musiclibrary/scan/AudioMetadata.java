@@ -0,0 +1,379 @@
+package com.example.musiclibrary.scan;
+
+import com.example.musiclibrary.model.SeekTable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Title, artist, album and duration read from an audio file's own headers: ID3v2 and ID3v1 tags
+ * and the frame headers of an MP3 (see {@link Mp3FrameScanner}, which also yields its seek table),
+ * or the RIFF chunks of a WAV. Anything that cannot be found is left null (or 0 for the duration);
+ * other formats yield an empty result.
+ */
+public class AudioMetadata {
+    /** Tags larger than this are truncated; text frames come first in practice, pictures last. */
+    private static final int MAX_TAG_BYTES = 256 * 1024;
+    private static final int MAX_INFO_CHUNK_BYTES = 64 * 1024;
+
+    private String title;
+    private String artist;
+    private String album;
+    private int durationSeconds;
+    private SeekTable seekTable;
+    private WavFormat wavFormat;
+
+    public static AudioMetadata read(Path file) throws IOException {
+        AudioMetadata metadata = new AudioMetadata();
+        String name = file.getFileName().toString().toLowerCase();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (name.endsWith(".mp3")) {
+                metadata.readMp3(channel);
+            } else if (name.endsWith(".wav")) {
+                metadata.readWav(channel);
+            }
+        }
+        return metadata;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getArtist() {
+        return artist;
+    }
+
+    public String getAlbum() {
+        return album;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    /** Frame offsets of an MP3, or null for other formats and files without MPEG frames. */
+    public SeekTable getSeekTable() {
+        return seekTable;
+    }
+
+    /** Sample layout of a WAV, or null for other formats and WAVs without fmt and data chunks. */
+    public WavFormat getWavFormat() {
+        return wavFormat;
+    }
+
+    // ---- MP3 ----
+
+    private void readMp3(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        long audioStart = readId3v2(channel);
+        long audioEnd = fileSize;
+        if (fileSize - audioStart >= 128) {
+            ByteBuffer v1 = readFully(channel, fileSize - 128, 128);
+            if (v1.get(0) == 'T' && v1.get(1) == 'A' && v1.get(2) == 'G') {
+                readId3v1(v1.array());
+                audioEnd -= 128;
+            }
+        }
+        seekTable = Mp3FrameScanner.scan(channel, audioStart, audioEnd);
+        if (seekTable != null) {
+            // counted frame by frame, so better than any TLEN frame
+            durationSeconds = (int) Math.round(seekTable.getDurationMillis() / 1000.0);
+        }
+    }
+
+    /** Reads the ID3v2 tag at the start of the file, if any, and returns the offset just past it. */
+    private long readId3v2(FileChannel channel) throws IOException {
+        ByteBuffer header = readFully(channel, 0, 10);
+        if (header.limit() < 10 || header.get(0) != 'I' || header.get(1) != 'D' || header.get(2) != '3') {
+            return 0;
+        }
+        int major = header.get(3);
+        int flags = header.get(5) & 0xFF;
+        int size = syncSafe(header.array(), 6);
+        long end = 10L + size + ((major >= 4 && (flags & 0x10) != 0) ? 10 : 0);
+        if (major < 2 || major > 4 || size < 0) {
+            return end;
+        }
+
+        byte[] tag = readFully(channel, 10, Math.min(size, MAX_TAG_BYTES)).array();
+        int length = tag.length;
+        if (major < 4 && (flags & 0x80) != 0) {
+            // v2.2/2.3 apply unsynchronisation to the whole tag; v2.4 does it per frame
+            length = removeUnsync(tag, 0, length);
+        }
+        int pos = 0;
+        if (major >= 3 && (flags & 0x40) != 0 && length >= 4) {
+            // extended header; v2.3 gives its size without the size field, v2.4 with it
+            pos = major == 3 ? 4 + readInt(tag, 0) : syncSafe(tag, 0);
+        }
+
+        int headerSize = major == 2 ? 6 : 10;
+        while (pos >= 0 && pos + headerSize <= length && tag[pos] != 0) {
+            String id;
+            int frameSize;
+            int frameFlags = 0;
+            if (major == 2) {
+                id = new String(tag, pos, 3, StandardCharsets.ISO_8859_1);
+                frameSize = ((tag[pos + 3] & 0xFF) << 16) | ((tag[pos + 4] & 0xFF) << 8) | (tag[pos + 5] & 0xFF);
+            } else {
+                id = new String(tag, pos, 4, StandardCharsets.ISO_8859_1);
+                frameSize = major == 4 ? syncSafe(tag, pos + 4) : readInt(tag, pos + 4);
+                frameFlags = ((tag[pos + 8] & 0xFF) << 8) | (tag[pos + 9] & 0xFF);
+            }
+            int dataStart = pos + headerSize;
+            if (frameSize <= 0 || dataStart + frameSize > length) {
+                break;
+            }
+            pos = dataStart + frameSize;
+            readId3v2Frame(id, tag, dataStart, frameSize, major, frameFlags);
+        }
+        return end;
+    }
+
+    private void readId3v2Frame(String id, byte[] tag, int offset, int size, int major, int flags) {
+        if (major == 3 && (flags & 0x00C0) != 0 || major == 4 && (flags & 0x000C) != 0) {
+            // compressed or encrypted
+            return;
+        }
+        byte[] data = tag;
+        if (major == 4) {
+            if ((flags & 0x0001) != 0) {
+                // data length indicator
+                offset += 4;
+                size -= 4;
+            }
+            if ((flags & 0x0002) != 0 && size > 0) {
+                data = new byte[size];
+                System.arraycopy(tag, offset, data, 0, size);
+                size = removeUnsync(data, 0, size);
+                offset = 0;
+            }
+        }
+        if (size < 1) {
+            return;
+        }
+
+        switch (id) {
+            case "TIT2":
+            case "TT2":
+                title = firstNonEmpty(title, id3Text(data, offset, size));
+                break;
+            case "TPE1":
+            case "TP1":
+                artist = firstNonEmpty(artist, id3Text(data, offset, size));
+                break;
+            case "TALB":
+            case "TAL":
+                album = firstNonEmpty(album, id3Text(data, offset, size));
+                break;
+            case "TLEN":
+            case "TLE":
+                try {
+                    String millis = id3Text(data, offset, size);
+                    if (millis != null && durationSeconds == 0) {
+                        durationSeconds = (int) Math.round(Long.parseLong(millis) / 1000.0);
+                    }
+                } catch (NumberFormatException e) {
+                    // ignored; the duration is counted from the frames instead
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** A text frame's first value: an encoding byte, then the text in that encoding. */
+    private static String id3Text(byte[] data, int offset, int size) {
+        int encoding = data[offset];
+        Charset charset;
+        switch (encoding) {
+            case 1:
+                charset = StandardCharsets.UTF_16; // BOM decides the byte order
+                break;
+            case 2:
+                charset = StandardCharsets.UTF_16BE;
+                break;
+            case 3:
+                charset = StandardCharsets.UTF_8;
+                break;
+            default:
+                charset = StandardCharsets.ISO_8859_1;
+                break;
+        }
+        String text = new String(data, offset + 1, size - 1, charset);
+        // v2.4 separates multiple values with NUL; others may pad with it
+        int nul = text.indexOf('\0');
+        return clean(nul >= 0 ? text.substring(0, nul) : text);
+    }
+
+    private void readId3v1(byte[] tag) {
+        title = firstNonEmpty(title, latinText(tag, 3, 30));
+        artist = firstNonEmpty(artist, latinText(tag, 33, 30));
+        album = firstNonEmpty(album, latinText(tag, 63, 30));
+    }
+
+    // ---- WAV ----
+
+    private void readWav(FileChannel channel) throws IOException {
+        ByteBuffer riff = readFully(channel, 0, 12);
+        if (riff.limit() < 12 || !fourCc(riff, 0).equals("RIFF") || !fourCc(riff, 8).equals("WAVE")) {
+            return;
+        }
+        long fileSize = channel.size();
+        long pos = 12;
+        long byteRate = 0;
+        ByteBuffer fmt = null;
+        long dataOffset = -1;
+        long dataSize = -1;
+        while (pos + 8 <= fileSize) {
+            ByteBuffer chunk = readFully(channel, pos, 8).order(ByteOrder.LITTLE_ENDIAN);
+            if (chunk.limit() < 8) {
+                break; // the file shrank while being read
+            }
+            String id = fourCc(chunk, 0);
+            long size = chunk.getInt(4) & 0xFFFFFFFFL;
+            long body = pos + 8;
+            if (id.equals("fmt ") && size >= 16) {
+                // 40 bytes covers WAVE_FORMAT_EXTENSIBLE, whose sub-format tag is at 24
+                ByteBuffer fields = readFully(channel, body, (int) Math.min(size, 40)).order(ByteOrder.LITTLE_ENDIAN);
+                // A chunk cut short by the end of the file is no format at all
+                if (fields.limit() >= 16) {
+                    fmt = fields;
+                    byteRate = fmt.getInt(8) & 0xFFFFFFFFL;
+                }
+            } else if (id.equals("data")) {
+                // Streaming writers leave the size at 0 or 0xFFFFFFFF; the file length is the better guide
+                dataOffset = body;
+                dataSize = size == 0 || body + size > fileSize ? fileSize - body : size;
+            } else if (id.equals("LIST") && size >= 4 && size <= MAX_INFO_CHUNK_BYTES) {
+                ByteBuffer list = readFully(channel, body, (int) size).order(ByteOrder.LITTLE_ENDIAN);
+                if (fourCc(list, 0).equals("INFO")) {
+                    readInfoChunk(list);
+                }
+            }
+            // chunks are padded to an even length
+            pos = body + size + (size & 1);
+        }
+        if (byteRate > 0 && dataSize > 0) {
+            durationSeconds = (int) Math.round(dataSize / (double) byteRate);
+        }
+        if (fmt != null && dataOffset >= 0) {
+            int formatTag = fmt.getShort(0) & 0xFFFF;
+            if (formatTag == WavFormat.EXTENSIBLE && fmt.limit() >= 26) {
+                formatTag = fmt.getShort(24) & 0xFFFF;
+            }
+            wavFormat = new WavFormat(formatTag, fmt.getShort(2) & 0xFFFF, fmt.getInt(4),
+                    fmt.getShort(12) & 0xFFFF, fmt.getShort(14) & 0xFFFF, dataOffset, dataSize);
+        }
+    }
+
+    private void readInfoChunk(ByteBuffer list) {
+        int pos = 4;
+        while (pos + 8 <= list.limit()) {
+            String id = fourCc(list, pos);
+            int size = list.getInt(pos + 4);
+            int body = pos + 8;
+            if (size < 0 || body + size > list.limit()) {
+                return;
+            }
+            String value = size > 0 ? decode(list.array(), body, size) : null;
+            if (id.equals("INAM")) {
+                title = firstNonEmpty(title, value);
+            } else if (id.equals("IART")) {
+                artist = firstNonEmpty(artist, value);
+            } else if (id.equals("IPRD")) {
+                album = firstNonEmpty(album, value);
+            }
+            pos = body + size + (size & 1);
+        }
+    }
+
+    // ---- helpers ----
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int syncSafe(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0x7F) << 21) | ((bytes[offset + 1] & 0x7F) << 14)
+                | ((bytes[offset + 2] & 0x7F) << 7) | (bytes[offset + 3] & 0x7F);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    /** Drops the 0x00 written after every 0xFF, in place; returns the new length. */
+    private static int removeUnsync(byte[] bytes, int offset, int length) {
+        int out = offset;
+        for (int i = offset; i < offset + length; i++) {
+            bytes[out++] = bytes[i];
+            if ((bytes[i] & 0xFF) == 0xFF && i + 1 < offset + length && bytes[i + 1] == 0) {
+                i++;
+            }
+        }
+        return out - offset;
+    }
+
+    private static String fourCc(ByteBuffer buffer, int offset) {
+        if (offset + 4 > buffer.limit()) {
+            return "";
+        }
+        return new String(buffer.array(), offset, 4, StandardCharsets.ISO_8859_1);
+    }
+
+    /** ID3v1 fields are fixed width, padded with NULs or spaces. */
+    private static String latinText(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+        return decode(bytes, offset, end - offset);
+    }
+
+    /** UTF-8 when the bytes are valid UTF-8, ISO-8859-1 otherwise; these fields have no declared encoding. */
+    private static String decode(byte[] bytes, int offset, int length) {
+        String text;
+        try {
+            text = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes, offset, length))
+                    .toString();
+        } catch (CharacterCodingException e) {
+            text = new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
+        int nul = text.indexOf('\0');
+        return clean(nul >= 0 ? text.substring(0, nul) : text);
+    }
+
+    private static String clean(String text) {
+        if (text == null) {
+            return null;
+        }
+        text = text.trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    private static String firstNonEmpty(String current, String candidate) {
+        return current != null ? current : candidate;
+    }
+}
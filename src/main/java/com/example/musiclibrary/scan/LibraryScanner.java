@@ -0,0 +1,319 @@
+package com.example.musiclibrary.scan;
+
+import com.example.musiclibrary.dao.SongDao;
+import com.example.musiclibrary.model.Song;
+import com.example.musiclibrary.waveform.WaveformService;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks a music directory and brings the songs table in line with the audio files under it.
+ *
+ * Directories are listed in parallel on a fork/join pool; each worker stats its files and, for
+ * any whose path, size or modification time differs from what the database last recorded, reads
+ * the tags and, for MP3s, the frame headers and seek table with {@link AudioMetadata}. The calling thread drains those results in batches into
+ * {@link SongDao#addSongs} (new files) and {@link SongDao#updateSongs} (changed files), so a
+ * re-scan of an unchanged library reads no audio at all and writes nothing. New and changed WAV
+ * files are handed to the {@link WaveformService}, if there is one, once their batch is written.
+ *
+ * Songs whose files have disappeared are counted but not deleted: deleting a song also takes it
+ * out of every playlist, and a missing file is as often an unmounted disk as a removed one.
+ */
+public class LibraryScanner {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /** The formats {@code AudioStreamServlet} can serve. */
+    private static final Set<String> AUDIO_EXTENSIONS =
+            new HashSet<>(Arrays.asList("mp3", "wav", "ogg", "m4a", "flac"));
+    private static final int MAX_TITLE_LENGTH = 255;
+
+    private final SongDao songDao;
+    private final Path root;
+    private final int parallelism;
+    private final int batchSize;
+    private final WaveformService waveformService;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile ScanResult lastResult;
+
+    /** {@code waveformService} may be null, in which case no waveforms are computed during scans. */
+    public LibraryScanner(SongDao songDao, Path root, int parallelism, int batchSize,
+                          WaveformService waveformService) {
+        this.songDao = songDao;
+        this.root = root.toAbsolutePath().normalize();
+        this.parallelism = Math.max(1, parallelism);
+        this.batchSize = Math.max(1, batchSize);
+        this.waveformService = waveformService;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /** The result of the last completed scan, or null if there has been none. */
+    public ScanResult getLastResult() {
+        return lastResult;
+    }
+
+    /**
+     * Scans the whole root and waits for it to finish. Returns null without scanning if another
+     * scan is already in progress.
+     */
+    public ScanResult scan() throws IOException, SQLException {
+        if (!running.compareAndSet(false, true)) {
+            return null;
+        }
+        try {
+            if (!Files.isDirectory(root)) {
+                throw new IOException("Library root is not a directory: " + root);
+            }
+            long start = System.currentTimeMillis();
+            ScanResult result = new ScanResult();
+            Map<String, Song> known = songDao.getFileStamps();
+            Set<String> present = ConcurrentHashMap.newKeySet();
+            // Bounded, so workers wait for the database rather than piling up parsed songs
+            BlockingQueue<Song> found = new LinkedBlockingQueue<>(batchSize * 4);
+
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                ForkJoinTask<Void> walk = pool.submit(new DirectoryTask(root, known, present, found, result));
+                List<Song> added = new ArrayList<>(batchSize);
+                List<Song> changed = new ArrayList<>(batchSize);
+                while (!walk.isDone() || !found.isEmpty()) {
+                    Song song = found.poll(100, TimeUnit.MILLISECONDS);
+                    if (song == null) {
+                        continue;
+                    }
+                    (song.getId() == 0 ? added : changed).add(song);
+                    if (added.size() >= batchSize) {
+                        flush(added, false, result);
+                    }
+                    if (changed.size() >= batchSize) {
+                        flush(changed, true, result);
+                    }
+                }
+                walk.join();
+                flush(added, false, result);
+                flush(changed, true, result);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Library scan interrupted", e);
+            } finally {
+                pool.shutdownNow();
+            }
+
+            for (String path : known.keySet()) {
+                if (!present.contains(path) && Paths.get(path).startsWith(root)) {
+                    result.missing++;
+                }
+            }
+            result.millis = System.currentTimeMillis() - start;
+            lastResult = result;
+            return result;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void flush(List<Song> songs, boolean update, ScanResult result) {
+        if (songs.isEmpty()) {
+            return;
+        }
+        SongDao.RowErrorHandler onError = (index, message) -> {
+            result.failed.incrementAndGet();
+            System.out.println("Error while scanning " + songs.get(index).getAudioFilePath() + ": " + message);
+        };
+        if (update) {
+            result.updated += songDao.updateSongs(songs, onError);
+        } else {
+            result.added += songDao.addSongs(songs, onError);
+        }
+        if (waveformService != null) {
+            for (Song song : songs) {
+                String path = song.getAudioFilePath();
+                // A full queue is fine: the player asks again, and /api/audio/peaks queues it then
+                if (path.toLowerCase().endsWith(".wav")) {
+                    waveformService.request(Paths.get(path), song.getFileSize(), song.getFileModified());
+                }
+            }
+        }
+        songs.clear();
+    }
+
+    /** Lists one directory: forks a task per subdirectory and checks the audio files itself. */
+    private final class DirectoryTask extends RecursiveAction {
+        private final Path directory;
+        private final Map<String, Song> known;
+        private final Set<String> present;
+        private final BlockingQueue<Song> found;
+        private final ScanResult result;
+
+        DirectoryTask(Path directory, Map<String, Song> known, Set<String> present,
+                      BlockingQueue<Song> found, ScanResult result) {
+            this.directory = directory;
+            this.known = known;
+            this.present = present;
+            this.found = found;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    // Symbolic links are not followed, so a link cycle cannot make the walk endless
+                    BasicFileAttributes attributes =
+                            Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        if (!entry.getFileName().toString().startsWith(".")) {
+                            subdirectories.add(new DirectoryTask(entry, known, present, found, result));
+                        }
+                    } else if (attributes.isRegularFile() && isAudioFile(entry)) {
+                        checkFile(entry, attributes);
+                    }
+                }
+            } catch (IOException e) {
+                result.failed.incrementAndGet();
+                System.out.println("Error while scanning " + directory + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            invokeAll(subdirectories);
+        }
+
+        private void checkFile(Path file, BasicFileAttributes attributes) throws InterruptedException {
+            result.filesSeen.incrementAndGet();
+            String path = file.toString();
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+
+            Song stamp = known.get(path);
+            if (stamp != null) {
+                present.add(path);
+                if (Long.valueOf(size).equals(stamp.getFileSize())
+                        && Long.valueOf(modified).equals(stamp.getFileModified())) {
+                    result.unchanged.incrementAndGet();
+                    return;
+                }
+            }
+
+            AudioMetadata metadata;
+            try {
+                metadata = AudioMetadata.read(file);
+            } catch (IOException | RuntimeException e) {
+                // A malformed file the parser did not expect fails alone, not the whole walk
+                result.failed.incrementAndGet();
+                System.out.println("Error while reading " + file + ": " + e);
+                return;
+            }
+            Song song = new Song();
+            if (stamp != null) {
+                song.setId(stamp.getId());
+            }
+            song.setTitle(orElse(metadata.getTitle(), baseName(file)));
+            song.setArtistName(orElse(metadata.getArtist(), folderName(file, 2)));
+            song.setAlbumName(orElse(metadata.getAlbum(), folderName(file, 1)));
+            song.setDurationSeconds(metadata.getDurationSeconds());
+            song.setAudioFilePath(path);
+            song.setFileSize(size);
+            song.setFileModified(modified);
+            song.setSeekTable(metadata.getSeekTable());
+            found.put(song);
+        }
+
+        /** Untagged files fall back to the usual Artist/Album/Track layout, inside the root only. */
+        private String folderName(Path file, int levelsUp) {
+            Path folder = file.getParent();
+            for (int i = 1; i < levelsUp && folder != null; i++) {
+                folder = folder.getParent();
+            }
+            if (folder == null || folder.equals(root) || !folder.startsWith(root)) {
+                return "Unknown";
+            }
+            return folder.getFileName().toString();
+        }
+    }
+
+    private static boolean isAudioFile(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && AUDIO_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase());
+    }
+
+    private static String baseName(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+
+    private static String orElse(String value, String fallback) {
+        String chosen = value != null ? value : fallback;
+        return chosen.length() > MAX_TITLE_LENGTH ? chosen.substring(0, MAX_TITLE_LENGTH) : chosen;
+    }
+
+    /** Counts for one scan. */
+    public static class ScanResult {
+        private final AtomicInteger filesSeen = new AtomicInteger();
+        private final AtomicInteger unchanged = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private int added;
+        private int updated;
+        private int missing;
+        private long millis;
+
+        public int getFilesSeen() {
+            return filesSeen.get();
+        }
+
+        public int getUnchanged() {
+            return unchanged.get();
+        }
+
+        public int getAdded() {
+            return added;
+        }
+
+        public int getUpdated() {
+            return updated;
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+
+        /** Songs under the root whose file was not found. */
+        public int getMissing() {
+            return missing;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+    }
+}
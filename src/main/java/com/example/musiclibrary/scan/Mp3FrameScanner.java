@@ -0,0 +1,210 @@
+package com.example.musiclibrary.scan;
+
+import com.example.musiclibrary.model.SeekTable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Walks the frame headers of an MP3 from the first frame to the last, which gives the exact
+ * duration of constant and variable bitrate files alike and the byte offset of every frame.
+ *
+ * A Xing, Info (LAME) or VBRI tag in the first frame is recognised and skipped: that frame holds
+ * no audio, so counting it would add a frame to the duration and make frame 0 point at silence.
+ * The frame counts those tags declare are not trusted, since tag editors often leave them stale.
+ * Junk between frames (a truncated frame, an APE tag) is skipped by resynchronising on the next
+ * pair of consecutive valid headers.
+ */
+public final class Mp3FrameScanner {
+    private static final int BUFFER_BYTES = 64 * 1024;
+    /** Aim for a seek table entry about this often. */
+    private static final int ENTRY_MILLIS = 500;
+    /** Long files get a coarser table rather than a bigger one. */
+    private static final int MAX_ENTRIES = 8192;
+
+    private Mp3FrameScanner() {
+    }
+
+    /** Seek table for the audio between the two offsets, or null if it holds no MPEG frames. */
+    public static SeekTable scan(FileChannel channel, long audioStart, long audioEnd) throws IOException {
+        Window window = new Window(channel, audioEnd);
+        long pos = sync(window, audioStart);
+        if (pos < 0) {
+            return null;
+        }
+        MpegFrameHeader first = window.header(pos);
+        if (isInfoFrame(window, pos, first)) {
+            pos += first.getFrameLength();
+        }
+
+        int framesPerEntry = Math.max(1, (int) Math.round(
+                ENTRY_MILLIS / 1000.0 * first.getSampleRate() / first.getSamplesPerFrame()));
+        long[] offsets = new long[256];
+        int entries = 0;
+        long frames = 0;
+        while (pos + 4 <= audioEnd) {
+            MpegFrameHeader frame = window.header(pos);
+            if (frame == null || !sameStream(first, frame)) {
+                pos = sync(window, pos + 1);
+                if (pos < 0) {
+                    break;
+                }
+                continue;
+            }
+            if (pos + frame.getFrameLength() > audioEnd) {
+                // the last frame was cut short
+                break;
+            }
+            if (frames % framesPerEntry == 0) {
+                if (entries == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, entries * 2);
+                }
+                offsets[entries++] = pos;
+            }
+            frames++;
+            pos += frame.getFrameLength();
+        }
+        if (frames == 0) {
+            return null;
+        }
+
+        if (entries > MAX_ENTRIES) {
+            int step = (entries + MAX_ENTRIES - 1) / MAX_ENTRIES;
+            int kept = 0;
+            for (int i = 0; i < entries; i += step) {
+                offsets[kept++] = offsets[i];
+            }
+            entries = kept;
+            framesPerEntry *= step;
+        }
+        return new SeekTable(framesPerEntry, first.getSamplesPerFrame(), first.getSampleRate(), frames,
+                Arrays.copyOf(offsets, entries));
+    }
+
+    /**
+     * The frame playing at {@code millis}: the nearest table entry at or before it, then a walk of
+     * at most {@code framesPerEntry} headers from there.
+     */
+    public static SeekPoint seek(FileChannel channel, SeekTable table, long millis) throws IOException {
+        long target = table.frameAt(millis);
+        int index = (int) Math.min(target / table.getFramesPerEntry(), table.size() - 1);
+        long frame = (long) index * table.getFramesPerEntry();
+        long pos = table.getOffset(index);
+
+        Window window = new Window(channel, channel.size());
+        while (frame < target) {
+            MpegFrameHeader header = window.header(pos);
+            if (header == null) {
+                break;
+            }
+            pos += header.getFrameLength();
+            frame++;
+        }
+        return new SeekPoint(pos, table.frameMillis(frame));
+    }
+
+    /** First offset at or after {@code from} holding a valid header followed by another one. */
+    private static long sync(Window window, long from) throws IOException {
+        for (long pos = from; pos + 4 <= window.end; pos++) {
+            MpegFrameHeader frame = window.header(pos);
+            if (frame == null) {
+                continue;
+            }
+            long next = pos + frame.getFrameLength();
+            if (next + 4 > window.end) {
+                if (next <= window.end) {
+                    return pos;
+                }
+                continue;
+            }
+            MpegFrameHeader following = window.header(next);
+            if (following != null && sameStream(frame, following)) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean sameStream(MpegFrameHeader a, MpegFrameHeader b) {
+        return a.getVersion() == b.getVersion() && a.getLayer() == b.getLayer()
+                && a.getSampleRate() == b.getSampleRate();
+    }
+
+    /** Whether the frame is a Xing/Info tag (after the side information) or a VBRI tag (at a fixed 32 bytes). */
+    private static boolean isInfoFrame(Window window, long pos, MpegFrameHeader frame) throws IOException {
+        if (frame.getLayer() != 3) {
+            return false;
+        }
+        String xing = window.fourCc(pos + 4 + frame.getSideInfoLength());
+        return "Xing".equals(xing) || "Info".equals(xing) || "VBRI".equals(window.fourCc(pos + 4 + 32));
+    }
+
+    /** Sequential reads through the file in large blocks, refilled as the position moves past them. */
+    private static final class Window {
+        private final FileChannel channel;
+        private final long end;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        private final byte[] bytes = buffer.array();
+        private long start = -1;
+        private int length;
+
+        Window(FileChannel channel, long end) {
+            this.channel = channel;
+            this.end = end;
+        }
+
+        MpegFrameHeader header(long pos) throws IOException {
+            return load(pos, 4) ? MpegFrameHeader.parse(bytes, (int) (pos - start)) : null;
+        }
+
+        String fourCc(long pos) throws IOException {
+            if (!load(pos, 4)) {
+                return null;
+            }
+            int offset = (int) (pos - start);
+            return new String(bytes, offset, 4, StandardCharsets.ISO_8859_1);
+        }
+
+        /** Makes {@code count} bytes at {@code pos} available; false if they lie past the end. */
+        private boolean load(long pos, int count) throws IOException {
+            if (pos + count > end) {
+                return false;
+            }
+            if (start >= 0 && pos >= start && pos + count <= start + length) {
+                return true;
+            }
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_BYTES, end - pos));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, pos + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            start = pos;
+            length = buffer.position();
+            return length >= count;
+        }
+    }
+
+    /** Where to start reading to play from a given time, and the exact time that frame starts. */
+    public static final class SeekPoint {
+        private final long offset;
+        private final long millis;
+
+        SeekPoint(long offset, long millis) {
+            this.offset = offset;
+            this.millis = millis;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.musiclibrary.scan;
+
+/**
+ * The 4-byte header in front of every MPEG audio frame: version, layer, bitrate and sample rate,
+ * and from those the length of the frame in bytes.
+ */
+public final class MpegFrameHeader {
+    /** Bits 19-20 of the header. */
+    public static final int MPEG_2_5 = 0;
+    public static final int MPEG_2 = 2;
+    public static final int MPEG_1 = 3;
+
+    // kbps by bitrate index; index 0 is "free format" and 15 is invalid
+    private static final int[] V1_LAYER1 = {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448};
+    private static final int[] V1_LAYER2 = {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384};
+    private static final int[] V1_LAYER3 = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+    private static final int[] V2_LAYER1 = {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256};
+    private static final int[] V2_LAYER23 = {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160};
+
+    private static final int[] MPEG1_SAMPLE_RATES = {44100, 48000, 32000};
+
+    private final int version;
+    private final int layer;
+    private final int bitrate;
+    private final int sampleRate;
+    private final boolean padding;
+    private final boolean mono;
+
+    private MpegFrameHeader(int version, int layer, int bitrate, int sampleRate, boolean padding, boolean mono) {
+        this.version = version;
+        this.layer = layer;
+        this.bitrate = bitrate;
+        this.sampleRate = sampleRate;
+        this.padding = padding;
+        this.mono = mono;
+    }
+
+    /** The header at {@code offset}, or null if those bytes are not a usable frame header. */
+    public static MpegFrameHeader parse(byte[] buffer, int offset) {
+        if (offset < 0 || offset + 4 > buffer.length) {
+            return null;
+        }
+        int b1 = buffer[offset + 1] & 0xFF;
+        int b2 = buffer[offset + 2] & 0xFF;
+        int b3 = buffer[offset + 3] & 0xFF;
+        if ((buffer[offset] & 0xFF) != 0xFF || (b1 & 0xE0) != 0xE0) {
+            return null;
+        }
+        int version = (b1 >> 3) & 0x03;
+        int layer = 4 - ((b1 >> 1) & 0x03);
+        int bitrateIndex = (b2 >> 4) & 0x0F;
+        int sampleRateIndex = (b2 >> 2) & 0x03;
+        if (version == 1 || layer == 4 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+            // reserved values, or free format whose frame length cannot be computed
+            return null;
+        }
+
+        int[] bitrates;
+        if (version == MPEG_1) {
+            bitrates = layer == 1 ? V1_LAYER1 : layer == 2 ? V1_LAYER2 : V1_LAYER3;
+        } else {
+            bitrates = layer == 1 ? V2_LAYER1 : V2_LAYER23;
+        }
+        int sampleRate = MPEG1_SAMPLE_RATES[sampleRateIndex];
+        if (version == MPEG_2) {
+            sampleRate /= 2;
+        } else if (version == MPEG_2_5) {
+            sampleRate /= 4;
+        }
+        return new MpegFrameHeader(version, layer, bitrates[bitrateIndex] * 1000, sampleRate,
+                (b2 & 0x02) != 0, ((b3 >> 6) & 0x03) == 3);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getLayer() {
+        return layer;
+    }
+
+    /** Bits per second. */
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public boolean isMono() {
+        return mono;
+    }
+
+    public int getSamplesPerFrame() {
+        if (layer == 1) {
+            return 384;
+        }
+        return layer == 3 && version != MPEG_1 ? 576 : 1152;
+    }
+
+    /** Layer III side information between the header and the main data; where Xing/Info tags sit. */
+    public int getSideInfoLength() {
+        if (version == MPEG_1) {
+            return mono ? 17 : 32;
+        }
+        return mono ? 9 : 17;
+    }
+
+    /** Bytes in the whole frame, header included. */
+    public int getFrameLength() {
+        if (layer == 1) {
+            return (12 * bitrate / sampleRate + (padding ? 1 : 0)) * 4;
+        }
+        return getSamplesPerFrame() / 8 * bitrate / sampleRate + (padding ? 1 : 0);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.musiclibrary.scan;
+
+/** The sample layout of a WAV file and where its sample data lies, from the fmt and data chunks. */
+public final class WavFormat {
+    public static final int PCM = 1;
+    public static final int IEEE_FLOAT = 3;
+    public static final int EXTENSIBLE = 0xFFFE;
+
+    private final int formatTag;
+    private final int channels;
+    private final int sampleRate;
+    private final int blockAlign;
+    private final int bitsPerSample;
+    private final long dataOffset;
+    private final long dataSize;
+
+    WavFormat(int formatTag, int channels, int sampleRate, int blockAlign, int bitsPerSample,
+              long dataOffset, long dataSize) {
+        this.formatTag = formatTag;
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+        this.blockAlign = blockAlign;
+        this.bitsPerSample = bitsPerSample;
+        this.dataOffset = dataOffset;
+        this.dataSize = dataSize;
+    }
+
+    /** {@link #PCM} or {@link #IEEE_FLOAT}; for {@link #EXTENSIBLE} files, the sub-format's tag. */
+    public int getFormatTag() {
+        return formatTag;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /** Bytes per frame: one sample for every channel. */
+    public int getBlockAlign() {
+        return blockAlign;
+    }
+
+    public int getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    public long getDataSize() {
+        return dataSize;
+    }
+
+    public long getFrameCount() {
+        return blockAlign > 0 ? dataSize / blockAlign : 0;
+    }
+
+    public long getDurationMillis() {
+        return sampleRate > 0 ? getFrameCount() * 1000 / sampleRate : 0;
+    }
+}
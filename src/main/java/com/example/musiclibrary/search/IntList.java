@@ -0,0 +1,88 @@
+package com.example.musiclibrary.search;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * Growable list of primitive ints. Posting lists only ever receive increasing doc ids,
+ * so every list stays sorted and can be intersected with a linear merge.
+ */
+class IntList {
+
+    private int[] values;
+    private int size;
+
+    IntList() {
+        this(4);
+    }
+
+    IntList(int capacity) {
+        this.values = new int[Math.max(1, capacity)];
+    }
+
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1) + 1);
+        }
+        values[size++] = value;
+    }
+
+    /** Appends the value unless it is already the last element. */
+    void addIfAbsentAtEnd(int value) {
+        if (size == 0 || values[size - 1] != value) {
+            add(value);
+        }
+    }
+
+    int get(int index) {
+        return values[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Sorted intersection of two sorted lists. */
+    static IntList intersect(IntList a, IntList b) {
+        IntList result = new IntList(Math.min(a.size, b.size));
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            int x = a.values[i];
+            int y = b.values[j];
+            if (x == y) {
+                result.add(x);
+                i++;
+                j++;
+            } else if (x < y) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sorted union of any number of lists of ids below {@code universe}, without duplicates. Every
+     * id is marked once in a bit set and the set is read back once, so the cost is the total
+     * length of the lists plus {@code universe / 64}, however many lists there are.
+     */
+    static IntList unionAll(Collection<IntList> lists, int universe) {
+        if (lists.size() == 1) {
+            return lists.iterator().next();
+        }
+        BitSet marked = new BitSet(universe);
+        for (IntList list : lists) {
+            for (int i = 0; i < list.size; i++) {
+                marked.set(list.values[i]);
+            }
+        }
+        IntList result = new IntList(marked.cardinality());
+        for (int id = marked.nextSetBit(0); id >= 0; id = marked.nextSetBit(id + 1)) {
+            result.add(id);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,330 @@
+package com.example.musiclibrary.search;
+
+import com.example.musiclibrary.dao.SongChangeListener;
+import com.example.musiclibrary.dao.SongDao;
+import com.example.musiclibrary.model.Song;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index over song title, artist name and album name.
+ *
+ * Each song gets an internal doc id; postings are sorted primitive int lists keyed by word
+ * (for prefix lookups of short query terms) and by character trigram (for substring lookups
+ * of terms of three or more characters). Candidates from the postings are verified against the
+ * normalized text and ranked: title beats artist beats album, and an exact word beats a word
+ * prefix beats a plain substring.
+ *
+ * Built once at startup from the songs table and kept current through {@link SongChangeListener}.
+ */
+public class SongSearchIndex implements SongChangeListener {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final int TITLE_WEIGHT = 3;
+    private static final int ARTIST_WEIGHT = 2;
+    private static final int ALBUM_WEIGHT = 1;
+    private static final int EXACT_WORD = 3;
+    private static final int WORD_PREFIX = 2;
+    private static final int SUBSTRING = 1;
+    private static final int TITLE_PREFIX_BONUS = 2;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Doc> docs = new ArrayList<>();
+    private final Map<Integer, Integer> docBySongId = new HashMap<>();
+    private final TreeMap<String, IntList> wordPostings = new TreeMap<>();
+    private final Map<Long, IntList> trigramPostings = new HashMap<>();
+    private int deletedDocs;
+
+    /** Loads every song through {@link SongDao#forEachSong}. */
+    public static SongSearchIndex build(SongDao songDao) throws SQLException, IOException {
+        SongSearchIndex index = new SongSearchIndex();
+        songDao.forEachSong(index::add);
+        return index;
+    }
+
+    /** Adds a song, replacing any earlier entry with the same id. */
+    public void add(Song song) {
+        Doc doc = new Doc(copyOf(song));
+        lock.writeLock().lock();
+        try {
+            removeLocked(song.getId());
+            int docId = docs.size();
+            docs.add(doc);
+            docBySongId.put(song.getId(), docId);
+            indexField(docId, doc.title, doc.titleWords);
+            indexField(docId, doc.artist, doc.artistWords);
+            indexField(docId, doc.album, doc.albumWords);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int songId) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(songId);
+            if (deletedDocs > 64 && deletedDocs > docBySongId.size()) {
+                compactLocked();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docBySongId.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void songAdded(Song song) {
+        add(song);
+    }
+
+    @Override
+    public void songDeleted(int songId) {
+        remove(songId);
+    }
+
+    /**
+     * Songs matching every word of the query, best match first.
+     * Words of three or more characters match anywhere in a field; shorter words match word prefixes.
+     */
+    public List<Song> search(String query, int limit) {
+        String normalizedQuery = normalize(query);
+        Set<String> queryWords = new LinkedHashSet<>();
+        for (String word : NON_WORD.split(normalizedQuery)) {
+            if (!word.isEmpty()) {
+                queryWords.add(word);
+            }
+        }
+        if (queryWords.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String phrase = String.join(" ", queryWords);
+
+        List<ScoredDoc> hits = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            IntList candidates = null;
+            for (String word : queryWords) {
+                IntList matches = word.length() >= 3 ? trigramCandidates(word) : prefixCandidates(word);
+                candidates = candidates == null ? matches : IntList.intersect(candidates, matches);
+                if (candidates.size() == 0) {
+                    return Collections.emptyList();
+                }
+            }
+
+            for (int i = 0; i < candidates.size(); i++) {
+                Doc doc = docs.get(candidates.get(i));
+                if (doc == null) {
+                    continue;
+                }
+                int score = score(doc, queryWords);
+                if (score > 0) {
+                    if (doc.title.startsWith(phrase)) {
+                        score += TITLE_PREFIX_BONUS;
+                    }
+                    hits.add(new ScoredDoc(doc, score));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        hits.sort((a, b) -> {
+            if (a.score != b.score) {
+                return Integer.compare(b.score, a.score);
+            }
+            int byTitle = a.doc.title.compareTo(b.doc.title);
+            return byTitle != 0 ? byTitle : Integer.compare(a.doc.song.getId(), b.doc.song.getId());
+        });
+
+        List<Song> results = new ArrayList<>(Math.min(limit, hits.size()));
+        for (int i = 0; i < hits.size() && i < limit; i++) {
+            results.add(hits.get(i).doc.song);
+        }
+        return results;
+    }
+
+    // ---- Scoring ----
+
+    /** Sum of each query word's best field match, or 0 if any word does not really match. */
+    private static int score(Doc doc, Set<String> queryWords) {
+        int total = 0;
+        for (String word : queryWords) {
+            int best = Math.max(TITLE_WEIGHT * matchStrength(doc.title, doc.titleWords, word),
+                    Math.max(ARTIST_WEIGHT * matchStrength(doc.artist, doc.artistWords, word),
+                            ALBUM_WEIGHT * matchStrength(doc.album, doc.albumWords, word)));
+            if (best == 0) {
+                return 0;
+            }
+            total += best;
+        }
+        return total;
+    }
+
+    private static int matchStrength(String field, String[] fieldWords, String word) {
+        int strength = 0;
+        for (String fieldWord : fieldWords) {
+            if (fieldWord.equals(word)) {
+                return EXACT_WORD;
+            }
+            if (fieldWord.startsWith(word)) {
+                strength = WORD_PREFIX;
+            }
+        }
+        if (strength == 0 && word.length() >= 3 && field.contains(word)) {
+            strength = SUBSTRING;
+        }
+        return strength;
+    }
+
+    // ---- Postings ----
+
+    private IntList trigramCandidates(String word) {
+        IntList result = null;
+        for (int i = 0; i + 3 <= word.length(); i++) {
+            IntList postings = trigramPostings.get(trigram(word, i));
+            if (postings == null) {
+                return new IntList(1);
+            }
+            if (result == null) {
+                result = postings;
+            } else {
+                result = result.size() <= postings.size()
+                        ? IntList.intersect(result, postings) : IntList.intersect(postings, result);
+            }
+        }
+        return result;
+    }
+
+    private IntList prefixCandidates(String prefix) {
+        NavigableMap<String, IntList> range = wordPostings.subMap(prefix, true, prefix + Character.MAX_VALUE, true);
+        if (range.isEmpty()) {
+            return new IntList(1);
+        }
+        // One pass over all matching words: a short prefix can match thousands of them
+        return IntList.unionAll(range.values(), docs.size());
+    }
+
+    private void indexField(int docId, String text, String[] words) {
+        for (String word : words) {
+            wordPostings.computeIfAbsent(word, k -> new IntList()).addIfAbsentAtEnd(docId);
+        }
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            trigramPostings.computeIfAbsent(trigram(text, i), k -> new IntList()).addIfAbsentAtEnd(docId);
+        }
+    }
+
+    private void removeLocked(int songId) {
+        Integer docId = docBySongId.remove(songId);
+        if (docId != null) {
+            // postings keep the stale doc id; lookups skip null docs until the next compaction
+            docs.set(docId, null);
+            deletedDocs++;
+        }
+    }
+
+    private void compactLocked() {
+        List<Doc> live = new ArrayList<>(docBySongId.size());
+        for (Doc doc : docs) {
+            if (doc != null) {
+                live.add(doc);
+            }
+        }
+        docs.clear();
+        docBySongId.clear();
+        wordPostings.clear();
+        trigramPostings.clear();
+        deletedDocs = 0;
+        for (Doc doc : live) {
+            int docId = docs.size();
+            docs.add(doc);
+            docBySongId.put(doc.song.getId(), docId);
+            indexField(docId, doc.title, doc.titleWords);
+            indexField(docId, doc.artist, doc.artistWords);
+            indexField(docId, doc.album, doc.albumWords);
+        }
+    }
+
+    private static long trigram(String text, int offset) {
+        return ((long) text.charAt(offset) << 32) | ((long) text.charAt(offset + 1) << 16) | text.charAt(offset + 2);
+    }
+
+    /** Lower case, accents stripped, runs of non-word characters collapsed to a single space. */
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        String stripped = MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+        return NON_WORD.matcher(stripped).replaceAll(" ").trim();
+    }
+
+    private static String[] words(String normalized) {
+        return normalized.isEmpty() ? new String[0] : normalized.split(" ");
+    }
+
+    private static Song copyOf(Song song) {
+        Song copy = new Song();
+        copy.setId(song.getId());
+        copy.setTitle(song.getTitle());
+        copy.setArtistName(song.getArtistName());
+        copy.setAlbumName(song.getAlbumName());
+        copy.setDurationSeconds(song.getDurationSeconds());
+        copy.setAudioFilePath(song.getAudioFilePath());
+        return copy;
+    }
+
+    private static final class Doc {
+        final Song song;
+        final String title;
+        final String artist;
+        final String album;
+        final String[] titleWords;
+        final String[] artistWords;
+        final String[] albumWords;
+
+        Doc(Song song) {
+            this.song = song;
+            this.title = normalize(song.getTitle());
+            this.artist = normalize(song.getArtistName());
+            this.album = normalize(song.getAlbumName());
+            this.titleWords = words(title);
+            this.artistWords = words(artist);
+            this.albumWords = words(album);
+        }
+    }
+
+    private static final class ScoredDoc {
+        final Doc doc;
+        final int score;
+
+        ScoredDoc(Doc doc, int score) {
+            this.doc = doc;
+            this.score = score;
+        }
+    }
+}
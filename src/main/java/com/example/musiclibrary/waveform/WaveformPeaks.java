@@ -0,0 +1,202 @@
+package com.example.musiclibrary.waveform;
+
+import com.example.musiclibrary.scan.AudioMetadata;
+import com.example.musiclibrary.scan.WavFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A fixed number of min/max pairs summarising a track's waveform, and the sidecar file they are
+ * kept in. Every channel goes into the same pairs; each value is a signed byte, -127 to 127 for
+ * full scale.
+ *
+ * The sidecar (and the {@code /api/audio/peaks} response) is big-endian:
+ * <pre>
+ *   0  "MLPK"
+ *   4  version (1 byte), bits per value (1 byte, always 8), 2 reserved bytes
+ *   8  size of the audio file it was computed from (8 bytes)
+ *  16  modification time of that file, epoch millis (8 bytes)
+ *  24  sample rate (4 bytes)
+ *  28  duration in milliseconds (8 bytes)
+ *  36  number of pairs (4 bytes)
+ *  40  the pairs: min, max, min, max, ...
+ * </pre>
+ */
+public final class WaveformPeaks {
+    public static final int DEFAULT_BINS = 1000;
+
+    private static final byte[] MAGIC = {'M', 'L', 'P', 'K'};
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 40;
+    private static final int READ_BUFFER_BYTES = 256 * 1024;
+
+    private final long sourceSize;
+    private final long sourceModified;
+    private final int sampleRate;
+    private final long durationMillis;
+    private final byte[] pairs;
+
+    private WaveformPeaks(long sourceSize, long sourceModified, int sampleRate, long durationMillis, byte[] pairs) {
+        this.sourceSize = sourceSize;
+        this.sourceModified = sourceModified;
+        this.sampleRate = sampleRate;
+        this.durationMillis = durationMillis;
+        this.pairs = pairs;
+    }
+
+    public int getBinCount() {
+        return pairs.length / 2;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * Decodes the whole file into {@code bins} pairs. Returns null if it is not a WAV holding 8,
+     * 16, 24 or 32-bit integer or 32/64-bit float samples.
+     */
+    public static WaveformPeaks compute(Path file, long sourceSize, long sourceModified, int bins) throws IOException {
+        WavFormat format = AudioMetadata.read(file).getWavFormat();
+        if (format == null || !isSupported(format) || format.getFrameCount() == 0) {
+            return null;
+        }
+        long frames = format.getFrameCount();
+        int binCount = (int) Math.min(bins, frames);
+        float[] min = new float[binCount];
+        float[] max = new float[binCount];
+
+        int bytesPerSample = format.getBitsPerSample() / 8;
+        int channels = format.getChannels();
+        int blockAlign = format.getBlockAlign();
+        boolean floating = format.getFormatTag() == WavFormat.IEEE_FLOAT;
+        // Whole frames per read, so no sample straddles two buffers
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(blockAlign, READ_BUFFER_BYTES / blockAlign * blockAlign))
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long frame = 0;
+            long position = format.getDataOffset();
+            while (frame < frames) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), (frames - frame) * blockAlign));
+                readFully(channel, buffer, position);
+                int readFrames = buffer.position() / blockAlign;
+                if (readFrames == 0) {
+                    break;
+                }
+                for (int f = 0; f < readFrames; f++, frame++) {
+                    int bin = (int) (frame * binCount / frames);
+                    int base = f * blockAlign;
+                    for (int c = 0; c < channels; c++) {
+                        float sample = sample(buffer, base + c * bytesPerSample, bytesPerSample, floating);
+                        if (sample < min[bin]) {
+                            min[bin] = sample;
+                        }
+                        if (sample > max[bin]) {
+                            max[bin] = sample;
+                        }
+                    }
+                }
+                position += (long) readFrames * blockAlign;
+            }
+        }
+
+        byte[] pairs = new byte[binCount * 2];
+        for (int i = 0; i < binCount; i++) {
+            pairs[2 * i] = toByte(min[i]);
+            pairs[2 * i + 1] = toByte(max[i]);
+        }
+        return new WaveformPeaks(sourceSize, sourceModified, format.getSampleRate(), format.getDurationMillis(), pairs);
+    }
+
+    private static boolean isSupported(WavFormat format) {
+        int bits = format.getBitsPerSample();
+        if (format.getChannels() < 1 || format.getBlockAlign() < format.getChannels() * (bits / 8) || bits % 8 != 0) {
+            return false;
+        }
+        if (format.getFormatTag() == WavFormat.PCM) {
+            return bits >= 8 && bits <= 32;
+        }
+        return format.getFormatTag() == WavFormat.IEEE_FLOAT && (bits == 32 || bits == 64);
+    }
+
+    /** One sample scaled to -1..1. 8-bit WAV samples are unsigned; wider ones are signed. */
+    private static float sample(ByteBuffer buffer, int offset, int bytes, boolean floating) {
+        if (floating) {
+            return bytes == 4 ? buffer.getFloat(offset) : (float) buffer.getDouble(offset);
+        }
+        switch (bytes) {
+            case 1:
+                return ((buffer.get(offset) & 0xFF) - 128) / 128f;
+            case 2:
+                return buffer.getShort(offset) / 32768f;
+            case 3:
+                int value = (buffer.get(offset) & 0xFF) | ((buffer.get(offset + 1) & 0xFF) << 8)
+                        | (buffer.get(offset + 2) << 16);
+                return value / 8388608f;
+            default:
+                return buffer.getInt(offset) / 2147483648f;
+        }
+    }
+
+    /** Fills the buffer from {@code position}, stopping early only at the end of the file. */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                return;
+            }
+        }
+    }
+
+    private static byte toByte(float value) {
+        return (byte) Math.max(-127, Math.min(127, Math.round(value * 127)));
+    }
+
+    /** Whether the sidecar holds peaks for this exact version of the audio file. */
+    public static boolean isCurrent(Path sidecar, long sourceSize, long sourceModified) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        try (FileChannel channel = FileChannel.open(sidecar, StandardOpenOption.READ)) {
+            readFully(channel, header, 0);
+        } catch (IOException e) {
+            return false;
+        }
+        if (header.position() < HEADER_BYTES) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header.get(i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return header.get(4) == VERSION && header.getLong(8) == sourceSize && header.getLong(16) == sourceModified;
+    }
+
+    /** Writes the sidecar next to a temporary name first, so readers never see half a file. */
+    public void write(Path sidecar) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.put(MAGIC).put((byte) VERSION).put((byte) 8).putShort((short) 0)
+                .putLong(sourceSize).putLong(sourceModified)
+                .putInt(sampleRate).putLong(durationMillis).putInt(getBinCount());
+
+        Path temp = Files.createTempFile(sidecar.toAbsolutePath().getParent(), ".peaks", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(header.array());
+                out.write(pairs);
+            }
+            Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.musiclibrary.waveform;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes waveform peaks off the request path and keeps them in a sidecar next to each audio file
+ * ({@code song.wav} -> {@code song.wav.peaks}).
+ *
+ * Work runs on a small pool of low-priority daemon threads behind a bounded queue, so a burst of
+ * requests or a large library scan can never take CPU or disk time away from streaming; when the
+ * queue is full the request is simply refused and the caller asks again later. A file already
+ * queued or being decoded is not queued twice.
+ */
+public class WaveformService {
+    public static final String SIDECAR_SUFFIX = ".peaks";
+
+    /** Failures remembered so a bad file is not decoded again on every request; cleared when this many pile up. */
+    private static final int MAX_REMEMBERED_FAILURES = 10_000;
+
+    public enum Status {
+        /** Queued now, or already queued or running. */
+        PENDING,
+        /** The queue is full; try again later. */
+        BUSY,
+        /** This version of the file could not be decoded or the sidecar could not be written. */
+        FAILED
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final int bins;
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+
+    public WaveformService(int threads, int queueCapacity, int bins) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "waveform-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+        this.bins = bins;
+    }
+
+    public static Path sidecarFor(Path audio) {
+        return Paths.get(audio.toString() + SIDECAR_SUFFIX);
+    }
+
+    /** The sidecar if it holds peaks for this version of the file, otherwise null. */
+    public Path getPeaks(Path audio, long size, long modified) {
+        Path sidecar = sidecarFor(audio);
+        return WaveformPeaks.isCurrent(sidecar, size, modified) ? sidecar : null;
+    }
+
+    /** Asks for the sidecar to be (re)computed in the background. */
+    public Status request(Path audio, long size, long modified) {
+        String version = audio + "|" + size + "|" + modified;
+        if (failed.contains(version)) {
+            return Status.FAILED;
+        }
+        if (!inFlight.add(audio)) {
+            return Status.PENDING;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    compute(audio, size, modified, version);
+                } finally {
+                    inFlight.remove(audio);
+                }
+            });
+            return Status.PENDING;
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(audio);
+            return Status.BUSY;
+        }
+    }
+
+    private void compute(Path audio, long size, long modified, String version) {
+        try {
+            long start = System.currentTimeMillis();
+            WaveformPeaks peaks = WaveformPeaks.compute(audio, size, modified, bins);
+            if (peaks == null) {
+                rememberFailure(version);
+                System.out.println("No waveform for " + audio + ": not a PCM or float WAV file");
+                return;
+            }
+            peaks.write(sidecarFor(audio));
+            System.out.println("Computed waveform for " + audio + " in " + (System.currentTimeMillis() - start) + "ms");
+        } catch (IOException e) {
+            rememberFailure(version);
+            System.out.println("Error while computing waveform for " + audio + ": " + e.getMessage());
+        }
+    }
+
+    private void rememberFailure(String version) {
+        if (failed.size() >= MAX_REMEMBERED_FAILURES) {
+            failed.clear();
+        }
+        failed.add(version);
+    }
+
+    /** Jobs waiting for a thread. */
+    public int getQueuedJobs() {
+        return executor.getQueue().size();
+    }
+
+    /** Jobs being decoded right now. */
+    public int getActiveJobs() {
+        return executor.getActiveCount();
+    }
+}
@@ -0,0 +1,64 @@
+-- Base schema, taken from sql/music_library_schema.sql (without the sample data).
+-- Every table uses IF NOT EXISTS so databases created by older builds are adopted as-is.
+
+CREATE TABLE IF NOT EXISTS users (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    username VARCHAR(255) NOT NULL UNIQUE,
+    email VARCHAR(255) NOT NULL UNIQUE,
+    password VARCHAR(255) NOT NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS artists (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    name VARCHAR(255) NOT NULL UNIQUE
+);
+
+CREATE TABLE IF NOT EXISTS albums (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    name VARCHAR(255) NOT NULL,
+    artist_id INT NOT NULL,
+    CONSTRAINT fk_album_artist FOREIGN KEY (artist_id)
+        REFERENCES artists (id) ON DELETE CASCADE,
+    CONSTRAINT uc_album_artist_name UNIQUE (name, artist_id)
+);
+
+CREATE TABLE IF NOT EXISTS songs (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    title VARCHAR(255) NOT NULL,
+    artist_id INT NOT NULL,
+    album_id INT NOT NULL,
+    duration_seconds INT NOT NULL,
+    audio_file_path VARCHAR(500),
+    user_id INT,
+    CONSTRAINT fk_song_artist FOREIGN KEY (artist_id)
+        REFERENCES artists (id) ON DELETE CASCADE,
+    CONSTRAINT fk_song_album FOREIGN KEY (album_id)
+        REFERENCES albums (id) ON DELETE CASCADE,
+    CONSTRAINT fk_song_user FOREIGN KEY (user_id)
+        REFERENCES users (id) ON DELETE SET NULL
+);
+
+CREATE TABLE IF NOT EXISTS playlists (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    name VARCHAR(255) NOT NULL,
+    description VARCHAR(500),
+    user_id INT NOT NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    CONSTRAINT fk_playlist_user FOREIGN KEY (user_id)
+        REFERENCES users (id) ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS playlist_songs (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    playlist_id INT NOT NULL,
+    song_id INT NOT NULL,
+    position INT DEFAULT 0,
+    added_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT fk_playlist_song_playlist FOREIGN KEY (playlist_id)
+        REFERENCES playlists (id) ON DELETE CASCADE,
+    CONSTRAINT fk_playlist_song_song FOREIGN KEY (song_id)
+        REFERENCES songs (id) ON DELETE CASCADE,
+    CONSTRAINT uc_playlist_song_unique UNIQUE (playlist_id, song_id)
+);
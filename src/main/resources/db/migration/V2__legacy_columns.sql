@@ -0,0 +1,9 @@
+-- Columns that older builds added on the fly (SongDao and PlaylistServlet used to probe
+-- information_schema for them on every request). On databases that already have them
+-- the ALTERs fail with "duplicate column" and are skipped by the migrator.
+
+ALTER TABLE songs ADD COLUMN audio_file_path VARCHAR(500);
+
+ALTER TABLE playlists ADD COLUMN user_id INT;
+
+UPDATE playlists SET user_id = 1 WHERE user_id IS NULL;
@@ -0,0 +1,3 @@
+-- Supports ORDER BY title, id and keyset pagination on (title, id).
+
+CREATE INDEX idx_songs_title_id ON songs (title, id);
@@ -0,0 +1,6 @@
+-- Size and last-modified time (epoch millis) of each song's audio file as of the last library
+-- scan, so a re-scan only parses files that changed. NULL for songs the scanner has not seen.
+
+ALTER TABLE songs ADD COLUMN file_size BIGINT;
+
+ALTER TABLE songs ADD COLUMN file_modified BIGINT;
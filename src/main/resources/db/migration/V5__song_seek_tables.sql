@@ -0,0 +1,15 @@
+-- MP3 frame offsets for seeking by time (see SeekTable), with the file size and modification
+-- time they were computed from so a replaced file is never served with a stale table.
+
+CREATE TABLE IF NOT EXISTS song_seek_tables (
+    song_id INT PRIMARY KEY,
+    file_size BIGINT NOT NULL,
+    file_modified BIGINT NOT NULL,
+    frames_per_entry INT NOT NULL,
+    samples_per_frame INT NOT NULL,
+    sample_rate INT NOT NULL,
+    frame_count BIGINT NOT NULL,
+    offsets MEDIUMBLOB NOT NULL,
+    CONSTRAINT fk_seek_table_song FOREIGN KEY (song_id)
+        REFERENCES songs (id) ON DELETE CASCADE
+);
@@ -0,0 +1,22 @@
+-- Playlist order as sparse keys: songs are 65536 apart, so moving one only rewrites its own key
+-- (the midpoint of its new neighbours) and appending is MAX + 65536. Existing positions, which
+-- concurrent appends could duplicate, are renumbered in their current order (ties by insertion
+-- order), and a unique index then makes a clashing append or move fail and be retried.
+
+UPDATE playlist_songs SET position = 0 WHERE position IS NULL;
+
+ALTER TABLE playlist_songs MODIFY position BIGINT NOT NULL DEFAULT 0;
+
+DROP TABLE IF EXISTS playlist_song_ranks;
+
+CREATE TABLE playlist_song_ranks AS
+    SELECT ps.id, (SELECT COUNT(*) FROM playlist_songs o
+                   WHERE o.playlist_id = ps.playlist_id
+                     AND (o.position < ps.position OR (o.position = ps.position AND o.id <= ps.id))) AS song_rank
+    FROM playlist_songs ps;
+
+UPDATE playlist_songs SET position = 65536 * (SELECT r.song_rank FROM playlist_song_ranks r WHERE r.id = playlist_songs.id);
+
+DROP TABLE playlist_song_ranks;
+
+CREATE UNIQUE INDEX uc_playlist_song_position ON playlist_songs (playlist_id, position);
@@ -0,0 +1,15 @@
+-- Song count and total duration kept on each playlist, so listing playlists reads one row per
+-- playlist instead of grouping all of their songs. PlaylistDao updates them in the same
+-- transaction as every change to playlist_songs; PlaylistDao.repairPlaylistTotals fixes drift.
+
+ALTER TABLE playlists ADD COLUMN song_count INT NOT NULL DEFAULT 0;
+
+ALTER TABLE playlists ADD COLUMN total_duration_seconds BIGINT NOT NULL DEFAULT 0;
+
+UPDATE playlists SET
+    song_count = (SELECT COUNT(*) FROM playlist_songs ps WHERE ps.playlist_id = playlists.id),
+    total_duration_seconds = (SELECT COALESCE(SUM(s.duration_seconds), 0) FROM playlist_songs ps
+                              JOIN songs s ON s.id = ps.song_id WHERE ps.playlist_id = playlists.id),
+    updated_at = updated_at;
+
+CREATE INDEX idx_playlists_user_updated ON playlists (user_id, updated_at);
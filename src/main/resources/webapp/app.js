@@ -4,6 +4,9 @@ let currentPlaylist = [];
 let currentSongIndex = -1;
 let currentPlaylistId = null;
 let allSongs = [];
+let seekStart = 0; // seconds into the song where the player's current source begins (after a ?t= seek)
+let waveformPeaks = null; // Int8Array of min/max pairs for the playing song, or null
+let draggingProgress = false; // true while the progress slider is being dragged
 
 // Initialize on page load
 document.addEventListener('DOMContentLoaded', () => {
@@ -148,7 +151,12 @@ function initializeEventListeners() {
     document.getElementById('playPauseBtn').addEventListener('click', togglePlay);
     document.getElementById('prevBtn').addEventListener('click', previousSong);
     document.getElementById('nextBtn').addEventListener('click', nextSong);
-    document.getElementById('progressBar').addEventListener('input', (e) => seekTo(e.target.value));
+    // While dragging only the time label follows the slider; the seek happens once, on release
+    document.getElementById('progressBar').addEventListener('input', (e) => previewSeek(e.target.value));
+    document.getElementById('progressBar').addEventListener('change', (e) => {
+        draggingProgress = false;
+        seekTo(e.target.value);
+    });
     
     const audioPlayer = document.getElementById('audioPlayer');
     audioPlayer.addEventListener('timeupdate', updateProgress);
@@ -317,6 +325,9 @@ function playSong(songId, songsArray) {
     const audioPlayer = document.getElementById('audioPlayer');
     const player = document.getElementById('musicPlayer');
     
+    seekStart = 0;
+    loadWaveform(song);
+
     // Try to play audio if file path exists
     if (song.audioFilePath) {
         audioPlayer.src = `/api/audio?id=${song.id}`;
@@ -371,8 +382,30 @@ function nextSong() {
     playSong(currentPlaylist[currentSongIndex].id, currentPlaylist);
 }
 
+function previewSeek(value) {
+    draggingProgress = true;
+    const audioPlayer = document.getElementById('audioPlayer');
+    const song = currentPlaylist[currentSongIndex];
+    const duration = song && song.durationSeconds ? song.durationSeconds : audioPlayer.duration;
+    if (duration && !isNaN(duration)) {
+        document.getElementById('currentTime').textContent = formatTime((value / 100) * duration);
+    }
+    drawWaveform(value / 100);
+}
+
 function seekTo(value) {
     const audioPlayer = document.getElementById('audioPlayer');
+    const song = currentPlaylist[currentSongIndex];
+    if (song && song.audioFilePath && song.audioFilePath.toLowerCase().endsWith('.mp3') && song.durationSeconds) {
+        // The browser guesses byte offsets for MP3 seeks, which is wrong for variable bitrate files;
+        // the server finds the right frame from the song's seek table instead.
+        seekStart = (value / 100) * song.durationSeconds;
+        audioPlayer.src = `/api/audio?id=${song.id}&t=${seekStart.toFixed(3)}`;
+        audioPlayer.play().catch(err => {
+            showError('Could not play audio');
+        });
+        return;
+    }
     if (audioPlayer.duration) {
         audioPlayer.currentTime = (value / 100) * audioPlayer.duration;
     }
@@ -382,12 +415,85 @@ function updateProgress() {
     const audioPlayer = document.getElementById('audioPlayer');
     const progressBar = document.getElementById('progressBar');
     const currentTime = document.getElementById('currentTime');
-    
-    if (audioPlayer.duration && !isNaN(audioPlayer.duration)) {
+    if (draggingProgress) return; // leave the slider where the user is holding it
+
+    const song = currentPlaylist[currentSongIndex];
+    if (seekStart > 0 && song && song.durationSeconds) {
+        // Playing from a server-side seek: the source is only the rest of the song
+        const position = seekStart + audioPlayer.currentTime;
+        progressBar.value = (position / song.durationSeconds) * 100;
+        currentTime.textContent = formatTime(position);
+    } else if (audioPlayer.duration && !isNaN(audioPlayer.duration)) {
         const progress = (audioPlayer.currentTime / audioPlayer.duration) * 100;
         progressBar.value = progress;
         currentTime.textContent = formatTime(audioPlayer.currentTime);
     }
+    drawWaveform(progressBar.value / 100);
+}
+
+// Waveform (WAV files only): the server computes the peaks in the background and answers
+// 202 until they are ready, so keep asking for a while without holding up playback.
+async function loadWaveform(song, attempt = 0) {
+    const canvas = document.getElementById('waveform');
+    if (attempt === 0) {
+        waveformPeaks = null;
+        canvas.classList.add('hidden');
+    }
+    if (!song.audioFilePath || !song.audioFilePath.toLowerCase().endsWith('.wav')) return;
+
+    try {
+        const response = await fetch(`/api/audio/peaks?id=${song.id}`);
+        if (currentPlaylist[currentSongIndex] !== song) return; // moved on to another song
+        if (response.status === 202 || response.status === 503) {
+            const retryAfter = parseInt(response.headers.get('Retry-After'), 10) || 1;
+            if (attempt < 30) {
+                setTimeout(() => loadWaveform(song, attempt + 1), retryAfter * 1000);
+            }
+            return;
+        }
+        if (!response.ok) return;
+
+        // Big-endian header; the bin count is at byte 36 and the min/max pairs start at byte 40
+        const buffer = await response.arrayBuffer();
+        if (currentPlaylist[currentSongIndex] !== song || buffer.byteLength < 40) return;
+        const bins = new DataView(buffer).getUint32(36);
+        waveformPeaks = new Int8Array(buffer, 40, Math.min(bins * 2, buffer.byteLength - 40));
+        canvas.classList.remove('hidden');
+        drawWaveform(document.getElementById('progressBar').value / 100);
+    } catch (error) {
+        console.error('Waveform error:', error);
+    }
+}
+
+function drawWaveform(played) {
+    const canvas = document.getElementById('waveform');
+    if (!waveformPeaks) return;
+
+    const width = canvas.clientWidth;
+    const height = canvas.clientHeight;
+    if (canvas.width !== width || canvas.height !== height) {
+        canvas.width = width;
+        canvas.height = height;
+    }
+    const context = canvas.getContext('2d');
+    context.clearRect(0, 0, width, height);
+
+    const bins = waveformPeaks.length / 2;
+    const middle = height / 2;
+    const playedX = played * width;
+    for (let x = 0; x < width; x++) {
+        // Every bin that falls under this pixel column
+        const first = Math.floor(x * bins / width);
+        const last = Math.max(first + 1, Math.floor((x + 1) * bins / width));
+        let min = 0;
+        let max = 0;
+        for (let i = first; i < last && i < bins; i++) {
+            min = Math.min(min, waveformPeaks[2 * i]);
+            max = Math.max(max, waveformPeaks[2 * i + 1]);
+        }
+        context.fillStyle = x < playedX ? '#1db954' : '#535353';
+        context.fillRect(x, middle - (max / 127) * middle, 1, Math.max(1, ((max - min) / 127) * middle));
+    }
 }
 
 function formatTime(seconds) {
@@ -406,7 +512,7 @@ async function loadAllPlaylists() {
     }
     
     try {
-        const response = await fetch(PLAYLIST_API, {
+        const response = await fetch(`${PLAYLIST_API}?fields=id,name,description,songCount`, {
             headers: {
                 'X-User-Id': userId
             }
@@ -713,7 +819,7 @@ async function loadPlaylistsForSelect() {
     }
     
     try {
-        const response = await fetch(PLAYLIST_API, {
+        const response = await fetch(`${PLAYLIST_API}?fields=id,name,songCount`, {
             headers: {
                 'X-User-Id': userId
             }
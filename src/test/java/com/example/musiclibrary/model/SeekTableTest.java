@@ -0,0 +1,36 @@
+package com.example.musiclibrary.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SeekTableTest {
+
+    @Test
+    public void offsetsRoundTripAcrossVarintWidths() {
+        // Deltas of 0, 1 byte, 2 bytes, the 7-bit boundaries, and one past 4 GiB
+        long[] offsets = {0, 0, 127, 128, 16_511, 16_512, 2_113_663, 2_113_664, 2_113_664 + (1L << 32) + 5};
+        SeekTable table = new SeekTable(19, 1152, 44100, 1000, offsets);
+
+        assertArrayEquals(offsets, SeekTable.decodeOffsets(table.encodeOffsets()));
+    }
+
+    @Test
+    public void emptyTableEncodesToNothing() {
+        SeekTable table = new SeekTable(1, 1152, 44100, 0, new long[0]);
+
+        assertEquals(0, table.encodeOffsets().length);
+        assertEquals(0, SeekTable.decodeOffsets(new byte[0]).length);
+    }
+
+    @Test
+    public void frameAtIsClampedToTheFile() {
+        SeekTable table = new SeekTable(19, 1152, 44100, 100, new long[]{0});
+
+        assertEquals(0, table.frameAt(-5));
+        assertEquals(99, table.frameAt(60_000));
+        // frameMillis rounds down, so the exact start of frame 42 is just after the millisecond it reports
+        assertEquals(42, table.frameAt(table.frameMillis(42) + 1));
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.musiclibrary.scan;
+
+import com.example.musiclibrary.model.SeekTable;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parses the sample files shipped in the project root. Expected values come from the files'
+ * headers: the MP3 is constant bitrate (MPEG-1 Layer III, 256 kbit/s, 44.1 kHz, 835 or 836 byte
+ * frames), the WAV is one second of 8 kHz mono 16-bit PCM.
+ */
+public class AudioMetadataTest {
+
+    private static final Path MP3 = Paths.get("a-product-demo-167264.mp3");
+    private static final Path WAV = Paths.get("sample.wav");
+
+    private static final long MP3_FRAMES = 4483;
+    private static final int MP3_SAMPLES_PER_FRAME = 1152;
+    private static final int MP3_SAMPLE_RATE = 44100;
+
+    @Test
+    public void readsMp3DurationAndFrameCount() throws IOException {
+        AudioMetadata metadata = AudioMetadata.read(MP3);
+        SeekTable table = metadata.getSeekTable();
+
+        assertNotNull(table);
+        assertNull(metadata.getWavFormat());
+        assertEquals(MP3_FRAMES, table.getFrameCount());
+        assertEquals(MP3_SAMPLES_PER_FRAME, table.getSamplesPerFrame());
+        assertEquals(MP3_SAMPLE_RATE, table.getSampleRate());
+        assertEquals(MP3_FRAMES * MP3_SAMPLES_PER_FRAME * 1000 / MP3_SAMPLE_RATE, table.getDurationMillis());
+        assertEquals(117, metadata.getDurationSeconds());
+        // No ID3 tag and no Info frame: the audio starts at the first byte
+        assertEquals(0, table.getOffset(0));
+    }
+
+    @Test
+    public void seekTableOffsetsSurviveEncoding() throws IOException {
+        SeekTable table = AudioMetadata.read(MP3).getSeekTable();
+        long[] decoded = SeekTable.decodeOffsets(table.encodeOffsets());
+
+        assertEquals(table.size(), decoded.length);
+        for (int i = 0; i < decoded.length; i++) {
+            assertEquals(table.getOffset(i), decoded[i]);
+        }
+    }
+
+    @Test
+    public void seeksToAFrameStartThroughADecodedTable() throws IOException {
+        SeekTable table = AudioMetadata.read(MP3).getSeekTable();
+        SeekTable stored = new SeekTable(table.getFramesPerEntry(), table.getSamplesPerFrame(), table.getSampleRate(),
+                table.getFrameCount(), SeekTable.decodeOffsets(table.encodeOffsets()));
+        long frameMillis = table.frameMillis(1) + 1;
+
+        try (FileChannel channel = FileChannel.open(MP3, StandardOpenOption.READ)) {
+            for (long millis : new long[]{0, 1_000, 60_000, 117_000}) {
+                Mp3FrameScanner.SeekPoint point = Mp3FrameScanner.seek(channel, stored, millis);
+                Mp3FrameScanner.SeekPoint expected = Mp3FrameScanner.seek(channel, table, millis);
+
+                assertEquals(expected.getOffset(), point.getOffset());
+                assertTrue("starts at or before " + millis, point.getMillis() <= millis);
+                assertTrue("starts within a frame of " + millis, millis - point.getMillis() < frameMillis);
+                assertTrue("frame sync at " + point.getOffset(), isFrameSync(channel, point.getOffset()));
+            }
+        }
+    }
+
+    @Test
+    public void readsWavFormatAndDuration() throws IOException {
+        AudioMetadata metadata = AudioMetadata.read(WAV);
+        WavFormat format = metadata.getWavFormat();
+
+        assertNotNull(format);
+        assertNull(metadata.getSeekTable());
+        assertEquals(WavFormat.PCM, format.getFormatTag());
+        assertEquals(1, format.getChannels());
+        assertEquals(8000, format.getSampleRate());
+        assertEquals(16, format.getBitsPerSample());
+        assertEquals(44, format.getDataOffset());
+        assertEquals(16000, format.getDataSize());
+        assertEquals(8000, format.getFrameCount());
+        assertEquals(1000, format.getDurationMillis());
+        assertEquals(1, metadata.getDurationSeconds());
+    }
+
+    private static boolean isFrameSync(FileChannel channel, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(2);
+        channel.read(header, offset);
+        return (header.get(0) & 0xFF) == 0xFF && (header.get(1) & 0xE0) == 0xE0;
+    }
+}